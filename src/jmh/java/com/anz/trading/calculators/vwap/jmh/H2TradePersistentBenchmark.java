@@ -0,0 +1,84 @@
+package com.anz.trading.calculators.vwap.jmh;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
+
+/**
+ * H2TradePersistent.insertTradesFrom into an in-memory DB, one call per batch of new trades across 10 pairs
+ * (so the minute bars are maintained too). The tables are emptied after each iteration to keep the DB size steady
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class H2TradePersistentBenchmark {
+
+    private static final String[] PAIRS = { "EUR/USD", "USD/JPY", "GBP/USD", "AUD/USD", "USD/CHF",
+            "USD/CAD", "NZD/USD", "EUR/GBP", "EUR/JPY", "GBP/JPY" };
+    private static final long SPACING_NANOS = 1_000_000;
+
+    @Param({ "1000", "10000" })
+    int batchSize;
+
+    private Connection connection;
+    private H2TradePersistent tradeDAO;
+    private long timestampNanos;
+    private Queue<Trade> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:jmhTradePersistent" + batchSize, "sa", "");
+        tradeDAO = new H2TradePersistent(connection);
+        tradeDAO.createTable();
+        timestampNanos = TradeTime.nowNanos();
+    }
+
+    // New sequence ids every call, so every batch takes the INSERT path rather than the duplicate MERGE
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        batch = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < batchSize; i++) {
+            timestampNanos += SPACING_NANOS;
+            batch.add(new Trade(1.15, 100, timestampNanos, PAIRS[i % PAIRS.length]));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void emptyTables() throws SQLException {
+        tradeDAO.deleteDB();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void insertTradesFrom() throws SQLException {
+        tradeDAO.insertTradesFrom(batch);
+    }
+}
@@ -0,0 +1,65 @@
+package com.anz.trading.calculators.vwap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anz.trading.calculators.vwap.FastTradeGenerator;
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeGenerator;
+
+/**
+ * TradeGenerator.generateRandomTrade, the source of every simulated trade, against FastTradeGenerator one trade
+ * at a time and in bulk (scores of the batch benchmark are per trade)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeGeneratorBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    private TradeGenerator tradeGenerator;
+    private FastTradeGenerator fastTradeGenerator;
+    private final FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+    private final double[] prices = new double[BATCH_SIZE];
+    private final long[] volumes = new long[BATCH_SIZE];
+    private final long[] timestamps = new long[BATCH_SIZE];
+    private final int[] currencyPairIds = new int[BATCH_SIZE];
+
+    @Setup
+    public void setUp() {
+        tradeGenerator = new TradeGenerator();
+        fastTradeGenerator = new FastTradeGenerator(42);
+    }
+
+    @Benchmark
+    public Trade generateRandomTrade() {
+        return tradeGenerator.generateRandomTrade();
+    }
+
+    @Benchmark
+    public FastTradeGenerator.Holder fastIntoHolder() {
+        return fastTradeGenerator.next(holder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public double[] fastIntoArrays() {
+        fastTradeGenerator.generate(prices, volumes, timestamps, currencyPairIds, 0, BATCH_SIZE);
+        return prices;
+    }
+}
@@ -0,0 +1,88 @@
+package com.anz.trading.calculators.vwap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+import com.anz.trading.calculators.vwap.ExecutionMode;
+import com.anz.trading.calculators.vwap.FastTradeGenerator;
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.VWAPCalculator;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+/**
+ * VWAPCalculator.processData across 10 pairs for 1..N executor threads. Each invocation submits a batch
+ * and then waits for it to be applied, so the cost covers the hand-off and the window update and the
+ * executor queues stay bounded. The production workload skews the pair mix (EUR/USD about 40%), loading one
+ * pair's lane far more than the others
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VWAPCalculatorBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final CurrencyPairData CURRENCY_PAIR_DATA = CurrencyPairData.createDefault();
+    // About 100k trades retained across the pairs, 10k each when the mix is uniform
+    private static final long SPACING_NANOS = TradeTime.minutesToNanos(60) / 100_000;
+
+    @Param({ "1", "2", "4" })
+    int nbrThreads;
+
+    @Param({ "SHARED_POOL", "PINNED_LANES" })
+    ExecutionMode executionMode;
+
+    @Param({ "uniform", "production" })
+    String workload;
+
+    private VWAPCalculator vwapCalculator;
+    private FastTradeGenerator tradeGenerator;
+    private final FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+    private long timestampNanos;
+
+    @Setup
+    public void setUp() {
+        vwapCalculator = new VWAPCalculator((byte) nbrThreads, 60, executionMode);
+        // Only the pair mix, prices and volumes are used, the benchmark sets its own pace and timestamps
+        tradeGenerator = new FastTradeGenerator(workload.equals("production")
+                ? WorkloadProfile.production(CURRENCY_PAIR_DATA, 1) : WorkloadProfile.uniform(CURRENCY_PAIR_DATA), 42);
+        timestampNanos = TradeTime.nowNanos() - TradeTime.minutesToNanos(60);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vwapCalculator.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void processData(Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            timestampNanos += SPACING_NANOS;
+            tradeGenerator.next(holder);
+            blackhole.consume(vwapCalculator.processData(
+                    new Trade(holder.getPrice(), holder.getVolume(), timestampNanos, holder.getCurrencyPairId())));
+        }
+        for (String pair : CURRENCY_PAIR_DATA.getCurrencyPairs()) {
+            blackhole.consume(vwapCalculator.getVWAP(pair));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.anz.trading.calculators.vwap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.VWAPData;
+
+/**
+ * VWAPData.addDataPoint in steady state, with the window holding the given number of trades so every
+ * new trade evicts one
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VWAPDataBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    int windowDepth;
+
+    private VWAPData vwapData;
+    private long spacingNanos;
+    private long timestampNanos;
+
+    @Setup
+    public void setUp() {
+        vwapData = new VWAPData("EUR/USD", 60);
+        spacingNanos = TradeTime.minutesToNanos(60) / windowDepth;
+        timestampNanos = TradeTime.nowNanos() - TradeTime.minutesToNanos(60);
+        for (int i = 0; i < windowDepth; i++) {
+            addDataPoint();
+        }
+    }
+
+    @Benchmark
+    public int addDataPoint() {
+        timestampNanos += spacingNanos;
+        return vwapData.addDataPoint(new Trade(1.15 + (timestampNanos & 0xFF) * 1e-5, 100, timestampNanos, "EUR/USD"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.anz.trading.calculators.vwap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.VWAPData;
+
+/**
+ * VWAPData.getVWAP from three reader threads while one writer ingests trades for the same pair,
+ * reported per thread role
+ */
+@State(Scope.Group)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VWAPReadContentionBenchmark {
+
+    // About 100k trades retained, so the writer evicts as it adds
+    private static final long SPACING_NANOS = TradeTime.minutesToNanos(60) / 100_000;
+
+    private VWAPData vwapData;
+    // Only touched by the single writer thread
+    private long timestampNanos;
+
+    @Setup
+    public void setUp() {
+        vwapData = new VWAPData("EUR/USD", 60);
+        timestampNanos = TradeTime.nowNanos() - TradeTime.minutesToNanos(60);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public double getVWAP() {
+        return vwapData.getVWAP();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int addDataPoint() {
+        timestampNanos += SPACING_NANOS;
+        return vwapData.addDataPoint(new Trade(1.15, 100, timestampNanos, "EUR/USD"));
+    }
+}
@@ -0,0 +1,189 @@
+package com.anz.trading.calculators.vwap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Circular array of time buckets holding the price*volume, volume and trade count of every trade
+ * that fell into each bucket. Memory is fixed by the window and bucket lengths regardless of the
+ * trade rate, and evicting a bucket is a subtraction rather than a walk over individual trades.
+ * A bucket is evicted once it lies entirely before the window start, so the window may include up
+ * to one extra bucket of older trades. Not thread safe, callers (i.e. VWAPData) synchronise.
+ */
+public class BucketedWindow {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long windowNanos;
+    private final long bucketNanos;
+    private final double[] bucketPriceVolume;
+    private final long[] bucketVolume;
+    private final int[] bucketTradeCount;
+    private final long[] bucketIds;
+
+    private double sumPriceVolume = 0;
+    private long sumVolume = 0;
+    private int tradeCount = 0;
+
+    // Buckets before this id have all been evicted
+    private long oldestBucket = EMPTY;
+
+    public BucketedWindow(long minutesForVWAP, long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket length must be positive: " + bucketMillis);
+        }
+        this.windowNanos = TradeTime.minutesToNanos(minutesForVWAP);
+        this.bucketNanos = bucketMillis * 1_000_000L;
+
+        // Enough buckets for the whole window plus the partially covered buckets at either end
+        int nbrBuckets = (int) Math.min(Integer.MAX_VALUE - 8, windowNanos / bucketNanos + 2);
+        this.bucketPriceVolume = new double[nbrBuckets];
+        this.bucketVolume = new long[nbrBuckets];
+        this.bucketTradeCount = new int[nbrBuckets];
+        this.bucketIds = new long[nbrBuckets];
+        Arrays.fill(bucketIds, EMPTY);
+    }
+
+    /**
+     * Adds the trade to its bucket after evicting every bucket that has left the window
+     * @return the number of trades evicted, including this trade if it is already outside the window
+     */
+    public int add(double price, long volume, long timestampNanos) {
+        long bucket = Math.floorDiv(timestampNanos, bucketNanos);
+        int nbrTradesTrimmed = evictBefore(Math.floorDiv(timestampNanos - windowNanos, bucketNanos));
+
+        if (bucket < oldestBucket) {
+            // Older than anything still held, so it would be trimmed straight away
+            return nbrTradesTrimmed + 1;
+        }
+
+        int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+        if (bucketIds[slot] != bucket) {
+            // Any previous occupant has already been evicted, so the slot only needs resetting
+            resetSlot(slot);
+            bucketIds[slot] = bucket;
+        }
+        bucketPriceVolume[slot] += price * volume;
+        bucketVolume[slot] += volume;
+        bucketTradeCount[slot]++;
+        sumPriceVolume += price * volume;
+        sumVolume += volume;
+        tradeCount++;
+        return nbrTradesTrimmed;
+    }
+
+    private int evictBefore(long cutoffBucket) {
+        if (tradeCount == 0) {
+            oldestBucket = Math.max(oldestBucket, cutoffBucket);
+            return 0;
+        }
+        if (cutoffBucket <= oldestBucket) {
+            return 0;
+        }
+
+        int nbrTradesTrimmed = 0;
+        if (cutoffBucket - oldestBucket >= bucketIds.length) {
+            // The whole circle has expired, no need to visit each bucket id in between
+            nbrTradesTrimmed = tradeCount;
+            tradeCount = 0;
+            for (int slot = 0; slot < bucketIds.length; slot++) {
+                resetSlot(slot);
+            }
+        } else {
+            for (long bucket = oldestBucket; bucket < cutoffBucket; bucket++) {
+                int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+                if (bucketIds[slot] == bucket) {
+                    nbrTradesTrimmed += bucketTradeCount[slot];
+                    sumPriceVolume -= bucketPriceVolume[slot];
+                    sumVolume -= bucketVolume[slot];
+                    tradeCount -= bucketTradeCount[slot];
+                    resetSlot(slot);
+                }
+            }
+        }
+        oldestBucket = cutoffBucket;
+
+        // Clear any floating point drift from the running subtraction once the window is empty
+        if (tradeCount == 0) {
+            sumPriceVolume = 0;
+            sumVolume = 0;
+        }
+        return nbrTradesTrimmed;
+    }
+
+    private void resetSlot(int slot) {
+        bucketIds[slot] = EMPTY;
+        bucketPriceVolume[slot] = 0;
+        bucketVolume[slot] = 0;
+        bucketTradeCount[slot] = 0;
+    }
+
+    // Writes the occupied buckets and running sums, empty slots are skipped so the size follows the trade rate
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(windowNanos);
+        out.writeLong(bucketNanos);
+        out.writeDouble(sumPriceVolume);
+        out.writeLong(sumVolume);
+        out.writeInt(tradeCount);
+        out.writeLong(oldestBucket);
+        int occupied = 0;
+        for (long bucketId : bucketIds) {
+            if (bucketId != EMPTY) {
+                occupied++;
+            }
+        }
+        out.writeInt(occupied);
+        for (int slot = 0; slot < bucketIds.length; slot++) {
+            if (bucketIds[slot] != EMPTY) {
+                out.writeLong(bucketIds[slot]);
+                out.writeDouble(bucketPriceVolume[slot]);
+                out.writeLong(bucketVolume[slot]);
+                out.writeInt(bucketTradeCount[slot]);
+            }
+        }
+    }
+
+    // Replaces the contents with those written by writeTo, the window and bucket lengths must match
+    void readFrom(DataInput in) throws IOException {
+        long savedWindowNanos = in.readLong();
+        long savedBucketNanos = in.readLong();
+        if (savedWindowNanos != windowNanos || savedBucketNanos != bucketNanos) {
+            throw new IOException("Checkpoint buckets do not match this window: " + savedWindowNanos + "/"
+                    + savedBucketNanos + " nanos rather than " + windowNanos + "/" + bucketNanos);
+        }
+        for (int slot = 0; slot < bucketIds.length; slot++) {
+            resetSlot(slot);
+        }
+        sumPriceVolume = in.readDouble();
+        sumVolume = in.readLong();
+        tradeCount = in.readInt();
+        oldestBucket = in.readLong();
+        int occupied = in.readInt();
+        for (int i = 0; i < occupied; i++) {
+            long bucket = in.readLong();
+            int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+            bucketIds[slot] = bucket;
+            bucketPriceVolume[slot] = in.readDouble();
+            bucketVolume[slot] = in.readLong();
+            bucketTradeCount[slot] = in.readInt();
+        }
+    }
+
+    public double getSumPriceVolume() {
+        return sumPriceVolume;
+    }
+
+    public long getSumVolume() {
+        return sumVolume;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+
+    public int getBucketCount() {
+        return bucketIds.length;
+    }
+}
@@ -0,0 +1,64 @@
+package com.anz.trading.calculators.vwap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns currency pairs to dense integer ids so per-pair state can be held in arrays indexed by id
+ * rather than looked up by String hash on every trade. The default registry is seeded with the
+ * pairs from CurrencyPairData in order, and new pairs are still accepted at runtime.
+ */
+public class CurrencyPairRegistry {
+
+    private static final CurrencyPairRegistry DEFAULT =
+            new CurrencyPairRegistry(CurrencyPairData.createDefault().getCurrencyPairs());
+
+    private final Map<String, Integer> idsByPair = new ConcurrentHashMap<>();
+    private volatile String[] pairsById = new String[0];
+
+    public CurrencyPairRegistry(String[] currencyPairs) {
+        for (String currencyPair : currencyPairs) {
+            intern(currencyPair);
+        }
+    }
+
+    public static CurrencyPairRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the id of the currency pair, registering it with the next free id if it is new
+     */
+    public int intern(String currencyPair) {
+        Integer id = idsByPair.get(currencyPair);
+        return id != null ? id : register(currencyPair);
+    }
+
+    private synchronized int register(String currencyPair) {
+        Integer id = idsByPair.get(currencyPair);
+        if (id != null) {
+            return id;
+        }
+        String[] pairs = Arrays.copyOf(pairsById, pairsById.length + 1);
+        pairs[pairs.length - 1] = currencyPair;
+        // Publish the array before the id so any reader holding the id can resolve the pair
+        pairsById = pairs;
+        idsByPair.put(currencyPair, pairs.length - 1);
+        return pairs.length - 1;
+    }
+
+    // Returns -1 when the currency pair has never been registered
+    public int getId(String currencyPair) {
+        Integer id = idsByPair.get(currencyPair);
+        return id != null ? id : -1;
+    }
+
+    public String getCurrencyPair(int id) {
+        return pairsById[id];
+    }
+
+    public int size() {
+        return pairsById.length;
+    }
+}
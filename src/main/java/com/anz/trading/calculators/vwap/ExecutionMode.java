@@ -0,0 +1,13 @@
+package com.anz.trading.calculators.vwap;
+
+/**
+ * How VWAPCalculator dispatches incoming trades to its worker threads
+ */
+public enum ExecutionMode {
+    // Any worker may apply any pair's trades, but a pair's trades are queued per pair and applied
+    // one at a time in the order they were submitted
+    SHARED_POOL,
+    // Each currency pair is pinned to one single-threaded lane, so every pair has a single writer
+    // and its trades are applied in the order they were submitted
+    PINNED_LANES
+}
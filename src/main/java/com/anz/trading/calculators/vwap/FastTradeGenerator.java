@@ -0,0 +1,157 @@
+package com.anz.trading.calculators.vwap;
+
+import java.util.SplittableRandom;
+
+import com.anz.trading.calculators.vwap.workload.PairSelector;
+import com.anz.trading.calculators.vwap.workload.PriceModel;
+import com.anz.trading.calculators.vwap.workload.VolumeModel;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+/**
+ * Allocation-free counterpart of TradeGenerator for benchmarks and load tests, drawing pairs, prices and volumes
+ * from a WorkloadProfile (by default the uniform one, TradeGenerator's distributions) at tens of millions of
+ * trades per second on one core. Trades are written into caller-supplied primitive arrays or a reusable Holder
+ * rather than allocated; generateRandomTrade() is only there for callers that need a Trade.
+ * Uses an unshared SplittableRandom instead of the CAS-updated java.util.Random, and reads the wall clock once
+ * per CLOCK_REFRESH_INTERVAL trades. Not thread-safe, give each producer thread its own made with split()
+ */
+public final class FastTradeGenerator {
+
+    // Generated timestamps are re-read from the clock once per this many trades (and at the start of each bulk
+    // call), so they lag the wall clock by at most the time taken to generate that many
+    static final int CLOCK_REFRESH_INTERVAL = 1024;
+
+    private final WorkloadProfile workload;
+    private final SplittableRandom random;
+    // Resolved once and shared between split generators, it is never written
+    private final int[] currencyPairIds;
+    private final PairSelector pairSelector;
+    // This generator's own copy, it may keep state such as the last price of each pair
+    private final PriceModel prices;
+    private final VolumeModel volumes;
+    private long coarseNowNanos;
+    private int tradesUntilClockRefresh = 0;
+
+    /**
+     * One generated trade, overwritten by every call it is passed to
+     */
+    public static final class Holder {
+        private double price;
+        private long volume;
+        private long timestampNanos;
+        private int currencyPairId;
+
+        public double getPrice() {
+            return price;
+        }
+
+        public long getVolume() {
+            return volume;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        // Id in the default CurrencyPairRegistry
+        public int getCurrencyPairId() {
+            return currencyPairId;
+        }
+
+        // Copies the current values into a new Trade
+        public Trade toTrade() {
+            return new Trade(price, volume, timestampNanos, currencyPairId);
+        }
+    }
+
+    public FastTradeGenerator(WorkloadProfile workload, long seed) {
+        String[] currencyPairs = workload.getCurrencyPairData().getCurrencyPairs();
+        this.workload = workload;
+        this.random = new SplittableRandom(seed);
+        this.currencyPairIds = new int[currencyPairs.length];
+        for (int i = 0; i < currencyPairs.length; i++) {
+            currencyPairIds[i] = CurrencyPairRegistry.getDefault().intern(currencyPairs[i]);
+        }
+        this.pairSelector = workload.getPairSelector();
+        this.prices = workload.getPrices().copy();
+        this.volumes = workload.getVolumes();
+    }
+
+    public FastTradeGenerator(CurrencyPairData currencyPairData, long seed) {
+        this(WorkloadProfile.uniform(currencyPairData), seed);
+    }
+
+    public FastTradeGenerator(long seed) {
+        this(CurrencyPairData.createDefault(), seed);
+    }
+
+    private FastTradeGenerator(FastTradeGenerator parent, SplittableRandom random) {
+        this.workload = parent.workload;
+        this.random = random;
+        this.currencyPairIds = parent.currencyPairIds;
+        this.pairSelector = parent.pairSelector;
+        this.prices = parent.workload.getPrices().copy();
+        this.volumes = parent.volumes;
+    }
+
+    /**
+     * A generator over the same pairs with a statistically independent stream, for another thread
+     */
+    public FastTradeGenerator split() {
+        return new FastTradeGenerator(this, random.split());
+    }
+
+    /**
+     * Writes length random trades into the arrays from offset on, one trade per index across all four
+     */
+    public void generate(double[] prices, long[] volumes, long[] timestampsNanos, int[] currencyPairIds,
+            int offset, int length) {
+        int end = offset + length;
+        tradesUntilClockRefresh = 0;
+        for (int i = offset; i < end; i++) {
+            int index = pairSelector.nextPair(random);
+            currencyPairIds[i] = this.currencyPairIds[index];
+            prices[i] = this.prices.nextPrice(index, random);
+            volumes[i] = this.volumes.nextVolume(random);
+            timestampsNanos[i] = coarseNowNanos();
+        }
+    }
+
+    /**
+     * Overwrites the holder with a random trade and returns it
+     */
+    public Holder next(Holder holder) {
+        return next(pairSelector.nextPair(random), holder);
+    }
+
+    /**
+     * Overwrites the holder with a random trade for the currency pair at the given index and returns it
+     */
+    public Holder next(int index, Holder holder) {
+        holder.currencyPairId = currencyPairIds[index];
+        holder.price = prices.nextPrice(index, random);
+        holder.volume = volumes.nextVolume(random);
+        holder.timestampNanos = coarseNowNanos();
+        return holder;
+    }
+
+    public Trade generateRandomTrade() {
+        return next(new Holder()).toTrade();
+    }
+
+    public WorkloadProfile getWorkload() {
+        return workload;
+    }
+
+    public int getNumberOfCurrencyPairs() {
+        return currencyPairIds.length;
+    }
+
+    private long coarseNowNanos() {
+        if (--tradesUntilClockRefresh < 0) {
+            coarseNowNanos = TradeTime.nowNanos();
+            tradesUntilClockRefresh = CLOCK_REFRESH_INTERVAL - 1;
+        }
+        return coarseNowNanos;
+    }
+}
@@ -0,0 +1,107 @@
+package com.anz.trading.calculators.vwap;
+
+import java.io.PrintStream;
+
+/**
+ * Fixed-size log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram: every power of two
+ * is split into 128 linear buckets, so any recorded value is reported to within 1% however large it is.
+ * Recording is a few shifts and an array increment with no allocation. Not thread-safe, each recording
+ * thread keeps its own and they are merged with add()
+ */
+public final class LatencyHistogram {
+
+    // Values below 2^8 are kept exactly, above that every power of two has 128 buckets
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+    // Values are clamped to about 73 minutes
+    private static final int MAX_MAGNITUDE = 42;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    private final long[] counts = new long[(MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * HALF_SUB_BUCKETS];
+    private long totalCount = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long valueNanos) {
+        long value = Math.min(Math.max(valueNanos, 0), MAX_VALUE);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    // Values below 2^SUB_BUCKET_BITS get a bucket each, above that the bucket width doubles with each power of two
+    private static int indexOf(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Largest value that falls into the bucket
+    private static long highestValueAt(int index) {
+        if (index < 2 * HALF_SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long subBucket = index - (long) shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    // Adds another histogram's counts into this one
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Value at or below which the given percentage of recorded values fall, to within the bucket width
+     * (the bucket's upper bound is reported, capped at the largest value recorded)
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    // One line of percentiles in microseconds
+    public void printPercentiles(PrintStream out, String label) {
+        out.printf("%-16s count=%,d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus p99.99=%.1fus max=%.1fus%n", label,
+                totalCount, getMean() / 1e3, getValueAtPercentile(50) / 1e3, getValueAtPercentile(99) / 1e3,
+                getValueAtPercentile(99.9) / 1e3, getValueAtPercentile(99.99) / 1e3, getMax() / 1e3);
+    }
+}
@@ -0,0 +1,394 @@
+package com.anz.trading.calculators.vwap;
+
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.anz.trading.calculators.vwap.workload.ArrivalProcess;
+import com.anz.trading.calculators.vwap.workload.PairSelector;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+/**
+ * Open-loop load test of VWAPCalculator. N producer threads each send trades on a fixed schedule derived
+ * from the target rate (ramping linearly from a start rate if set), whether or not the previous trade has
+ * been applied yet. Latency is measured from a trade's scheduled send time to the moment it is visible in
+ * getVWAP, so a stall shows up in every trade that should have been sent during it (no coordinated omission).
+ * Pairs, prices and volumes come from a WorkloadProfile; when the profile has its own arrival process (such as
+ * the bursty production one) that sets the schedule in place of the rate and ramp. With a TradeResourceManager
+ * attached, the producers report their trades to it as VWAPCalculatorService does, so its thresholds can be
+ * tuned under the same load.
+ *
+ * Run as a main, options (defaults in brackets):
+ *   --producers n [4]  --threads n calculator threads [4]  --duration seconds [30]
+ *   --rate trades/s, 0 for as fast as possible [1000000]  --start-rate trades/s [rate]  --ramp seconds [0]
+ *   --profile uniform|production, production sends at --rate with 50x bursts [uniform]
+ *   --skew s Zipf pair skew [profile's]  --sample-every n trades timed for visibility [1]  --window minutes [60]
+ *   --per-pair-threshold n and --total-threshold n run a TradeResourceManager every --cycle seconds [30]
+ */
+public class LoadTestDriver {
+
+    private final VWAPCalculator vwapCalculator;
+    private WorkloadProfile workload;
+    private TradeResourceManager resourceManager;
+    private int producers = 4;
+    private long durationMillis = 30_000;
+    private double rate = 1_000_000;
+    private double startRate = -1;
+    private long rampMillis = 0;
+    private int sampleEvery = 1;
+    private long seed = 42;
+
+    public LoadTestDriver(VWAPCalculator vwapCalculator, CurrencyPairData currencyPairData) {
+        this(vwapCalculator, WorkloadProfile.uniform(currencyPairData));
+    }
+
+    public LoadTestDriver(VWAPCalculator vwapCalculator, WorkloadProfile workload) {
+        this.vwapCalculator = vwapCalculator;
+        this.workload = workload;
+    }
+
+    /**
+     * Outcome of one run, latencies are ingest-to-visible in nanoseconds
+     */
+    public static final class Report {
+        private final long tradesSent;
+        private final long elapsedNanos;
+        private final long[] tradesPerPair;
+        private final String[] currencyPairs;
+        private final LatencyHistogram latency;
+
+        Report(long tradesSent, long elapsedNanos, long[] tradesPerPair, String[] currencyPairs, LatencyHistogram latency) {
+            this.tradesSent = tradesSent;
+            this.elapsedNanos = elapsedNanos;
+            this.tradesPerPair = tradesPerPair;
+            this.currencyPairs = currencyPairs;
+            this.latency = latency;
+        }
+
+        public long getTradesSent() {
+            return tradesSent;
+        }
+
+        public double getThroughputPerSecond() {
+            return elapsedNanos == 0 ? 0 : tradesSent * 1e9 / elapsedNanos;
+        }
+
+        public long getTradesSent(int pairIndex) {
+            return tradesPerPair[pairIndex];
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Trades sent: %,d in %.2f s, achieved %,.0f trades/s%n", tradesSent, elapsedNanos / 1e9,
+                    getThroughputPerSecond());
+            latency.printPercentiles(out, "Ingest-to-visible");
+            out.print("Per pair:");
+            for (int i = 0; i < currencyPairs.length; i++) {
+                out.printf(" %s=%.1f%%", currencyPairs[i], tradesSent == 0 ? 0 : 100.0 * tradesPerPair[i] / tradesSent);
+            }
+            out.println();
+        }
+    }
+
+    /**
+     * Runs the producers for the configured duration and waits for them to finish
+     */
+    public Report run() throws InterruptedException {
+        String[] currencyPairs = workload.getCurrencyPairData().getCurrencyPairs();
+        Producer[] producerThreads = new Producer[producers];
+        CountDownLatch ready = new CountDownLatch(producers);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] startNanos = new long[1];
+        // Split from one root so each producer draws its own stream of the same seeded run
+        FastTradeGenerator tradeGenerator = new FastTradeGenerator(workload, seed);
+        for (int i = 0; i < producers; i++) {
+            producerThreads[i] = new Producer(i, tradeGenerator.split(), ready, go, startNanos);
+            producerThreads[i].start();
+        }
+        ready.await();
+        startNanos[0] = System.nanoTime();
+        go.countDown();
+
+        long tradesSent = 0;
+        long lastFinishNanos = startNanos[0];
+        long[] tradesPerPair = new long[currencyPairs.length];
+        LatencyHistogram latency = new LatencyHistogram();
+        for (Producer producer : producerThreads) {
+            producer.join();
+            tradesSent += producer.sent;
+            lastFinishNanos = Math.max(lastFinishNanos, producer.finishNanos);
+            for (int i = 0; i < tradesPerPair.length; i++) {
+                tradesPerPair[i] += producer.sentPerPair[i];
+            }
+            latency.add(producer.latency);
+        }
+        return new Report(tradesSent, lastFinishNanos - startNanos[0], tradesPerPair, currencyPairs, latency);
+    }
+
+    // Time since the start at which the n-th trade of the whole run is due, i.e. where the trades sent so far
+    // (the integral of the linearly ramping rate) reach n. Exact for any start rate, including 0
+    long scheduledNanos(long n) {
+        double initialRate = startRate < 0 ? rate : startRate;
+        double rampSeconds = rampMillis / 1e3;
+        double rampTrades = (initialRate + rate) / 2 * rampSeconds;
+        double seconds;
+        if (rampSeconds <= 0 || initialRate == rate) {
+            seconds = n / rate;
+        } else if (n > rampTrades) {
+            seconds = rampSeconds + (n - rampTrades) / rate;
+        } else {
+            // n = initialRate * t + acceleration * t^2 / 2 solved for t
+            double acceleration = (rate - initialRate) / rampSeconds;
+            seconds = (-initialRate + Math.sqrt(initialRate * initialRate + 2 * acceleration * n)) / acceleration;
+        }
+        return (long) (seconds * 1e9);
+    }
+
+    private final class Producer extends Thread {
+        private final PairSelector pairSelector;
+        private final CountDownLatch ready;
+        private final CountDownLatch go;
+        private final long[] startNanos;
+        private final int index;
+        private final SplittableRandom random;
+        private final FastTradeGenerator tradeGenerator;
+        private final FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+        // Every producer replays the whole run's arrivals from the same seed and sends its share of them, so
+        // bursts hit all producers at once. Null when the schedule follows the rate and ramp
+        private final ArrivalProcess arrivals;
+        private final SplittableRandom arrivalRandom;
+        // Only read by run() after join()
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final long[] sentPerPair;
+        private long sent = 0;
+        private long finishNanos;
+
+        Producer(int index, FastTradeGenerator tradeGenerator, CountDownLatch ready, CountDownLatch go,
+                long[] startNanos) {
+            super("load-producer-" + index);
+            this.index = index;
+            this.pairSelector = workload.getPairSelector();
+            this.ready = ready;
+            this.go = go;
+            this.startNanos = startNanos;
+            this.random = new SplittableRandom(seed + index);
+            this.tradeGenerator = tradeGenerator;
+            this.arrivals = workload.getArrivals() == null ? null : workload.getArrivals().copy();
+            this.arrivalRandom = new SplittableRandom(seed * 31);
+            this.sentPerPair = new long[pairSelector.getNumberOfPairs()];
+        }
+
+        @Override
+        public void run() {
+            ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long start = startNanos[0];
+            long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            boolean throttled = arrivals != null || rate > 0;
+            // Producers take every producers-th trade of the run's schedule, so they are staggered rather than
+            // all sending at once
+            long tradeNumber = index;
+            long arrivalNanos = 0;
+            long scheduled = start;
+            if (arrivals != null) {
+                arrivalNanos = skipArrivals(arrivalNanos, index + 1);
+                scheduled = start + arrivalNanos;
+            } else if (throttled) {
+                scheduled = start + scheduledNanos(tradeNumber);
+            }
+            while (scheduled < end) {
+                long now = throttled ? awaitSchedule(scheduled) : System.nanoTime();
+                if (!throttled) {
+                    scheduled = now;
+                }
+                int pairIndex = pairSelector.nextPair(random);
+                Trade trade = tradeGenerator.next(pairIndex, holder).toTrade();
+                int tradesTrimmed = vwapCalculator.processData(trade);
+                if (resourceManager != null) {
+                    resourceManager.recordTrades(1 - tradesTrimmed);
+                }
+                sent++;
+                sentPerPair[pairIndex]++;
+                if (sent % sampleEvery == 0) {
+                    // Waits until every trade sent for the pair so far has been applied
+                    vwapCalculator.getVWAP(trade.getCurrencyPair());
+                    latency.record(System.nanoTime() - scheduled);
+                }
+                if (arrivals != null) {
+                    arrivalNanos = skipArrivals(arrivalNanos, producers);
+                    scheduled = start + arrivalNanos;
+                } else if (throttled) {
+                    tradeNumber += producers;
+                    scheduled = start + scheduledNanos(tradeNumber);
+                } else if (System.nanoTime() >= end) {
+                    break;
+                }
+            }
+            finishNanos = System.nanoTime();
+        }
+
+        // Parks for long waits and spins for the last stretch, returning the time it woke
+        private long awaitSchedule(long scheduled) {
+            long now = System.nanoTime();
+            while (now < scheduled) {
+                long remaining = scheduled - now;
+                if (remaining > 100_000) {
+                    LockSupport.parkNanos(remaining - 50_000);
+                } else {
+                    Thread.onSpinWait();
+                }
+                now = System.nanoTime();
+            }
+            return now;
+        }
+
+        // Time since the start of the arrival count trades on from the one at arrivalNanos
+        private long skipArrivals(long arrivalNanos, int count) {
+            for (int i = 0; i < count; i++) {
+                arrivalNanos += arrivals.nextGapNanos(arrivalRandom);
+            }
+            return arrivalNanos;
+        }
+    }
+
+    public void setProducers(int producers) {
+        if (producers < 1) {
+            throw new IllegalArgumentException("At least one producer is needed: " + producers);
+        }
+        this.producers = producers;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    // Target trades per second across all producers, 0 sends as fast as the calculator accepts them.
+    // Not used when the workload has its own arrival process
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    // Rate at the start of the ramp, the target rate is reached after rampMillis
+    public void setRamp(double startRate, long rampMillis) {
+        this.startRate = startRate;
+        this.rampMillis = rampMillis;
+    }
+
+    // Zipf skew of the pair mix, pair i of n having weight 1 / (i + 1)^skew
+    public void setSkew(double skew) {
+        this.workload = workload.withPairSelector(PairSelector.zipf(workload.getPairSelector().getNumberOfPairs(), skew));
+    }
+
+    public void setWorkload(WorkloadProfile workload) {
+        this.workload = workload;
+    }
+
+    // Producers report each trade (net of those trimmed) to the manager, which the caller starts and stops
+    public void setResourceManager(TradeResourceManager resourceManager) {
+        this.resourceManager = resourceManager;
+    }
+
+    // Only every n-th trade waits to be visible, so the producers are not held up on every send
+    public void setSampleEvery(int sampleEvery) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least 1: " + sampleEvery);
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        byte threads = 4;
+        long windowMinutes = 60;
+        CurrencyPairData currencyPairData = CurrencyPairData.createDefault();
+        String profile = "uniform";
+        double rate = 1_000_000;
+        int tradeThresholdPerPair = 0;
+        int totalTradeThreshold = 0;
+        long cycleMillis = 30_000;
+        double startRate = -1;
+        long rampMillis = 0;
+        // Options that size the calculator, workload and resource manager are read first, the rest are applied
+        // to the driver
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads": threads = Byte.parseByte(value); break;
+                case "--window": windowMinutes = Long.parseLong(value); break;
+                case "--profile": profile = value; break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--per-pair-threshold": tradeThresholdPerPair = Integer.parseInt(value); break;
+                case "--total-threshold": totalTradeThreshold = Integer.parseInt(value); break;
+                case "--cycle": cycleMillis = (long) (Double.parseDouble(value) * 1000); break;
+                default: break;
+            }
+        }
+        WorkloadProfile workload;
+        if (profile.equals("uniform")) {
+            workload = WorkloadProfile.uniform(currencyPairData);
+        } else if (profile.equals("production")) {
+            workload = WorkloadProfile.production(currencyPairData, rate);
+        } else {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+        VWAPCalculator vwapCalculator = new VWAPCalculator(threads, windowMinutes);
+        LoadTestDriver driver = new LoadTestDriver(vwapCalculator, workload);
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--producers": driver.setProducers(Integer.parseInt(value)); break;
+                case "--duration": driver.setDurationMillis((long) (Double.parseDouble(value) * 1000)); break;
+                case "--rate": driver.setRate(Double.parseDouble(value)); break;
+                case "--start-rate": startRate = Double.parseDouble(value); break;
+                case "--ramp": rampMillis = (long) (Double.parseDouble(value) * 1000); break;
+                case "--skew": driver.setSkew(Double.parseDouble(value)); break;
+                case "--sample-every": driver.setSampleEvery(Integer.parseInt(value)); break;
+                case "--seed": driver.setSeed(Long.parseLong(value)); break;
+                case "--threads":
+                case "--window":
+                case "--profile":
+                case "--per-pair-threshold":
+                case "--total-threshold":
+                case "--cycle":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        driver.setRamp(startRate, rampMillis);
+        TradeResourceManager resourceManager = null;
+        if (tradeThresholdPerPair > 0 && totalTradeThreshold > 0) {
+            resourceManager = new TradeResourceManager(vwapCalculator, tradeThresholdPerPair, totalTradeThreshold);
+            resourceManager.start(windowMinutes, cycleMillis, cycleMillis / 10);
+            driver.setResourceManager(resourceManager);
+        }
+
+        System.out.println("Load test: " + String.join(" ", args));
+        Report report = driver.run();
+        if (resourceManager != null) {
+            resourceManager.shutdown();
+        }
+        vwapCalculator.shutdown();
+        report.print(System.out);
+        if (resourceManager != null) {
+            System.out.printf("Resource manager settled on %,d trades per pair, restoring every %d minutes%n",
+                    resourceManager.getTradeThresholdPerPair(), resourceManager.getRestoreFrequency());
+        }
+    }
+}
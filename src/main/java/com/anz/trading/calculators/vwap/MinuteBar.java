@@ -0,0 +1,73 @@
+package com.anz.trading.calculators.vwap;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable aggregate of one pair's trades within one clock minute, as kept by the persistent DB
+ * alongside the raw trades so a restore can add a minute back with one row rather than every trade
+ */
+public final class MinuteBar {
+    public static final long NANOS_PER_MINUTE = TradeTime.minutesToNanos(1);
+
+    private final String currencyPair;
+    private final long minuteStartNanos;
+    private final double sumPriceVolume;
+    private final long sumVolume;
+    private final int tradeCount;
+    private final long firstTimestampNanos;
+    private final long lastTimestampNanos;
+
+    public MinuteBar(String currencyPair, long minuteStartNanos, double sumPriceVolume, long sumVolume,
+            int tradeCount, long firstTimestampNanos, long lastTimestampNanos) {
+        this.currencyPair = currencyPair;
+        this.minuteStartNanos = minuteStartNanos;
+        this.sumPriceVolume = sumPriceVolume;
+        this.sumVolume = sumVolume;
+        this.tradeCount = tradeCount;
+        this.firstTimestampNanos = firstTimestampNanos;
+        this.lastTimestampNanos = lastTimestampNanos;
+    }
+
+    // Start of the clock minute the trade falls into
+    public static long minuteStartNanos(long timestampNanos) {
+        return Math.floorDiv(timestampNanos, NANOS_PER_MINUTE) * NANOS_PER_MINUTE;
+    }
+
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    public long getMinuteStartNanos() {
+        return minuteStartNanos;
+    }
+
+    public LocalDateTime getMinuteStart() {
+        return TradeTime.toLocalDateTime(minuteStartNanos);
+    }
+
+    public double getSumPriceVolume() {
+        return sumPriceVolume;
+    }
+
+    public long getSumVolume() {
+        return sumVolume;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+
+    public long getFirstTimestampNanos() {
+        return firstTimestampNanos;
+    }
+
+    public long getLastTimestampNanos() {
+        return lastTimestampNanos;
+    }
+
+    @Override
+    public String toString() {
+        return currencyPair + " " + getMinuteStart() + " [pv=" + sumPriceVolume + ", v=" + sumVolume
+                + ", n=" + tradeCount + "]";
+    }
+}
@@ -0,0 +1,203 @@
+package com.anz.trading.calculators.vwap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Ring buffer of fixed-width trade records (price, volume, epoch nanos, sequence id) held in direct memory,
+ * so retaining millions of trades in a window adds nothing to the heap the GC has to trace.
+ * The buffer doubles when full, halves once it is a quarter used, and its memory is freed
+ * explicitly by release() rather than waiting for the ByteBuffer to be collected.
+ * Not thread safe, callers (i.e. VWAPData) synchronise.
+ */
+public class OffHeapTradeBuffer implements TradeBuffer {
+
+    private static final int RECORD_BYTES = 32;
+    private static final int PRICE_OFFSET = 0;
+    private static final int VOLUME_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 16;
+    private static final int SEQUENCE_OFFSET = 24;
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / RECORD_BYTES);
+
+    private final int initialCapacity;
+    private ByteBuffer records;
+    private int capacity;
+    private int mask;
+
+    // Absolute positions, the physical record is (position & mask)
+    private long head = 0;
+    private long tail = 0;
+
+    public OffHeapTradeBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public OffHeapTradeBuffer(int initialCapacity) {
+        // Round up to a power of 2 so the record can be found with a mask rather than a modulo
+        this.initialCapacity = Math.min(MAX_CAPACITY,
+                Math.max(2, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1));
+        this.records = allocate(this.initialCapacity);
+    }
+
+    private ByteBuffer allocate(int newCapacity) {
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        return ByteBuffer.allocateDirect(newCapacity * RECORD_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private int offset(long position) {
+        return (int) (position & mask) * RECORD_BYTES;
+    }
+
+    private ByteBuffer records() {
+        if (records == null) {
+            throw new IllegalStateException("Off-heap trade buffer has been released");
+        }
+        return records;
+    }
+
+    @Override
+    public void add(double price, long volume, long timestampNanos, long sequenceId) {
+        ByteBuffer buffer = records();
+        if (tail - head == capacity) {
+            if (capacity == MAX_CAPACITY) {
+                throw new IllegalStateException("Off-heap trade buffer is full at " + capacity + " trades");
+            }
+            resize(capacity << 1);
+            buffer = records;
+        }
+        int offset = offset(tail);
+        buffer.putDouble(offset + PRICE_OFFSET, price);
+        buffer.putLong(offset + VOLUME_OFFSET, volume);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestampNanos);
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequenceId);
+        tail++;
+    }
+
+    // Copies the live records oldest first into a new allocation and frees the old one
+    private void resize(int newCapacity) {
+        ByteBuffer oldRecords = records;
+        int oldMask = mask;
+        int size = size();
+
+        ByteBuffer newRecords = allocate(newCapacity);
+        for (int i = 0; i < size; i++) {
+            int from = (int) ((head + i) & oldMask) * RECORD_BYTES;
+            int to = offset(head + i);
+            newRecords.putDouble(to + PRICE_OFFSET, oldRecords.getDouble(from + PRICE_OFFSET));
+            newRecords.putLong(to + VOLUME_OFFSET, oldRecords.getLong(from + VOLUME_OFFSET));
+            newRecords.putLong(to + TIMESTAMP_OFFSET, oldRecords.getLong(from + TIMESTAMP_OFFSET));
+            newRecords.putLong(to + SEQUENCE_OFFSET, oldRecords.getLong(from + SEQUENCE_OFFSET));
+        }
+        records = newRecords;
+        DirectMemory.free(oldRecords);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    @Override
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public double peekPrice() {
+        return records().getDouble(offset(head) + PRICE_OFFSET);
+    }
+
+    @Override
+    public long peekVolume() {
+        return records().getLong(offset(head) + VOLUME_OFFSET);
+    }
+
+    @Override
+    public long peekTimestamp() {
+        return records().getLong(offset(head) + TIMESTAMP_OFFSET);
+    }
+
+    @Override
+    public long headPosition() {
+        return head;
+    }
+
+    @Override
+    public long tailPosition() {
+        return tail;
+    }
+
+    @Override
+    public double priceAt(long position) {
+        return records().getDouble(offset(position) + PRICE_OFFSET);
+    }
+
+    @Override
+    public long volumeAt(long position) {
+        return records().getLong(offset(position) + VOLUME_OFFSET);
+    }
+
+    @Override
+    public long timestampAt(long position) {
+        return records().getLong(offset(position) + TIMESTAMP_OFFSET);
+    }
+
+    @Override
+    public long sequenceIdAt(long position) {
+        return records().getLong(offset(position) + SEQUENCE_OFFSET);
+    }
+
+    @Override
+    public void removeFirst() {
+        if (head == tail) {
+            throw new IllegalStateException("Cannot remove from an empty trade buffer");
+        }
+        head++;
+        // Give memory back as the window moves past a burst
+        if (capacity > initialCapacity && size() < capacity >> 2) {
+            resize(capacity >> 1);
+        }
+    }
+
+    @Override
+    public void clear() {
+        records();
+        head = tail;
+        if (capacity > initialCapacity) {
+            ByteBuffer oldRecords = records;
+            records = allocate(initialCapacity);
+            DirectMemory.free(oldRecords);
+        }
+    }
+
+    @Override
+    public Queue<Trade> toTrades(String currencyPair, long fromPosition) {
+        ByteBuffer buffer = records();
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        for (long position = Math.max(head, fromPosition); position < tail; position++) {
+            int offset = offset(position);
+            trades.add(new Trade(buffer.getDouble(offset + PRICE_OFFSET), buffer.getLong(offset + VOLUME_OFFSET),
+                    buffer.getLong(offset + TIMESTAMP_OFFSET), currencyPair, buffer.getLong(offset + SEQUENCE_OFFSET)));
+        }
+        return trades;
+    }
+
+    @Override
+    public void release() {
+        if (records != null) {
+            ByteBuffer oldRecords = records;
+            records = null;
+            head = tail;
+            DirectMemory.free(oldRecords);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.anz.trading.calculators.vwap;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when told to, usually to the timestamp of each trade replayed. Never goes backwards,
+ * so trades slightly out of order do not rewind it. Safe to read from any thread
+ */
+public final class SimulatedTradeClock implements TradeClock {
+
+    private final AtomicLong nowNanos;
+
+    public SimulatedTradeClock(long startNanos) {
+        this.nowNanos = new AtomicLong(startNanos);
+    }
+
+    public SimulatedTradeClock(LocalDateTime start) {
+        this(TradeTime.toEpochNanos(start));
+    }
+
+    @Override
+    public long nowNanos() {
+        return nowNanos.get();
+    }
+
+    // Moves the clock forward to the given time, returning the time it now reads
+    public long advanceTo(long timestampNanos) {
+        return nowNanos.accumulateAndGet(timestampNanos, Math::max);
+    }
+
+    public long advanceBy(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("The clock cannot go backwards: " + nanos);
+        }
+        return nowNanos.addAndGet(nanos);
+    }
+}
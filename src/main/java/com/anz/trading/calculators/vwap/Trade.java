@@ -1,18 +1,53 @@
 package com.anz.trading.calculators.vwap;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class Trade {
+    // Seeded from the clock (about a million ids per millisecond of headroom) so a restarted process
+    // does not reuse the ids of trades it already persisted
+    private static final AtomicLong SEQUENCE = new AtomicLong(System.currentTimeMillis() << 20);
+
     private final double price;       
     private final long volume;
-    private final LocalDateTime timestamp;
+    // Epoch nanos of the wall-clock time (see TradeTime), LocalDateTime is only created at the API/DAO edges
+    private final long timestampNanos;
     private final String currencyPair;
+    // Dense id from the default CurrencyPairRegistry, used to index per-pair state without hashing
+    private final int currencyPairId;
+    // Identity of the trade, the idempotency key when it is written to the DB
+    private final long sequenceId;
 
     public Trade(double price, long volume, LocalDateTime timestamp, String currencyPair) {
+        this(price, volume, TradeTime.toEpochNanos(timestamp), currencyPair);
+    }
+
+    public Trade(double price, long volume, long timestampNanos, String currencyPair) {
+        this(price, volume, timestampNanos, currencyPair, nextSequenceId());
+    }
+
+    // For trades read back from a buffer or the DB, which keep the id they were created with
+    public Trade(double price, long volume, long timestampNanos, String currencyPair, long sequenceId) {
         this.price = price;
         this.volume = volume;
-        this.timestamp = timestamp;
+        this.timestampNanos = timestampNanos;
         this.currencyPair = currencyPair;
+        this.currencyPairId = currencyPair == null ? -1 : CurrencyPairRegistry.getDefault().intern(currencyPair);
+        this.sequenceId = sequenceId;
+    }
+
+    // For producers that already know the pair id, avoiding the registry lookup
+    public Trade(double price, long volume, long timestampNanos, int currencyPairId) {
+        this.price = price;
+        this.volume = volume;
+        this.timestampNanos = timestampNanos;
+        this.currencyPair = CurrencyPairRegistry.getDefault().getCurrencyPair(currencyPairId);
+        this.currencyPairId = currencyPairId;
+        this.sequenceId = nextSequenceId();
+    }
+
+    public static long nextSequenceId() {
+        return SEQUENCE.incrementAndGet();
     }
 
     public double getPrice() {
@@ -24,11 +59,23 @@ public final class Trade {
     }
 
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return TradeTime.toLocalDateTime(timestampNanos);
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
     }
 
     public String getCurrencyPair() {
         return currencyPair;
     }
 
+    public int getCurrencyPairId() {
+        return currencyPairId;
+    }
+
+    public long getSequenceId() {
+        return sequenceId;
+    }
+
 }
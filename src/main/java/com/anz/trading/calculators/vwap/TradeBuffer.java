@@ -0,0 +1,64 @@
+package com.anz.trading.calculators.vwap;
+
+import java.util.Queue;
+
+/**
+ * FIFO store of the trades in one tier of a VWAPData window, oldest trade at the head.
+ * Implementations are not thread safe, callers (i.e. VWAPData) synchronise.
+ */
+public interface TradeBuffer {
+    void add(double price, long volume, long timestampNanos, long sequenceId);
+
+    // For trades that have no identity yet, a new sequence id is taken
+    default void add(double price, long volume, long timestampNanos) {
+        add(price, volume, timestampNanos, Trade.nextSequenceId());
+    }
+
+    default void add(Trade trade) {
+        add(trade.getPrice(), trade.getVolume(), trade.getTimestampNanos(), trade.getSequenceId());
+    }
+
+    boolean isEmpty();
+
+    int size();
+
+    int capacity();
+
+    double peekPrice();
+
+    long peekVolume();
+
+    long peekTimestamp();
+
+    // Absolute positions never go back, even across clear(), so a cursor into the buffer stays valid
+    // The live trades are those in [headPosition(), tailPosition())
+    long headPosition();
+
+    long tailPosition();
+
+    double priceAt(long position);
+
+    long volumeAt(long position);
+
+    long timestampAt(long position);
+
+    long sequenceIdAt(long position);
+
+    // Discards the oldest trade, callers read it with the peek methods beforehand
+    void removeFirst();
+
+    void clear();
+
+    // Materialises the retained trades oldest first, only for the DB and snapshot edges
+    default Queue<Trade> toTrades(String currencyPair) {
+        return toTrades(currencyPair, headPosition());
+    }
+
+    // As above, starting from an absolute position rather than the head
+    Queue<Trade> toTrades(String currencyPair, long fromPosition);
+
+    // Frees any memory not managed by the GC, the buffer must not be used afterwards
+    // Heap backed buffers have nothing to free, so by default this is a no-op and they stay readable
+    default void release() {
+    }
+}
@@ -0,0 +1,20 @@
+package com.anz.trading.calculators.vwap;
+
+import java.time.LocalDateTime;
+
+/**
+ * Source of the current time for the window, backup and restore decisions, in the same wall-clock epoch nanos
+ * as trade timestamps (see TradeTime). SYSTEM reads the real clock; a SimulatedTradeClock driven by trade
+ * timestamps lets a recorded or generated day replay at full speed with every decision made as it would live
+ */
+@FunctionalInterface
+public interface TradeClock {
+
+    TradeClock SYSTEM = TradeTime::nowNanos;
+
+    long nowNanos();
+
+    default LocalDateTime now() {
+        return TradeTime.toLocalDateTime(nowNanos());
+    }
+}
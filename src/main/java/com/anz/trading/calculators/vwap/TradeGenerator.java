@@ -1,16 +1,22 @@
 package com.anz.trading.calculators.vwap;
 
-import java.time.LocalDateTime;
 import java.util.Random;
 
 public class TradeGenerator {
     private final Random random;
     private final CurrencyPairData currencyPairData;
+    private final int[] currencyPairIds;
 
     // Constructor to inject CurrencyPairData and Random
     public TradeGenerator(CurrencyPairData currencyPairData, Random random) {
         this.currencyPairData = currencyPairData;
         this.random = random;
+        // Resolve the registry ids once so generated trades skip the String lookup
+        String[] currencyPairs = currencyPairData.getCurrencyPairs();
+        this.currencyPairIds = new int[currencyPairs.length];
+        for (int i = 0; i < currencyPairs.length; i++) {
+            currencyPairIds[i] = CurrencyPairRegistry.getDefault().intern(currencyPairs[i]);
+        }
     }
 
     // Overloaded constructor to use default Random
@@ -24,18 +30,25 @@ public class TradeGenerator {
     }
 
     public Trade generateRandomTrade() {
-        int index = random.nextInt(currencyPairData.getCurrencyPairs().length);
+        return generateTrade(random.nextInt(currencyPairData.getCurrencyPairs().length));
+    }
 
+    // A random trade for the currency pair at the given index, for callers that choose the pair mix themselves
+    public Trade generateTrade(int index) {
         // Retrieve currency pair and corresponding stats
-        String currencyPair = currencyPairData.getCurrencyPairs()[index];
+        int currencyPairId = currencyPairIds[index];
         double mean = currencyPairData.getCurrencyPairStats()[index][0];
         double standardDeviation = currencyPairData.getCurrencyPairStats()[index][1];
 
         // Generate price and volume
         double price = mean + (random.nextGaussian() * standardDeviation);
         long volume = 100 + random.nextInt(100000);
-        LocalDateTime timestamp = LocalDateTime.now();
+        long timestamp = TradeTime.nowNanos();
+
+        return new Trade(price, volume, timestamp, currencyPairId);
+    }
 
-        return new Trade(price, volume, timestamp, currencyPair);
+    public int getNumberOfCurrencyPairs() {
+        return currencyPairIds.length;
     }
 }
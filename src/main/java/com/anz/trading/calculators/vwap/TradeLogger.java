@@ -2,11 +2,13 @@ package com.anz.trading.calculators.vwap;
 
 import java.sql.SQLException;
 import java.time.LocalDateTime;
-import java.util.Comparator;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.anz.trading.calculators.vwap.dao.MinuteBarDAO;
 import com.anz.trading.calculators.vwap.dao.TradeDAO;
 
 /**
@@ -17,10 +19,38 @@ public class TradeLogger {
     private final TradeDAO inMemoryDAO;
     private final TradeDAO persistentDAO;
     private final Queue<Trade> tradeList; // In-memory list of trades used for testing cases
+    // Empty when trades drained from memory are written synchronously, otherwise each pair always uses
+    // the same one so its restores only wait for its own backups while other pairs' are written alongside
+    private final TradeWriteBehind[] writeBehinds;
+    // Pairs are given the stages in turn as they are first seen, so no stage has two pairs before all have one
+    private final Map<String, TradeWriteBehind> pairWriteBehinds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextWriteBehind = new AtomicInteger();
+    // Dates the backups and restores and sets the restore window
+    private final TradeClock clock;
     
     // Constructor for both DAOs
     public TradeLogger(TradeDAO inMemoryDAO, TradeDAO persistentDAO) {
+        this(inMemoryDAO, persistentDAO, 0);
+    }
+    
+    // Constructor for both DAOs with trades drained from memory written behind by a dedicated thread
+    // A capacity of 0 keeps the writes synchronous
+    public TradeLogger(TradeDAO inMemoryDAO, TradeDAO persistentDAO, int writeBehindCapacity) {
+        this(inMemoryDAO, persistentDAO, writeBehindCapacity, TradeClock.SYSTEM);
+    }
+    
+    public TradeLogger(TradeDAO inMemoryDAO, TradeDAO persistentDAO, int writeBehindCapacity, TradeClock clock) {
+        this(inMemoryDAO, persistentDAO, writeBehindCapacity, clock, 1);
+    }
+    
+    // With the capacity shared between the given number of writer threads, e.g. one per resource manager worker
+    public TradeLogger(TradeDAO inMemoryDAO, TradeDAO persistentDAO, int writeBehindCapacity, TradeClock clock,
+    		int writeBehindThreads) {
+        if (writeBehindThreads < 1) {
+        	throw new IllegalArgumentException("At least one write-behind thread is needed: " + writeBehindThreads);
+        }
         this.inMemoryDAO = inMemoryDAO;
+        this.clock = clock;
         this.persistentDAO = persistentDAO;
         this.tradeList = new ConcurrentLinkedDeque<>();
 
@@ -32,6 +62,15 @@ public class TradeLogger {
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize databases", e);
         }
+        // Only start the writer threads once the table they write to exists
+        if (writeBehindCapacity > 0) {
+        	this.writeBehinds = new TradeWriteBehind[writeBehindThreads];
+        	for (int i = 0; i < writeBehindThreads; i++) {
+        		writeBehinds[i] = new TradeWriteBehind(persistentDAO, Math.max(writeBehindCapacity / writeBehindThreads, 1));
+        	}
+        } else {
+        	this.writeBehinds = new TradeWriteBehind[0];
+        }
     }
 
     // Constructor for persistentDAO only
@@ -46,39 +85,74 @@ public class TradeLogger {
     		String currencyPair, long minutesToRestore, long minutesForVWAP) {
         // Define the time range for restoration
         VWAPData vwapData = vwapCalculator.getVWAPData(currencyPair);
+        // Trades still queued for the DB would otherwise be missing from the query below
+        flush(currencyPair);
         
         // Determine the start time for the query
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime now = clock.now();
         LocalDateTime rollingWindowStartTime = now.minusMinutes(minutesForVWAP + 1);
         LocalDateTime restoreStartTime = rollingWindowStartTime.isAfter(vwapData.getLastRestoredDataTimestamp())
                 ? rollingWindowStartTime
                 : vwapData.getLastRestoredDataTimestamp();
         LocalDateTime restoreEndTime = restoreStartTime.plusMinutes(minutesToRestore);
 
-        // Fetch trades from the persistent database based on the time range
-        Queue<Trade> tradesToRestore;
+        long latestTimestamp;
         try {
-            tradesToRestore = persistentDAO.getAllTrades(restoreStartTime, restoreEndTime, currencyPair);
+            if (persistentDAO instanceof MinuteBarDAO) {
+                latestTimestamp = restoreFromMinuteBars((MinuteBarDAO) persistentDAO, vwapData, currencyPair,
+                        restoreStartTime, restoreEndTime);
+            } else {
+                latestTimestamp = restoreTrades(vwapData, currencyPair, restoreStartTime, restoreEndTime);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Failed to fetch trades from the database", e);
         }
-
-        // Add the queue elements back into the vwapCalculator object
-        for (Trade trade : tradesToRestore) {
-        	vwapData.restoreDataPoint(trade);  // Or add the trade to VWAPCalculator
-        }
         
-        vwapData.setLastRestore(LocalDateTime.now());
+        vwapData.setLastRestore(clock.now());
 
         // Update the last restored data timestamp in VWAPData
-        if (!tradesToRestore.isEmpty()) {
-            Trade latestTrade = tradesToRestore.stream()
-                                              .max(Comparator.comparing(Trade::getTimestamp))
-                                              .orElseThrow();
-            vwapData.setLastRestoredDataTimestamp(latestTrade.getTimestamp());
+        if (latestTimestamp != Long.MIN_VALUE) {
+            vwapData.setLastRestoredDataTimestamp(TradeTime.toLocalDateTime(latestTimestamp));
         }
     }
     
+    // Streams trades from the persistent database straight into the old queue, one pass and no copy,
+    // returning the latest timestamp restored (Long.MIN_VALUE if none)
+    private long restoreTrades(VWAPData vwapData, String currencyPair,
+    		LocalDateTime startTime, LocalDateTime endTime) throws SQLException {
+        long[] latestTimestamp = { Long.MIN_VALUE };
+        persistentDAO.streamTrades(startTime, endTime, currencyPair,
+        		(price, volume, timestampNanos, sequenceId) -> {
+        			vwapData.restoreDataPoint(price, volume, timestampNanos, sequenceId);
+        			latestTimestamp[0] = Math.max(latestTimestamp[0], timestampNanos);
+        		});
+        return latestTimestamp[0];
+    }
+    
+    // Restores each whole minute in the range from its bar, so an hour is about 60 rows rather than every trade
+    // Minutes cut by either end of the range, or still partly held in memory, are restored trade by trade
+    private long restoreFromMinuteBars(MinuteBarDAO barDAO, VWAPData vwapData, String currencyPair,
+    		LocalDateTime startTime, LocalDateTime endTime) throws SQLException {
+        long startNanos = TradeTime.toEpochNanos(startTime);
+        long endNanos = TradeTime.toEpochNanos(endTime);
+        LocalDateTime firstMinute = TradeTime.toLocalDateTime(MinuteBar.minuteStartNanos(startNanos));
+        
+        long latestTimestamp = Long.MIN_VALUE;
+        for (MinuteBar bar : barDAO.getMinuteBars(firstMinute, endTime, currencyPair)) {
+            boolean wholeMinuteInRange = bar.getFirstTimestampNanos() >= startNanos && bar.getLastTimestampNanos() <= endNanos;
+            if (wholeMinuteInRange && vwapData.restoreMinuteBar(bar)) {
+                latestTimestamp = Math.max(latestTimestamp, bar.getLastTimestampNanos());
+            } else {
+                // Bounded by the minute rather than the bar's first and last trade, which may be more precise than the DB
+                LocalDateTime from = TradeTime.toLocalDateTime(Math.max(bar.getMinuteStartNanos(), startNanos));
+                LocalDateTime to = TradeTime.toLocalDateTime(
+                        Math.min(bar.getMinuteStartNanos() + MinuteBar.NANOS_PER_MINUTE - 1, endNanos));
+                latestTimestamp = Math.max(latestTimestamp, restoreTrades(vwapData, currencyPair, from, to));
+            }
+        }
+        return latestTimestamp;
+    }
+    
     
     /**
      * Grabs all trades from the newest queue within each VWAPData object, clears it 
@@ -92,13 +166,20 @@ public class TradeLogger {
     	if (clearMemory) {
         	combinedQueue = vwapData.getNewestQueueAndClear();
         } else {
-        	combinedQueue = vwapData.getNewestQueue();
+        	// Append-only stores (i.e. the trade journal) must not be sent the same trades twice
+        	combinedQueue = vwapData.getNewestQueueAndMarkPersisted();
         }
     	
+    	// Write the last backup timestamp to the VWAP object of that currency pair, only once the trades are in the DB
+    	LocalDateTime backupTime = clock.now();
+    	TradeWriteBehind writeBehind = writeBehindFor(currencyPair);
+    	if (writeBehind != null) {
+    		writeBehind.submit(combinedQueue, () -> vwapData.setLastBackup(backupTime));
+    		return;
+    	}
     	try {
     		persistentDAO.insertTradesFrom(combinedQueue);
-    		// Write the last backup timestamp to the VWAP object of that currency pair
-    		vwapData.setLastBackup(LocalDateTime.now());
+    		vwapData.setLastBackup(backupTime);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to dump data to persistent DB", e);
         }     	
@@ -111,18 +192,28 @@ public class TradeLogger {
     	int tradesThatWereDumped = 0;
 		Map<String, VWAPData> dataMap = vwapCalculator.getDataMap();
 	    Queue<Trade> snapshot;
+	    // Written synchronously as one batch, or queued pair by pair so each restore still finds its own
 	    Queue<Trade> combinedQueue = new ConcurrentLinkedDeque<Trade>();
 	    
 	    for (Map.Entry<String, VWAPData> entry : dataMap.entrySet()) {
 	        VWAPData vwapData = entry.getValue();
-	        tradesThatWereDumped += vwapData.getNewestQueueSize();
+	        // Counted by what left memory, not what is written, as trades already in the DB may be dropped too
+	        int newestTierBeforeDump = vwapData.getNewestTierSize();
 	        snapshot = vwapData.getNewestQueueAndClear();
-	        combinedQueue.addAll(snapshot);
+	        tradesThatWereDumped += newestTierBeforeDump - vwapData.getNewestTierSize();
+	        TradeWriteBehind writeBehind = writeBehindFor(entry.getKey());
+	        if (writeBehind != null) {
+	        	writeBehind.submit(snapshot);
+	        } else {
+	        	combinedQueue.addAll(snapshot);
+	        }
 	    }    
 
 	    // Now write to the database
 	    try {
-	        persistentDAO.insertTradesFrom(combinedQueue);
+	        if (writeBehinds.length == 0) {
+	        	persistentDAO.insertTradesFrom(combinedQueue);
+	        }
 	    } catch (SQLException e) {
 	        throw new RuntimeException("Failed to dump data to persistent DB", e);
 	    }    	
@@ -131,6 +222,53 @@ public class TradeLogger {
     }
        
 
+    // The write-behind stage the pair's trades always go through, null if they are written synchronously
+    private TradeWriteBehind writeBehindFor(String currencyPair) {
+    	if (writeBehinds.length == 0) {
+    		return null;
+    	}
+    	return pairWriteBehinds.computeIfAbsent(currencyPair,
+    			pair -> writeBehinds[nextWriteBehind.getAndIncrement() % writeBehinds.length]);
+    }
+    
+    /**
+     * Blocks until every trade handed to the write-behind stages is in the persistent database
+     */
+    public void flush() {
+    	for (TradeWriteBehind writeBehind : writeBehinds) {
+    		writeBehind.flush();
+    	}
+    }
+    
+    /**
+     * As above, only for the stage the pair's trades go through
+     */
+    public void flush(String currencyPair) {
+    	TradeWriteBehind writeBehind = writeBehindFor(currencyPair);
+    	if (writeBehind != null) {
+    		writeBehind.flush();
+    	}
+    }
+    
+    /**
+     * Flushes outstanding writes and stops the writer threads, reporting the first that failed
+     */
+    public void shutdown() {
+    	RuntimeException failure = null;
+    	for (TradeWriteBehind writeBehind : writeBehinds) {
+    		try {
+    			writeBehind.shutdown();
+    		} catch (RuntimeException e) {
+    			if (failure == null) {
+    				failure = e;
+    			}
+    		}
+    	}
+    	if (failure != null) {
+    		throw failure;
+    	}
+    }
+
     /**
      * Logs a single trade into the in-memory database.
      * @param trade The trade to log.
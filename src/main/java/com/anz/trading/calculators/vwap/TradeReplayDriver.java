@@ -0,0 +1,253 @@
+package com.anz.trading.calculators.vwap;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.anz.trading.calculators.vwap.dao.H2ConnectionPool;
+import com.anz.trading.calculators.vwap.dao.PooledH2TradeDAO;
+import com.anz.trading.calculators.vwap.workload.ArrivalProcess;
+import com.anz.trading.calculators.vwap.workload.PoissonArrivals;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+/**
+ * Replays a recorded or generated stream of trades as fast as the CPU allows, on a SimulatedTradeClock moved to
+ * each trade's timestamp. The calculator and resource manager must be built on that clock, so window eviction,
+ * backups and restores happen at the same simulated times as they would live and an hour of trading takes as
+ * long as its trades take to process. Trades are applied in order on the calling thread and resource cycles run
+ * inline whenever the clock passes the next cycle time, so a replay is deterministic.
+ *
+ * Run as a main to replay a generated day, options (defaults in brackets):
+ *   --profile uniform|production [production]  --rate base trades/s [100]  --hours simulated [24]
+ *   --window minutes [60]  --seed n [42]
+ *   --per-pair-threshold n [50000] and --total-threshold n [1000000] of the resource manager, run every
+ *   --cycle simulated seconds [30]
+ */
+public class TradeReplayDriver {
+
+    private final VWAPCalculator vwapCalculator;
+    private final SimulatedTradeClock clock;
+    private final long minutesForVWAP;
+    private TradeResourceManager resourceManager;
+    private long cycleNanos;
+
+    /**
+     * @param vwapCalculator built with the same clock, see VWAPCalculator's constructor taking a TradeClock
+     */
+    public TradeReplayDriver(VWAPCalculator vwapCalculator, SimulatedTradeClock clock, long minutesForVWAP) {
+        this.vwapCalculator = vwapCalculator;
+        this.clock = clock;
+        this.minutesForVWAP = minutesForVWAP;
+    }
+
+    /**
+     * Outcome of one replay
+     */
+    public static final class Report {
+        private final long tradesReplayed;
+        private final long simulatedNanos;
+        private final long elapsedNanos;
+        private final int cyclesRun;
+
+        Report(long tradesReplayed, long simulatedNanos, long elapsedNanos, int cyclesRun) {
+            this.tradesReplayed = tradesReplayed;
+            this.simulatedNanos = simulatedNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.cyclesRun = cyclesRun;
+        }
+
+        public long getTradesReplayed() {
+            return tradesReplayed;
+        }
+
+        // From the first trade to the last
+        public long getSimulatedNanos() {
+            return simulatedNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public int getCyclesRun() {
+            return cyclesRun;
+        }
+
+        // Simulated time covered per unit of real time
+        public double getSpeedUp() {
+            return elapsedNanos == 0 ? 0 : (double) simulatedNanos / elapsedNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Replayed %,d trades covering %.2f simulated hours in %.2f s, %,.0f trades/s, %,.0fx real time,"
+                    + " %,d resource cycles%n", tradesReplayed, simulatedNanos / 3.6e12, elapsedNanos / 1e9,
+                    elapsedNanos == 0 ? 0 : tradesReplayed * 1e9 / elapsedNanos, getSpeedUp(), cyclesRun);
+        }
+    }
+
+    /**
+     * Runs the manager's cycle every cycleMillis of simulated time, in place of its own scheduler
+     * (which must not be started). It should be built on the same clock as the calculator
+     */
+    public void setResourceManager(TradeResourceManager resourceManager, long cycleMillis) {
+        if (cycleMillis <= 0) {
+            throw new IllegalArgumentException("Cycle interval must be positive: " + cycleMillis);
+        }
+        this.resourceManager = resourceManager;
+        this.cycleNanos = TimeUnit.MILLISECONDS.toNanos(cycleMillis);
+    }
+
+    /**
+     * Applies the trades, which must be in timestamp order, returning once the last has been applied
+     */
+    public Report replay(Iterator<Trade> trades) {
+        long start = System.nanoTime();
+        long tradesReplayed = 0;
+        long firstTimestampNanos = Long.MIN_VALUE;
+        long lastTimestampNanos = Long.MIN_VALUE;
+        long nextCycleNanos = Long.MAX_VALUE;
+        int cyclesRun = 0;
+        while (trades.hasNext()) {
+            Trade trade = trades.next();
+            long timestampNanos = trade.getTimestampNanos();
+            if (tradesReplayed == 0) {
+                firstTimestampNanos = timestampNanos;
+                if (resourceManager != null) {
+                    nextCycleNanos = timestampNanos + cycleNanos;
+                }
+            }
+            // Cycles due before this trade see the clock at their own time and none of the trades after it
+            while (timestampNanos >= nextCycleNanos) {
+                clock.advanceTo(nextCycleNanos);
+                resourceManager.manageResources(minutesForVWAP);
+                // Backups are only dated once written, so the next cycle must not depend on how far the writer got
+                resourceManager.flush();
+                cyclesRun++;
+                nextCycleNanos += cycleNanos;
+            }
+            clock.advanceTo(timestampNanos);
+            int tradesTrimmed = vwapCalculator.processDataWithoutExecutor(trade);
+            if (resourceManager != null) {
+                resourceManager.recordTrades(1 - tradesTrimmed);
+            }
+            tradesReplayed++;
+            lastTimestampNanos = timestampNanos;
+        }
+        return new Report(tradesReplayed, tradesReplayed == 0 ? 0 : lastTimestampNanos - firstTimestampNanos,
+                System.nanoTime() - start, cyclesRun);
+    }
+
+    /**
+     * Trades drawn from the workload from the start for the given minutes, timestamped by its arrival process,
+     * generated as they are consumed so a whole day is never held in memory
+     */
+    public static Iterator<Trade> generatedTrades(WorkloadProfile workload, LocalDateTime start, long durationMinutes,
+            long seed) {
+        if (workload.getArrivals() == null) {
+            throw new IllegalArgumentException("A replayed workload needs an arrival process to timestamp its trades");
+        }
+        FastTradeGenerator tradeGenerator = new FastTradeGenerator(workload, seed);
+        ArrivalProcess arrivals = workload.getArrivals().copy();
+        SplittableRandom arrivalRandom = new SplittableRandom(seed * 31);
+        long startNanos = TradeTime.toEpochNanos(start);
+        long endNanos = startNanos + TradeTime.minutesToNanos(durationMinutes);
+        return new Iterator<Trade>() {
+            private final FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+            private long nextNanos = startNanos + arrivals.nextGapNanos(arrivalRandom);
+
+            @Override
+            public boolean hasNext() {
+                return nextNanos < endNanos;
+            }
+
+            @Override
+            public Trade next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                tradeGenerator.next(holder);
+                Trade trade = new Trade(holder.getPrice(), holder.getVolume(), nextNanos, holder.getCurrencyPairId());
+                nextNanos += arrivals.nextGapNanos(arrivalRandom);
+                return trade;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws IOException {
+        String profile = "production";
+        double rate = 100;
+        long hours = 24;
+        long windowMinutes = 60;
+        long seed = 42;
+        int tradeThresholdPerPair = 50_000;
+        int totalTradeThreshold = 1_000_000;
+        long cycleMillis = 30_000;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--profile": profile = value; break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--hours": hours = Long.parseLong(value); break;
+                case "--window": windowMinutes = Long.parseLong(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--per-pair-threshold": tradeThresholdPerPair = Integer.parseInt(value); break;
+                case "--total-threshold": totalTradeThreshold = Integer.parseInt(value); break;
+                case "--cycle": cycleMillis = (long) (Double.parseDouble(value) * 1000); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        CurrencyPairData currencyPairData = CurrencyPairData.createDefault();
+        WorkloadProfile workload;
+        if (profile.equals("production")) {
+            workload = WorkloadProfile.production(currencyPairData, rate);
+        } else if (profile.equals("uniform")) {
+            workload = WorkloadProfile.uniform(currencyPairData).withArrivals(
+                    new PoissonArrivals(rate));
+        } else {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+
+        // A fixed start so a replay with the same options makes the same decisions
+        LocalDateTime start = LocalDateTime.of(2024, 1, 2, 0, 0);
+        SimulatedTradeClock clock = new SimulatedTradeClock(start);
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, new long[] { windowMinutes }, WindowMode.TRADES,
+                ExecutionMode.SHARED_POOL, clock);
+        // Spills to a DB of its own, on disk as a day of trades does not fit in the heap, so earlier replays of
+        // the same simulated day are never restored
+        Path databaseDirectory = Files.createTempDirectory("trade-replay");
+        H2ConnectionPool connectionPool = new H2ConnectionPool("jdbc:h2:file:" + databaseDirectory.resolve("trades"),
+                "sa", "", 2 * TradeResourceManager.DEFAULT_PARALLELISM);
+        TradeResourceManager resourceManager = new TradeResourceManager(vwapCalculator, tradeThresholdPerPair,
+                totalTradeThreshold, new PooledH2TradeDAO(connectionPool), TradeResourceManager.DEFAULT_PARALLELISM, clock);
+        // Thousands of cycles would each print their report, only the summary is kept
+        resourceManager.setReportStream(null);
+        TradeReplayDriver driver = new TradeReplayDriver(vwapCalculator, clock, windowMinutes);
+        driver.setResourceManager(resourceManager, cycleMillis);
+
+        System.out.println("Replay: " + String.join(" ", args));
+        Report report = driver.replay(generatedTrades(workload, start, hours * 60, seed));
+        resourceManager.shutdown();
+        connectionPool.close();
+        vwapCalculator.shutdown();
+        try (Stream<Path> files = Files.list(databaseDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(databaseDirectory);
+        report.print(System.out);
+        System.out.printf("Resource manager ended on %,d trades per pair, restoring every %d minutes%n",
+                resourceManager.getTradeThresholdPerPair(), resourceManager.getRestoreFrequency());
+    }
+}
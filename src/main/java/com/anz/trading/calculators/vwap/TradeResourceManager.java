@@ -1,24 +1,60 @@
 package com.anz.trading.calculators.vwap;
 
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.anz.trading.calculators.vwap.dao.H2ConnectionPool;
 import com.anz.trading.calculators.vwap.dao.H2DatabaseUtility;
 import com.anz.trading.calculators.vwap.dao.H2TradeMemory;
+import com.anz.trading.calculators.vwap.dao.PooledH2TradeDAO;
 import com.anz.trading.calculators.vwap.dao.TradeDAO;
-import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
 
 public class TradeResourceManager {
 
+    // Trades that can wait for the writer threads before a backup blocks the trade path
+    private static final int WRITE_BEHIND_CAPACITY = 100_000;
+    // Currency pairs backed up or restored at the same time by default
+    public static final int DEFAULT_PARALLELISM = 4;
+
     private final VWAPCalculator vwapCalculator;
+    // Decides when backups and restores are due, the calculator's clock when replaying a simulated day
+    private final TradeClock clock;
+    // Null for a parallelism of 1, the pairs are then managed on the calling thread
+    private final ExecutorService pairExecutor;
+    // Only set when this manager opened the persistent DB connections itself
+    private H2ConnectionPool connectionPool;
     private TradeLogger tradelogger;
     private int tradeThresholdPerPair;
     private int totalTradeThreshold;
     private long minutesToRestore;
     private int totalTradesPastHour = 0;
+    // Net trades added by the ingest threads since the last cycle, folded into totalTradesPastHour by the cycle
+    private final AtomicInteger pendingTradeAdjustment = new AtomicInteger();
+    // Most traded pair as of the last cycle, for callers that do not run the cycle themselves
+    private volatile String lastMaxTradeCurrencyPair = "";
+    // Where each cycle's report is printed, null for none
+    private PrintStream reportStream = System.out;
+    
+    // Runs the cycle off the ingest path once started, guarded by schedulerLock rather than this
+    // so starting or stopping never waits for a cycle in progress
+    private final Object schedulerLock = new Object();
+    private ScheduledExecutorService scheduler;
     
     // Tracking variables for special threshold behavior
     private final double lowestPercentageThreshold = 0.4;
@@ -26,83 +62,110 @@ public class TradeResourceManager {
     private LocalDateTime lastCcyPairBackedUpTime = LocalDateTime.MIN;
 
     public TradeResourceManager(VWAPCalculator vwapCalculator, int tradeThresholdPerPair, int totalTradeThreshold) {
+        this(vwapCalculator, tradeThresholdPerPair, totalTradeThreshold, null);
+    }
+    
+    // Spills to the given persistent store (e.g. a MappedTradeJournal) instead of the H2 persistent DB
+    public TradeResourceManager(VWAPCalculator vwapCalculator, int tradeThresholdPerPair, int totalTradeThreshold,
+    		TradeDAO persistentTradeDAO) {
+        this(vwapCalculator, tradeThresholdPerPair, totalTradeThreshold, persistentTradeDAO, DEFAULT_PARALLELISM);
+    }
+    
+    // Backs up and restores up to the given number of currency pairs at once, each on its own DB connection
+    public TradeResourceManager(VWAPCalculator vwapCalculator, int tradeThresholdPerPair, int totalTradeThreshold,
+    		TradeDAO persistentTradeDAO, int parallelism) {
+        this(vwapCalculator, tradeThresholdPerPair, totalTradeThreshold, persistentTradeDAO, parallelism, TradeClock.SYSTEM);
+    }
+    
+    public TradeResourceManager(VWAPCalculator vwapCalculator, int tradeThresholdPerPair, int totalTradeThreshold,
+    		TradeDAO persistentTradeDAO, int parallelism, TradeClock clock) {
+        if (parallelism < 1) {
+        	throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
         this.vwapCalculator = vwapCalculator;
+        this.clock = clock;
         this.tradeThresholdPerPair = tradeThresholdPerPair;
         this.totalTradeThreshold = totalTradeThreshold;
-        this.tradelogger = createTradeLogger();
+        this.pairExecutor = parallelism > 1 ? createPairExecutor(parallelism) : null;
+        this.tradelogger = createTradeLogger(persistentTradeDAO, parallelism);
+    }
+    
+    private static ExecutorService createPairExecutor(int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "resource-manager-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
-    private final TradeLogger createTradeLogger() {
+    private final TradeLogger createTradeLogger(TradeDAO persistentTradeDAO, int parallelism) {
         try {
             // Create connections using H2DatabaseUtility
-            Connection persistentConnection = H2DatabaseUtility.getPersistentConnection();
             Connection inMemoryConnection = H2DatabaseUtility.getInMemoryConnection();
 
             // Instantiate TradeDAO implementations
-            TradeDAO persistentTradeDAO = new H2TradePersistent(persistentConnection);
+            if (persistentTradeDAO == null) {
+            	// One connection per pair worker for its restores, plus one per write-behind thread
+            	connectionPool = H2DatabaseUtility.createPersistentConnectionPool(2 * parallelism);
+            	persistentTradeDAO = new PooledH2TradeDAO(connectionPool);
+            }
             TradeDAO inMemoryTradeDAO = new H2TradeMemory(inMemoryConnection);
 
-            // Return the TradeLogger
-            return new TradeLogger(inMemoryTradeDAO, persistentTradeDAO);
+            // A write-behind thread per worker, so the pairs' backups are written side by side and a restore
+            // only waits for its own pair's, while the cycle itself never waits on the DB to back a pair up
+            return new TradeLogger(inMemoryTradeDAO, persistentTradeDAO, WRITE_BEHIND_CAPACITY, clock, parallelism);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize TradeLogger due to database connection issues", e);
         }
     }
 
     public synchronized String manageResources(long minutesForVWAP) {
+        int tradesSinceLastQuery = pendingTradeAdjustment.getAndSet(0);
+        totalTradesPastHour += tradesSinceLastQuery;
         int totalTradesInMemory = 0;
-        int newTradesToDB;
-        int oldQueueSizeBeforeRestore;
-        int oldQueueSizeAfterRestore;
-        int tradeCount;
         Map<String, VWAPData> dataMap = vwapCalculator.getDataMap();
 
         int maxTradeCount = 0;
         String maxTradeCurrencyPair = "";
         
-        // Iterate through all VWAPData instances in the VWAPCalculator
+        // Each pair's backup and restore only touches that pair, so they run side by side on the worker pool
+        // Read once so every pair sees the same values whichever thread it runs on
+        LocalDateTime breachTime = lastBreachTime;
+        long restoreMinutes = minutesToRestore;
+        Map<String, Future<PairOutcome>> pendingPairs = new LinkedHashMap<>();
         for (Map.Entry<String, VWAPData> entry : dataMap.entrySet()) {
         	String currencyPair = entry.getKey();
         	VWAPData vwapData = entry.getValue();
-        	newTradesToDB = vwapData.getNewestQueueSize();
-        	oldQueueSizeBeforeRestore = vwapData.getOldQueueSize();
-            tradeCount = vwapData.getCombinedQueueSize(); // Get number of trades for this pair
-            totalTradesInMemory += tradeCount;
-            LocalDateTime lastBackup = vwapData.getLastBackup();
-            
-            // Check if we need to write or restore for this currency pair
-            long frequencyOfBackUp = (long) (minutesForVWAP/2 - 1);
-            boolean clearMemory;
-            if ((tradeCount >= tradeThresholdPerPair) || 
-            		(LocalDateTime.now().isAfter(lastBackup.plusMinutes(frequencyOfBackUp)) &&
-            				LocalDateTime.now().isBefore(lastBreachTime.plusMinutes(minutesForVWAP + 1)))) {
-            	clearMemory = true;
-            	tradelogger.loadNewestToDB(vwapCalculator, currencyPair, clearMemory);
-            	totalTradesInMemory -= newTradesToDB; // cancel out increment if moved to DB
-            	tradeCount -= newTradesToDB;
-            	lastCcyPairBackedUpTime = LocalDateTime.now();
-            } else if (LocalDateTime.now().isAfter(lastBackup.plusMinutes(minutesForVWAP - 1)) &&
-            		LocalDateTime.now().isAfter(lastBreachTime.plusMinutes(minutesForVWAP + 1))) {
-            	// Only when last backup more than 59 mins ago and latest breach more than 61 mins ago
-            	clearMemory = false;
-            	tradelogger.loadNewestToDB(vwapCalculator, currencyPair, clearMemory);
-            }        
-            
-
-            // Restore old trades if necessary
-            LocalDateTime lastRestoreTimeStamp = vwapData.getLastRestoredDataTimestamp();
-            LocalDateTime now = LocalDateTime.now();
-            if (shouldRestoreTrades(now, lastRestoreTimeStamp, minutesToRestore)) {
-            	tradelogger.restoreOldTradesToQueue(vwapCalculator, currencyPair, minutesToRestore, minutesForVWAP);
-            	oldQueueSizeAfterRestore = vwapData.getOldQueueSize();
-            	totalTradesInMemory += (oldQueueSizeAfterRestore - oldQueueSizeBeforeRestore);
-            	tradeCount += (oldQueueSizeAfterRestore - oldQueueSizeBeforeRestore);
-            }
-            
+        	// Off-heap windows are kept whole in direct memory instead of being spilled to the DB
+        	if (vwapData.getWindowMode() == WindowMode.OFF_HEAP) {
+        		continue;
+        	}
+        	Callable<PairOutcome> pairWork = () -> managePair(currencyPair, vwapData, minutesForVWAP, breachTime, restoreMinutes);
+        	pendingPairs.put(currencyPair, pairExecutor != null ? pairExecutor.submit(pairWork) : completed(pairWork));
+        }
+        
+        for (Map.Entry<String, Future<PairOutcome>> entry : pendingPairs.entrySet()) {
+        	PairOutcome outcome;
+        	try {
+        		outcome = entry.getValue().get();
+        	} catch (InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        		throw new RuntimeException("Interrupted while managing resources for " + entry.getKey(), e);
+        	} catch (ExecutionException e) {
+        		if (e.getCause() instanceof RuntimeException) {
+        			throw (RuntimeException) e.getCause();
+        		}
+        		throw new RuntimeException("Error while managing resources for " + entry.getKey(), e.getCause());
+        	}
+        	totalTradesInMemory += outcome.tradeCount;
+        	if (outcome.backedUpTime != null) {
+        		lastCcyPairBackedUpTime = outcome.backedUpTime;
+        	}
             // Track max trade count for any currency pair after additions/removals are processed
-            if (tradeCount > maxTradeCount) {
-                maxTradeCount = tradeCount;
-                maxTradeCurrencyPair = currencyPair;
+            if (outcome.tradeCount > maxTradeCount) {
+                maxTradeCount = outcome.tradeCount;
+                maxTradeCurrencyPair = entry.getKey();
             }
         }
         
@@ -110,24 +173,29 @@ public class TradeResourceManager {
         //double totalTradesInMemoryPct = ((double) totalTradesInMemory / totalTradeThreshold) * 100;
         double totalTradesLastHourPct = ((double) totalTradesPastHour / totalTradeThreshold) * 100;
         double maxCcyTradePercentage = ((double) maxTradeCount / totalTradesPastHour) * 100;
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
-        String formattedDateTime = LocalDateTime.now().format(formatter);
                
-        System.out.println("Resource Query at " + formattedDateTime);
-        System.out.println("Total Trade Limit: " + totalTradeThreshold);
-        System.out.println("Total Trade Counter (memory): " + totalTradesInMemory);
-        System.out.println("Total Trade Counter (last " + minutesForVWAP + " minutes): " + totalTradesPastHour);
-        System.out.println("Percentage of Total Trade Limit: " + String.format("%.2f", totalTradesLastHourPct) + "%");
-        System.out.println("Maximum Currency Pair: " + maxTradeCurrencyPair 
-                + " | Max Trade Count: " + maxTradeCount 
-                + " (" + String.format("%.2f", maxCcyTradePercentage) + "% of Total Trade Count)");
-        
-        System.out.println("Current Threshold per Pair: " + tradeThresholdPerPair);
-        System.out.println("Current restore frequency: " + minutesToRestore);
+        if (reportStream != null) {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+            String formattedDateTime = clock.now().format(formatter);
+            reportStream.println("Resource Query at " + formattedDateTime);
+            reportStream.println("Trades since last query: " + tradesSinceLastQuery);
+            reportStream.println("Total Trade Limit: " + totalTradeThreshold);
+            reportStream.println("Total Trade Counter (memory): " + totalTradesInMemory);
+            reportStream.println("Total Trade Counter (last " + minutesForVWAP + " minutes): " + totalTradesPastHour);
+            reportStream.println("Percentage of Total Trade Limit: " + String.format("%.2f", totalTradesLastHourPct) + "%");
+            reportStream.println("Maximum Currency Pair: " + maxTradeCurrencyPair 
+                    + " | Max Trade Count: " + maxTradeCount 
+                    + " (" + String.format("%.2f", maxCcyTradePercentage) + "% of Total Trade Count)");
+            
+            reportStream.println("Current Threshold per Pair: " + tradeThresholdPerPair);
+            reportStream.println("Current restore frequency: " + minutesToRestore);
+        }
         
         // Check overall trade volume threshold over last hour
         if (totalTradesInMemory >= totalTradeThreshold) {
-            System.out.println("Total trade threshold exceeded. Triggering database writes...");
+            if (reportStream != null) {
+                reportStream.println("Total trade threshold exceeded. Triggering database writes...");
+            }
             int emergencyTradeDump = tradelogger.emergencyDumpToDB(vwapCalculator);
             totalTradesInMemory -= emergencyTradeDump;
         } else { //re-adjust the allowed trade threshold per pair before the backup trigger is scheduled
@@ -135,9 +203,123 @@ public class TradeResourceManager {
         }
         
         // Finally, return the currency pair with the current maximum trade count
+        lastMaxTradeCurrencyPair = maxTradeCurrencyPair;
         return maxTradeCurrencyPair;
     }
+    
+    /**
+     * Runs manageResources on a dedicated background thread, roughly every intervalMillis with each
+     * delay moved by up to jitterMillis either way so cycles do not line up with other periodic work
+     */
+    public void start(long minutesForVWAP, long intervalMillis, long jitterMillis) {
+        if (intervalMillis <= 0 || jitterMillis < 0 || jitterMillis >= intervalMillis) {
+        	throw new IllegalArgumentException("Interval must be positive and larger than the jitter: "
+        			+ intervalMillis + " ms +/- " + jitterMillis + " ms");
+        }
+        synchronized (schedulerLock) {
+        	if (scheduler != null) {
+        		throw new IllegalStateException("Resource manager is already running");
+        	}
+        	ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        		Thread thread = new Thread(runnable, "trade-resource-manager");
+        		thread.setDaemon(true);
+        		return thread;
+        	});
+        	// Stopping drops the next cycle but lets one in progress finish its DB work uninterrupted
+        	executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        	scheduler = executor;
+        	scheduleCycle(scheduler, minutesForVWAP, intervalMillis, jitterMillis);
+        }
+    }
+    
+    // Each cycle schedules the next, so the jitter is drawn afresh and a slow cycle never overlaps the next one
+    private void scheduleCycle(ScheduledExecutorService executor, long minutesForVWAP, long intervalMillis, long jitterMillis) {
+    	long delayMillis = intervalMillis + (jitterMillis == 0 ? 0
+    			: ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1));
+    	executor.schedule(() -> {
+    		try {
+    			manageResources(minutesForVWAP);
+    		} catch (RuntimeException e) {
+    			// Keep the schedule alive, the next cycle retries whatever was not written or restored
+    			System.err.println("Failed to manage trade resources: " + e.getMessage());
+    		}
+    		synchronized (schedulerLock) {
+    			if (scheduler == executor) {
+    				scheduleCycle(executor, minutesForVWAP, intervalMillis, jitterMillis);
+    			}
+    		}
+    	}, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // Stops the background cycles, waiting for one in progress to finish
+    public void stop() {
+    	ScheduledExecutorService running;
+    	synchronized (schedulerLock) {
+    		running = scheduler;
+    		scheduler = null;
+    	}
+    	if (running != null) {
+    		running.shutdown();
+    		try {
+    			running.awaitTermination(30, TimeUnit.SECONDS);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    }
+    
+    public boolean isRunning() {
+    	synchronized (schedulerLock) {
+    		return scheduler != null;
+    	}
+    }
 
+    // Writes and restores one pair as needed, returning the trades it holds in memory afterwards
+    private PairOutcome managePair(String currencyPair, VWAPData vwapData, long minutesForVWAP,
+    		LocalDateTime breachTime, long restoreMinutes) {
+    	int newestTierBeforeBackup = vwapData.getNewestTierSize();
+    	int oldQueueSizeBeforeRestore = vwapData.getOldQueueSize();
+        int tradeCount = vwapData.getCombinedQueueSize(); // Get number of trades for this pair
+        LocalDateTime lastBackup = vwapData.getLastBackup();
+        LocalDateTime backedUpTime = null;
+        LocalDateTime now = clock.now();
+        
+        // Check if we need to write or restore for this currency pair
+        long frequencyOfBackUp = (long) (minutesForVWAP/2 - 1);
+        boolean clearMemory;
+        if ((tradeCount >= tradeThresholdPerPair) || 
+        		(now.isAfter(lastBackup.plusMinutes(frequencyOfBackUp)) &&
+        				now.isBefore(breachTime.plusMinutes(minutesForVWAP + 1)))) {
+        	clearMemory = true;
+        	tradelogger.loadNewestToDB(vwapCalculator, currencyPair, clearMemory);
+        	// Cancel out what left memory, which also includes trades written by earlier backups and kept
+        	tradeCount -= newestTierBeforeBackup - vwapData.getNewestTierSize();
+        	backedUpTime = clock.now();
+        } else if (now.isAfter(lastBackup.plusMinutes(minutesForVWAP - 1)) &&
+        		now.isAfter(breachTime.plusMinutes(minutesForVWAP + 1))) {
+        	// Only when last backup more than 59 mins ago and latest breach more than 61 mins ago
+        	clearMemory = false;
+        	tradelogger.loadNewestToDB(vwapCalculator, currencyPair, clearMemory);
+        }        
+        
+        // Restore old trades if necessary
+        LocalDateTime lastRestoreTimeStamp = vwapData.getLastRestoredDataTimestamp();
+        now = clock.now();
+        if (shouldRestoreTrades(now, lastRestoreTimeStamp, restoreMinutes)) {
+        	tradelogger.restoreOldTradesToQueue(vwapCalculator, currencyPair, restoreMinutes, minutesForVWAP);
+        	int oldQueueSizeAfterRestore = vwapData.getOldQueueSize();
+        	tradeCount += (oldQueueSizeAfterRestore - oldQueueSizeBeforeRestore);
+        }
+        return new PairOutcome(tradeCount, backedUpTime);
+    }
+    
+    // Runs the work on the calling thread, for a parallelism of 1
+    private static <T> Future<T> completed(Callable<T> work) {
+    	FutureTask<T> task = new FutureTask<>(work);
+    	task.run();
+    	return task;
+    }
+    
     private boolean shouldRestoreTrades(LocalDateTime now, LocalDateTime lastRestoreTimeStamp, long minutesToRestore) {
         boolean result;
         if (lastRestoreTimeStamp == null || minutesToRestore <= 0) {
@@ -154,7 +336,7 @@ public class TradeResourceManager {
         double usagePercentage = (double) tradeCount / totalTradeThreshold;
         
         if (usagePercentage >= lowestPercentageThreshold) {
-        	lastBreachTime = LocalDateTime.now();
+        	lastBreachTime = clock.now();
         }
         
         if (usagePercentage < 0.5) {
@@ -180,8 +362,8 @@ public class TradeResourceManager {
         // Only if lower threshold not breached and NOT a single currency pair backed up
         if (usagePercentage < lowestPercentageThreshold && 
             lastBreachTime != null && 
-            lastBreachTime.isBefore(LocalDateTime.now().minusMinutes(minutesForVWAP + 1)) &&
-            lastCcyPairBackedUpTime.isBefore(LocalDateTime.now().minusMinutes(minutesForVWAP + 1))) {
+            lastBreachTime.isBefore(clock.now().minusMinutes(minutesForVWAP + 1)) &&
+            lastCcyPairBackedUpTime.isBefore(clock.now().minusMinutes(minutesForVWAP + 1))) {
         	result = 20000;  // ~ 13 days, negligible frequency       
         } else if (usagePercentage < 0.4) {
             result = Math.max((long) (minutesForVWAP * 0.483333333), 1);
@@ -206,6 +388,11 @@ public class TradeResourceManager {
     	this.tradelogger = tradelogger;
     }
     
+    // Where each cycle's report goes, System.out by default or null to run quietly (i.e. replays and benchmarks)
+    public synchronized void setReportStream(PrintStream reportStream) {
+    	this.reportStream = reportStream;
+    }
+    
     // Again only for testing
     public void setLastBreachTime(LocalDateTime lastBreachTime) {
     	this.lastBreachTime = lastBreachTime;
@@ -219,7 +406,50 @@ public class TradeResourceManager {
     	return minutesToRestore;
     }
     
+    // Blocks until every trade the cycles so far have handed to the persistent DB is written and its backup dated
+    public void flush() {
+    	tradelogger.flush();
+    }
+    
+    // Stops the background cycles, waits for queued DB writes, then stops the writer thread and the pair workers
+    public void shutdown() {
+    	stop();
+    	tradelogger.shutdown();
+    	if (pairExecutor != null) {
+    		pairExecutor.shutdown();
+    		try {
+    			pairExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    	if (connectionPool != null) {
+    		connectionPool.close();
+    	}
+    }
+    
     public synchronized void adjustTradesInPastHour(int netTradeAdjustment)  {
     	totalTradesPastHour += netTradeAdjustment;
     }
-}
+    
+    // For the ingest threads, a single atomic add that never waits for a cycle in progress
+    public void recordTrades(int netTradeAdjustment) {
+    	pendingTradeAdjustment.addAndGet(netTradeAdjustment);
+    }
+    
+    public String getLastMaxTradeCurrencyPair() {
+    	return lastMaxTradeCurrencyPair;
+    }
+    
+    // What one pair's backup and restore left in memory
+    private static final class PairOutcome {
+    	final int tradeCount;
+    	// Null unless the pair's newest trades were moved to the DB
+    	final LocalDateTime backedUpTime;
+    	
+    	PairOutcome(int tradeCount, LocalDateTime backedUpTime) {
+    		this.tradeCount = tradeCount;
+    		this.backedUpTime = backedUpTime;
+    	}
+    }
+}
\ No newline at end of file
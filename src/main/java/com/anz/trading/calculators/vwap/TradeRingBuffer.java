@@ -0,0 +1,163 @@
+package com.anz.trading.calculators.vwap;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Growable ring buffer of trades stored as parallel primitive arrays (struct-of-arrays)
+ * Each retained trade costs 32 bytes (price, volume, epoch nanos, sequence id) instead of a Trade,
+ * a LocalDateTime and a deque node. Not thread safe, callers (i.e. VWAPData) synchronise.
+ */
+public class TradeRingBuffer implements TradeBuffer {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private final int initialCapacity;
+    private double[] prices;
+    private long[] volumes;
+    private long[] timestamps;
+    private long[] sequenceIds;
+    private int mask;
+
+    // Absolute positions, the physical slot is (position & mask)
+    private long head = 0;
+    private long tail = 0;
+
+    public TradeRingBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public TradeRingBuffer(int initialCapacity) {
+        // Round up to a power of 2 so the slot can be found with a mask rather than a modulo
+        this.initialCapacity = Math.max(2, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1);
+        allocate(this.initialCapacity);
+    }
+
+    private void allocate(int capacity) {
+        prices = new double[capacity];
+        volumes = new long[capacity];
+        timestamps = new long[capacity];
+        sequenceIds = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    @Override
+    public void add(double price, long volume, long timestampNanos, long sequenceId) {
+        if (tail - head == prices.length) {
+            grow();
+        }
+        int slot = (int) (tail & mask);
+        prices[slot] = price;
+        volumes[slot] = volume;
+        timestamps[slot] = timestampNanos;
+        sequenceIds[slot] = sequenceId;
+        tail++;
+    }
+
+    // Doubles the capacity, unrolling the ring so the oldest trade sits at slot 0
+    private void grow() {
+        int size = size();
+        double[] oldPrices = prices;
+        long[] oldVolumes = volumes;
+        long[] oldTimestamps = timestamps;
+        long[] oldSequenceIds = sequenceIds;
+        int oldMask = mask;
+
+        allocate(oldPrices.length << 1);
+        for (int i = 0; i < size; i++) {
+            int oldSlot = (int) ((head + i) & oldMask);
+            int newSlot = (int) ((head + i) & mask);
+            prices[newSlot] = oldPrices[oldSlot];
+            volumes[newSlot] = oldVolumes[oldSlot];
+            timestamps[newSlot] = oldTimestamps[oldSlot];
+            sequenceIds[newSlot] = oldSequenceIds[oldSlot];
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    @Override
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    @Override
+    public int capacity() {
+        return prices.length;
+    }
+
+    @Override
+    public double peekPrice() {
+        return prices[(int) (head & mask)];
+    }
+
+    @Override
+    public long peekVolume() {
+        return volumes[(int) (head & mask)];
+    }
+
+    @Override
+    public long peekTimestamp() {
+        return timestamps[(int) (head & mask)];
+    }
+
+    @Override
+    public long headPosition() {
+        return head;
+    }
+
+    @Override
+    public long tailPosition() {
+        return tail;
+    }
+
+    @Override
+    public double priceAt(long position) {
+        return prices[(int) (position & mask)];
+    }
+
+    @Override
+    public long volumeAt(long position) {
+        return volumes[(int) (position & mask)];
+    }
+
+    @Override
+    public long timestampAt(long position) {
+        return timestamps[(int) (position & mask)];
+    }
+
+    @Override
+    public long sequenceIdAt(long position) {
+        return sequenceIds[(int) (position & mask)];
+    }
+
+    @Override
+    public void removeFirst() {
+        if (head == tail) {
+            throw new IllegalStateException("Cannot remove from an empty trade buffer");
+        }
+        head++;
+    }
+
+    // Empties the buffer and hands the (possibly grown) arrays back to the GC
+    @Override
+    public void clear() {
+        head = tail;
+        if (prices.length > initialCapacity) {
+            allocate(initialCapacity);
+        }
+    }
+
+    @Override
+    public Queue<Trade> toTrades(String currencyPair, long fromPosition) {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        for (long position = Math.max(head, fromPosition); position < tail; position++) {
+            int slot = (int) (position & mask);
+            trades.add(new Trade(prices[slot], volumes[slot], timestamps[slot], currencyPair, sequenceIds[slot]));
+        }
+        return trades;
+    }
+}
@@ -24,12 +24,14 @@ public class TradeSimulator {
         // Define the manageResourceFlag logic
         final long resourceManageIntervalMillis = 30_000; // 30 seconds or custom in milliseconds
         long lastResourceManageTime = System.currentTimeMillis();
+        // The resource manager runs on its own thread, the flag below only reports on its last cycle
+        vwapCalculatorService.startResourceManager(resourceManageIntervalMillis, resourceManageIntervalMillis / 10);
 
         while (true) {
             // Limit the rate of updates
             rateLimiter.acquire();
 
-            // Check if 30 seconds (or other custom set value) have elapsed to toggle manageResourceFlag
+            // Check if 30 seconds (or other custom set value) have elapsed to toggle manageResourceFlag for the printout
             boolean manageResourceFlag = false;
             long currentTime = System.currentTimeMillis();
             if (currentTime - lastResourceManageTime >= resourceManageIntervalMillis) {
@@ -0,0 +1,62 @@
+package com.anz.trading.calculators.vwap;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Conversions between the LocalDateTime used at the API/DAO edges and the primitive
+ * epoch nanosecond timestamps held in the in-memory trade windows.
+ * The wall-clock LocalDateTime is treated as UTC so the round trip is exact.
+ */
+public final class TradeTime {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long OFFSET_REFRESH_MILLIS = 60_000L;
+
+    // System zone offset cached for a minute at a time so now() needs no time zone lookup per call
+    private static volatile CachedOffset cachedOffset = new CachedOffset(Long.MIN_VALUE, 0);
+
+    private static final class CachedOffset {
+        private final long validUntilMillis;
+        private final long offsetMillis;
+
+        private CachedOffset(long validUntilMillis, long offsetMillis) {
+            this.validUntilMillis = validUntilMillis;
+            this.offsetMillis = offsetMillis;
+        }
+    }
+
+    private TradeTime() {
+    }
+
+    /**
+     * Current local wall-clock time as epoch nanos (millisecond resolution), equivalent to
+     * toEpochNanos(LocalDateTime.now()) without allocating on the hot path
+     */
+    public static long nowNanos() {
+        long millis = System.currentTimeMillis();
+        CachedOffset offset = cachedOffset;
+        if (millis >= offset.validUntilMillis) {
+            ZoneOffset zoneOffset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(millis));
+            offset = new CachedOffset(millis + OFFSET_REFRESH_MILLIS, zoneOffset.getTotalSeconds() * 1000L);
+            cachedOffset = offset;
+        }
+        return (millis + offset.offsetMillis) * NANOS_PER_MILLI;
+    }
+
+    public static long toEpochNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + timestamp.getNano();
+    }
+
+    public static LocalDateTime toLocalDateTime(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(epochNanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+    public static long minutesToNanos(long minutes) {
+        return minutes * 60 * NANOS_PER_SECOND;
+    }
+}
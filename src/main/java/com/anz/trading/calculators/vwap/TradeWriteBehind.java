@@ -0,0 +1,232 @@
+package com.anz.trading.calculators.vwap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+
+/**
+ * Write-behind stage in front of the persistent DB. Trades drained from memory are queued and a
+ * dedicated writer thread group-commits them, so the trade path only waits on the DB when the
+ * queue is full, in which case submit blocks until the writer catches up (backpressure).
+ * A batch that fails to write is kept and retried with backoff until it succeeds or the stage is
+ * shut down, as its trades are no longer held anywhere else.
+ */
+public class TradeWriteBehind {
+    private static final int DEFAULT_MAX_BATCH = 5000;
+    private static final long POLL_MILLIS = 100;
+    private static final long MIN_RETRY_MILLIS = 50;
+    private static final long MAX_RETRY_MILLIS = 5000;
+
+    private final TradeDAO tradeDAO;
+    private final BlockingQueue<Trade> pending;
+    private final int maxBatch;
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Held by a submitter while it queues, so each submission's trades are contiguous and counted in queue order
+    private final Object submitLock = new Object();
+
+    // Guarded by this, flush waits for written to catch up with submitted
+    private long submitted = 0;
+    private long written = 0;
+    // Set while the writer is retrying a failed batch, cleared once it is written
+    private Exception lastFailure;
+    private int failedTrades = 0;
+    // Trades given up on because the stage was shut down while their batch was failing
+    private int abandonedTrades = 0;
+    // Callbacks waiting for written to reach their submission's last trade, in submission order
+    private final ArrayDeque<Confirmation> confirmations = new ArrayDeque<>();
+
+    private static final class Confirmation {
+        private final long lastTrade;
+        private final Runnable onWritten;
+
+        private Confirmation(long lastTrade, Runnable onWritten) {
+            this.lastTrade = lastTrade;
+            this.onWritten = onWritten;
+        }
+    }
+
+    public TradeWriteBehind(TradeDAO tradeDAO, int capacity) {
+        this(tradeDAO, capacity, DEFAULT_MAX_BATCH);
+    }
+
+    public TradeWriteBehind(TradeDAO tradeDAO, int capacity, int maxBatch) {
+        this.tradeDAO = tradeDAO;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::writeLoop, "trade-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues the trades for the writer thread, blocking while the queue is full
+    public void submit(Collection<Trade> trades) {
+        submit(trades, null);
+    }
+
+    // As above, with onWritten run on the writer thread once every one of the trades is in the DB
+    public void submit(Collection<Trade> trades, Runnable onWritten) {
+        if (!running) {
+            throw new IllegalStateException("Trade write-behind has been shut down");
+        }
+        synchronized (submitLock) {
+            synchronized (this) {
+                submitted += trades.size();
+                if (onWritten != null) {
+                    confirmations.add(new Confirmation(submitted, onWritten));
+                }
+            }
+            int queued = 0;
+            try {
+                for (Trade trade : trades) {
+                    pending.put(trade);
+                    queued++;
+                }
+            } catch (InterruptedException e) {
+                // Only the trades that made it onto the queue will ever be written, and not all of this submission
+                synchronized (this) {
+                    submitted -= trades.size() - queued;
+                    if (onWritten != null) {
+                        confirmations.removeLast();
+                    }
+                    notifyAll();
+                }
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for space in the write-behind queue", e);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        ArrayDeque<Trade> batch = new ArrayDeque<>(maxBatch);
+        while (running || !pending.isEmpty()) {
+            try {
+                Trade first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // Everything already queued goes out in the same DB call (group commit)
+                batch.add(first);
+                pending.drainTo(batch, maxBatch - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Only shutdown interrupts the writer, anything still queued is drained by the loop condition
+                running = false;
+            }
+        }
+    }
+
+    // Writes the batch, retrying it with backoff while the DB fails, and only then counts it as written
+    // A rewritten chunk is idempotent, the H2 stores MERGE on the sequence id and the trade journal rolls a
+    // failed batch back
+    private void write(ArrayDeque<Trade> batch) {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (true) {
+            try {
+                tradeDAO.insertTradesFrom(batch);
+                break;
+            } catch (Exception e) {
+                synchronized (this) {
+                    lastFailure = e;
+                    failedTrades = batch.size();
+                    notifyAll();
+                    if (!running) {
+                        // Shutting down, the trades are lost and shutdown reports them
+                        abandonedTrades += batch.size();
+                        written += batch.size();
+                        return;
+                    }
+                    try {
+                        // Woken early by shutdown
+                        wait(retryMillis);
+                    } catch (InterruptedException interrupted) {
+                        running = false;
+                    }
+                }
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+            }
+        }
+
+        // Only the writer moves written, and it does so after the callbacks so a flush also sees them applied
+        List<Runnable> confirmed = new ArrayList<>();
+        long writtenAfter;
+        synchronized (this) {
+            lastFailure = null;
+            failedTrades = 0;
+            writtenAfter = written + batch.size();
+            while (!confirmations.isEmpty() && confirmations.peekFirst().lastTrade <= writtenAfter) {
+                confirmed.add(confirmations.pollFirst().onWritten);
+            }
+        }
+        for (Runnable onWritten : confirmed) {
+            try {
+                onWritten.run();
+            } catch (RuntimeException e) {
+                // Keep the writer alive, a failed callback only affects its own submission
+                System.err.println("Failed to confirm trades written to the persistent DB: " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            written = writtenAfter;
+            notifyAll();
+        }
+    }
+
+    // Blocks until every trade submitted before the call has been written
+    // Throws while the writer is retrying a failed batch, whose trades stay queued for the next attempt
+    public synchronized void flush() {
+        long target = submitted;
+        while (written < target) {
+            if (lastFailure != null) {
+                throw new RuntimeException("Failed to write " + failedTrades
+                        + " trades to the persistent DB, retrying", lastFailure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while flushing trades to the persistent DB", e);
+            }
+        }
+    }
+
+    // Flushes what is queued, then stops the writer thread
+    // If the DB is still failing, every trade not yet written is given up on and reported
+    public void shutdown() {
+        RuntimeException flushFailure = null;
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            flushFailure = e;
+        }
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (abandonedTrades > 0) {
+                throw new RuntimeException("Shut down with " + abandonedTrades
+                        + " trades not written to the persistent DB", lastFailure);
+            }
+        }
+        if (flushFailure != null) {
+            throw flushFailure;
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -1,67 +1,336 @@
 package com.anz.trading.calculators.vwap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class VWAPCalculator {
 
 	private final ExecutorService executorService;
-    private final Map<String, VWAPData> dataMap = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<Void>> taskCompletionMap = new ConcurrentHashMap<>();
-    private final long minutesForVWAP;
+	// Only populated in PINNED_LANES mode, one single-threaded executor per lane
+	private final ExecutorService[] lanes;
+    // Per pair state indexed by CurrencyPairRegistry id, grown copy-on-write when a new pair appears
+    private final CurrencyPairRegistry currencyPairRegistry = CurrencyPairRegistry.getDefault();
+    private volatile PairState[] pairStates = new PairState[currencyPairRegistry.size()];
+    // Every window length served per pair, all computed from one shared trade sequence
+    private final long[] windowsMinutes;
+    private final WindowMode windowMode;
+    private final TradeClock clock;
     
     public VWAPCalculator(byte numberOfThreads, long minutesForVWAP) {
-        // Create a thread pool for managing concurrent tasks
-        executorService = Executors.newFixedThreadPool(numberOfThreads);
-        this.minutesForVWAP = minutesForVWAP;
+        this(numberOfThreads, minutesForVWAP, WindowMode.TRADES);
+    }
+    
+    public VWAPCalculator(byte numberOfThreads, long minutesForVWAP, WindowMode windowMode) {
+        this(numberOfThreads, minutesForVWAP, windowMode, ExecutionMode.SHARED_POOL);
+    }
+    
+    public VWAPCalculator(byte numberOfThreads, long minutesForVWAP, ExecutionMode executionMode) {
+        this(numberOfThreads, minutesForVWAP, WindowMode.TRADES, executionMode);
+    }
+    
+    public VWAPCalculator(byte numberOfThreads, long minutesForVWAP, WindowMode windowMode,
+    		ExecutionMode executionMode) {
+        this(numberOfThreads, new long[] { minutesForVWAP }, windowMode, executionMode);
+    }
+    
+    // Serves several window lengths (e.g. 1, 5, 15 and 60 minutes) without holding a copy of the trades per window
+    public VWAPCalculator(byte numberOfThreads, long[] windowsMinutes, WindowMode windowMode,
+    		ExecutionMode executionMode) {
+        this(numberOfThreads, windowsMinutes, windowMode, executionMode, TradeClock.SYSTEM);
+    }
+    
+    // Windows created by this calculator take the time from the given clock, i.e. a simulated one for a replay
+    public VWAPCalculator(byte numberOfThreads, long[] windowsMinutes, WindowMode windowMode,
+    		ExecutionMode executionMode, TradeClock clock) {
+        this.windowsMinutes = windowsMinutes.clone();
+        this.windowMode = windowMode;
+        this.clock = clock;
+        if (executionMode == ExecutionMode.PINNED_LANES) {
+        	// Each lane is the only writer for the pairs hashed to it, so per pair ordering is preserved
+        	executorService = null;
+        	lanes = new ExecutorService[numberOfThreads];
+        	for (int i = 0; i < lanes.length; i++) {
+        		lanes[i] = Executors.newSingleThreadExecutor();
+        	}
+        } else {
+        	// Create a thread pool for managing concurrent tasks
+        	executorService = Executors.newFixedThreadPool(numberOfThreads);
+        	lanes = null;
+        }
+    }
+    
+    // Queues a task for this currency pair, either on the pair's own serial queue onto the shared pool or on the
+    // lane the pair is pinned to. If it is rejected the task is abandoned, i.e. counted as applied, not left pending
+    private void submit(PairState state, int currencyPairId, PairTask task) {
+    	if (lanes == null) {
+    		// Abandons every task left in the pair's queue, this one included
+    		state.execute(task);
+    		return;
+    	}
+    	try {
+    		lanes[currencyPairId % lanes.length].execute(task);
+    	} catch (RejectedExecutionException e) {
+    		task.abandon(e);
+    		throw e;
+    	}
+    }
+    
+    public int laneIndex(String currencyPair) {
+    	if (lanes == null) {
+    		return -1;
+    	}
+    	// Pair ids are dense, so a modulo spreads the pairs evenly across the lanes
+    	return currencyPairRegistry.intern(currencyPair) % lanes.length;
+    }
+    
+    public TradeClock getClock() {
+    	return clock;
+    }
+    
+    public ExecutionMode getExecutionMode() {
+    	return lanes == null ? ExecutionMode.SHARED_POOL : ExecutionMode.PINNED_LANES;
+    }
+
+    // A task queued for a pair. abandon() is called instead of run() when the task will never run, and must
+    // still advance the applied watermark (and fail anyone waiting on the task) so readers are not left waiting
+    private interface PairTask extends Runnable {
+    	void abandon(RejectedExecutionException e);
+    }
+
+    // The VWAPData of a pair plus its submitted/applied counters, getVWAP waits for applied to catch up
+    // with submitted. Replaces a chain of CompletableFutures so nothing is allocated or retained per trade
+    // In SHARED_POOL mode it is also the pair's serial executor: tasks queue here and at most one pool
+    // thread at a time drains them, in the order they were queued, so applied is an exact watermark
+    private static final class PairState implements Runnable {
+    	// Tasks run per turn on a pool thread before it is handed back, so one busy pair can't starve the others
+    	private static final int TASKS_PER_TURN = 256;
+    	
+    	private final VWAPData vwapData;
+    	private final AtomicLong submitted = new AtomicLong();
+    	private final AtomicLong applied = new AtomicLong();
+    	// Trades trimmed by applied tasks that have not yet been reported back through processData
+    	private final AtomicInteger trimmed = new AtomicInteger();
+    	// Null in PINNED_LANES mode, where the lane keeps the order
+    	private final Executor pool;
+    	private final Queue<PairTask> tasks = new ConcurrentLinkedQueue<>();
+    	// Set while a drain of the tasks is queued or running on the pool
+    	private final AtomicBoolean scheduled = new AtomicBoolean();
+    	
+    	private PairState(VWAPData vwapData, Executor pool) {
+    		this.vwapData = vwapData;
+    		this.pool = pool;
+    	}
+    	
+    	private void execute(PairTask task) {
+    		tasks.offer(task);
+    		if (scheduled.compareAndSet(false, true)) {
+    			try {
+    				pool.execute(this);
+    			} catch (RejectedExecutionException e) {
+    				// No drain will run, so abandon everything queued. Tasks queued while the flag was held left
+    				// themselves to this drain, and any queued after it is cleared get their own rejection
+    				scheduled.set(false);
+    				if (abandonQueuedTasks(task, e)) {
+    					throw e;
+    				}
+    			}
+    		}
+    	}
+    	
+    	// Returns true if the given task was among those abandoned, otherwise a drain already running took it
+    	private boolean abandonQueuedTasks(PairTask own, RejectedExecutionException e) {
+    		boolean ownAbandoned = false;
+    		PairTask task;
+    		while ((task = tasks.poll()) != null) {
+    			ownAbandoned |= task == own;
+    			task.abandon(e);
+    		}
+    		return ownAbandoned;
+    	}
+    	
+    	// Drains the queued tasks in order on a pool thread
+    	@Override
+    	public void run() {
+    		while (true) {
+    			for (int i = 0; i < TASKS_PER_TURN; i++) {
+    				Runnable task = tasks.poll();
+    				if (task == null) {
+    					scheduled.set(false);
+    					// A task queued after the poll saw the flag still set and left it to this drain
+    					if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+    						return;
+    					}
+    					continue;
+    				}
+    				try {
+    					task.run();
+    				} catch (RuntimeException e) {
+    					// Report it as the pool would, but keep draining so the pair's later tasks still run
+    					Thread thread = Thread.currentThread();
+    					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    				}
+    			}
+    			try {
+    				// Back of the pool's queue, behind the other pairs
+    				pool.execute(this);
+    				return;
+    			} catch (RejectedExecutionException e) {
+    				// The pool is shutting down, finish the pair's tasks on this thread
+    			}
+    		}
+    	}
+    }
+    
+    // Array lookup on the hot path, only a pair's first trade takes the lock to create its state
+    private PairState pairState(int currencyPairId) {
+    	PairState[] states = pairStates;
+    	if (currencyPairId < states.length) {
+    		PairState state = states[currencyPairId];
+    		if (state != null) {
+    			return state;
+    		}
+    	}
+    	return createPairState(currencyPairId);
+    }
+    
+    private synchronized PairState createPairState(int currencyPairId) {
+    	PairState[] states = pairStates;
+    	if (currencyPairId < states.length && states[currencyPairId] != null) {
+    		return states[currencyPairId];
+    	}
+    	states = Arrays.copyOf(states, Math.max(states.length, Math.max(currencyPairId + 1, currencyPairRegistry.size())));
+    	PairState state = new PairState(new VWAPData(currencyPairRegistry.getCurrencyPair(currencyPairId),
+    			windowsMinutes, windowMode, VWAPData.DEFAULT_BUCKET_MILLIS, clock), executorService);
+    	states[currencyPairId] = state;
+    	pairStates = states;
+    	return state;
+    }
+    
+    // Null if no trade for this pair has been processed yet
+    private PairState existingPairState(String currencyPair) {
+    	int currencyPairId = currencyPairRegistry.getId(currencyPair);
+    	PairState[] states = pairStates;
+    	return currencyPairId >= 0 && currencyPairId < states.length ? states[currencyPairId] : null;
     }
 
     // Process incoming data
+    // Returns the number of trades trimmed from this pair's window by tasks applied since the last call
     public int processData(Trade trade) {
-    	AtomicInteger nbrTradesTrimmed = new AtomicInteger(0);
-    	String currencyPair = trade.getCurrencyPair();
-    	CompletableFuture<Void> taskFuture = new CompletableFuture<>();
+    	int currencyPairId = trade.getCurrencyPairId();
+    	PairState state = pairState(currencyPairId);
+    	// Counted before the task is queued, so a reader's target covers every task queued ahead of its own
+    	state.submitted.incrementAndGet();
     	// Submit the task of adding data point to the executor
-    	executorService.submit(() -> {
-            try {
-                VWAPData vwapData = dataMap.computeIfAbsent(currencyPair, k -> new VWAPData(minutesForVWAP));
-                nbrTradesTrimmed.set(vwapData.addDataPoint(trade));
-            } finally {
-                // Mark this task as completed
-                taskFuture.complete(null);
-            }
-        });
-    	
-    	// Replace or merge task futures for the same currency pair
-        taskCompletionMap.merge(
-            currencyPair,
-            taskFuture,
-            (existingFuture, newFuture) -> existingFuture.thenCombine(newFuture, (a, b) -> null)
-        );
+    	submit(state, currencyPairId, new PairTask() {
+    		@Override
+    		public void run() {
+    			try {
+    				state.trimmed.addAndGet(state.vwapData.addDataPoint(trade));
+    			} finally {
+    				// Advance the watermark even if the task failed so readers are never left waiting
+    				state.applied.incrementAndGet();
+    			}
+    		}
+    		
+    		@Override
+    		public void abandon(RejectedExecutionException e) {
+    			state.applied.incrementAndGet();
+    		}
+    	});
         
-        return nbrTradesTrimmed.get();
+        return state.trimmed.getAndSet(0);
     }
     
-    // Used to test the cases where the executor isn't working as expected
-    public void processDataWithoutExecutor(Trade trade) {
-    	String currencyPair = trade.getCurrencyPair();
-        VWAPData vwapData = dataMap.computeIfAbsent(currencyPair, k -> new VWAPData(minutesForVWAP));
-        vwapData.addDataPoint(trade);
+    // Process a burst of trades, grouped by currency pair so each group is one task and one critical section
+    // Blocks until every group is applied and returns the exact number of trades trimmed per pair
+    public Map<String, Integer> processBatch(List<Trade> trades) {
+    	Map<Integer, List<Trade>> tradesByPair = new LinkedHashMap<>();
+    	for (Trade trade : trades) {
+    		tradesByPair.computeIfAbsent(trade.getCurrencyPairId(), k -> new ArrayList<>()).add(trade);
+    	}
+    	
+    	Map<String, Future<Integer>> pendingGroups = new LinkedHashMap<>();
+    	for (Map.Entry<Integer, List<Trade>> entry : tradesByPair.entrySet()) {
+    		int currencyPairId = entry.getKey();
+    		List<Trade> group = entry.getValue();
+    		PairState state = pairState(currencyPairId);
+    		state.submitted.addAndGet(group.size());
+    		BatchTask task = new BatchTask(state, group);
+    		submit(state, currencyPairId, task);
+    		pendingGroups.put(currencyPairRegistry.getCurrencyPair(currencyPairId), task);
+    	}
+    	
+    	Map<String, Integer> nbrTradesTrimmed = new LinkedHashMap<>();
+    	for (Map.Entry<String, Future<Integer>> entry : pendingGroups.entrySet()) {
+    		try {
+    			nbrTradesTrimmed.put(entry.getKey(), entry.getValue().get());
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			throw new RuntimeException("Interrupted while waiting for batch of trades to be applied", e);
+    		} catch (ExecutionException e) {
+    			throw new RuntimeException("Error while applying batch of trades for " + entry.getKey(), e.getCause());
+    		}
+    	}
+    	return nbrTradesTrimmed;
+    }
+    
+    // One pair's group of a batch, an abandoned group fails its future with the rejection
+    private static final class BatchTask extends FutureTask<Integer> implements PairTask {
+    	private final PairState state;
+    	private final int nbrTrades;
+    	
+    	private BatchTask(PairState state, List<Trade> group) {
+    		super(() -> {
+    			try {
+    				return state.vwapData.addDataPoints(group);
+    			} finally {
+    				state.applied.addAndGet(group.size());
+    			}
+    		});
+    		this.state = state;
+    		this.nbrTrades = group.size();
+    	}
+    	
+    	@Override
+    	public void abandon(RejectedExecutionException e) {
+    		setException(e);
+    		state.applied.addAndGet(nbrTrades);
+    	}
+    }
+    
+    public Map<String, Integer> processBatch(Trade[] trades) {
+    	return processBatch(Arrays.asList(trades));
+    }
+    
+    // Used to test the cases where the executor isn't working as expected, and by the replay driver, which
+    // applies trades in order on its own thread. Returns the number of trades trimmed from the pair's window
+    public int processDataWithoutExecutor(Trade trade) {
+        VWAPData vwapData = pairState(trade.getCurrencyPairId()).vwapData;
+        return vwapData.addDataPoint(trade);
     }
     
     public void restoreData(Queue<Trade> trades) {
         // Loop through each trade in the queue and add it to the appropriate VWAPData
         for (Trade trade : trades) {
-            String currencyPair = trade.getCurrencyPair();
-            
             // Shouldn't ever need new VWAPData but leaving there to avoid any weird errors
-            VWAPData vwapData = dataMap.computeIfAbsent(currencyPair, k -> new VWAPData(minutesForVWAP));
+            VWAPData vwapData = pairState(trade.getCurrencyPairId()).vwapData;
             
             // Add the trade data point to the VWAPData object
             vwapData.addDataPoint(trade);
@@ -70,32 +339,85 @@ public class VWAPCalculator {
 
     // Get the VWAP for a specific currency pair
     public double getVWAP(String currencyPair) {
-    	CompletableFuture<Void> taskFuture = taskCompletionMap.get(currencyPair);
+    	PairState state = existingPairState(currencyPair);
+    	if (state == null) {
+    		return 0;
+    	}
 
-        // Wait for all tasks related to this currency pair to complete
-        if (taskFuture != null) {
-            try {
-                taskFuture.join();
-            } catch (CompletionException e) {
-                throw new RuntimeException("Error while waiting for VWAP calculation tasks", e);
-            }
-        }
-
-        VWAPData vwapData = dataMap.get(currencyPair);
-        return vwapData == null ? 0 : vwapData.getVWAP();
+        // Wait for all tasks submitted for this currency pair before the call to be applied
+        awaitApplied(state, state.submitted.get());
+        return state.vwapData.getVWAP();
     }
     
-    // For testing purposes only
+    // Get the VWAP for a specific currency pair over one of the configured window lengths
+    public double getVWAP(String currencyPair, long windowMinutes) {
+    	PairState state = existingPairState(currencyPair);
+    	if (state == null) {
+    		return 0;
+    	}
+    	
+    	awaitApplied(state, state.submitted.get());
+    	return state.vwapData.getVWAP(windowMinutes);
+    }
+    
+    // In both modes a pair's tasks are applied one at a time in the order they were queued, and submitted is
+    // counted before queuing, so once applied reaches the target every task queued before the read is applied
+    private void awaitApplied(PairState state, long target) {
+    	int spins = 0;
+    	while (state.applied.get() < target) {
+    		if (spins < 1000) {
+    			Thread.onSpinWait();
+    		} else if (spins < 2000) {
+    			Thread.yield();
+    		} else {
+    			LockSupport.parkNanos(10_000);
+    		}
+    		spins++;
+    	}
+    }
+    
+    // Snapshot of every pair seen so far, in registry id order, for the resource manager and tests
     public Map<String, VWAPData> getDataMap() {
+    	Map<String, VWAPData> dataMap = new LinkedHashMap<>();
+    	PairState[] states = pairStates;
+    	for (int currencyPairId = 0; currencyPairId < states.length; currencyPairId++) {
+    		if (states[currencyPairId] != null) {
+    			dataMap.put(currencyPairRegistry.getCurrencyPair(currencyPairId), states[currencyPairId].vwapData);
+    		}
+    	}
         return dataMap;
     }
     
     public VWAPData getVWAPData(String currencyPair) {
-    	return dataMap.get(currencyPair);
+    	PairState state = existingPairState(currencyPair);
+    	return state == null ? null : state.vwapData;
+    }
+
+    // As above, creating the pair's window if no trade has been processed for it yet (i.e. on a warm restart)
+    public VWAPData getOrCreateVWAPData(String currencyPair) {
+    	return pairState(currencyPairRegistry.intern(currencyPair)).vwapData;
     }
     
     // Optionally, shut down the executor service when done
+    // Queued trades are applied first, then the trade buffers are released (freeing any off-heap memory)
     public void shutdown() {
-        executorService.shutdown();
+    	ExecutorService[] executors = lanes == null ? new ExecutorService[] { executorService } : lanes;
+    	for (ExecutorService executor : executors) {
+    		executor.shutdown();
+    	}
+    	try {
+    		for (ExecutorService executor : executors) {
+    			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+    				// A task may still be writing to a buffer, leave the memory to the GC rather than free it underneath
+    				return;
+    			}
+    		}
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return;
+    	}
+    	for (VWAPData vwapData : getDataMap().values()) {
+    		vwapData.release();
+    	}
     }
 }
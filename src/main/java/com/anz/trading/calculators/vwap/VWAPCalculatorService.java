@@ -9,8 +9,6 @@ public class VWAPCalculatorService {
     private final TradeResourceManager tradeResourceManager;
     private byte nbrThreads = 4;
     
-    private int tradesToBeSentToResourceManager = 0;
-    
     private long minutesForVWAP;
 
     public VWAPCalculatorService(TradeGenerator tradeGenerator, long minutesForVWAP, int tradeThresholdPerPair, int totalTradeThreshold) {
@@ -32,30 +30,37 @@ public class VWAPCalculatorService {
         this.tradeResourceManager = new TradeResourceManager(vwapCalculator, tradeThresholdPerPair, totalTradeThreshold);
     }
 
+    /**
+     * Runs the DB write/restore/diagnostics cycle on the resource manager's own thread every intervalMillis,
+     * +/- jitterMillis, so trades are never held up by it
+     */
+    public void startResourceManager(long intervalMillis, long jitterMillis) {
+    	tradeResourceManager.start(minutesForVWAP, intervalMillis, jitterMillis);
+    }
+
     // Simulate receiving a price update from TradeGenerator
     public String simulateTradeUpdate(boolean manageResourceFlag) {
         // Generate a random trade using the TradeGenerator
         Trade trade = tradeGenerator.generateRandomTrade();
-        tradesToBeSentToResourceManager++;
 
         // Process the trade using the VWAPCalculator
         int tradesTrimmed = vwapCalculator.processData(trade);
-        tradesToBeSentToResourceManager -= tradesTrimmed;
+        // Picked up by the next resource cycle
+        tradeResourceManager.recordTrades(1 - tradesTrimmed);
         
-        // When the flag is set to true, also trigger the resource manager
-        String currencyPair;
+        // When the flag is set to true, report the most traded pair
+        String currencyPair = trade.getCurrencyPair();
         if (manageResourceFlag) {
-        	// First adjust the number of trades accumulated since the last manage resources call
-        	System.out.println("Trades to be sent to mgr: " + tradesToBeSentToResourceManager);
-        	tradeResourceManager.adjustTradesInPastHour(tradesToBeSentToResourceManager);
-        	
-        	// Now with adjusted trade figures, manage the DB write/restore/diagnostics
-        	currencyPair = tradeResourceManager.manageResources(minutesForVWAP);
-        	
-        	// Reset the trades accumulator back to 0        	
-        	tradesToBeSentToResourceManager = 0;        	
-        } else {
-        	currencyPair = trade.getCurrencyPair();
+        	if (tradeResourceManager.isRunning()) {
+        		// As of the last background cycle, this thread does no resource work
+        		String maxTradeCurrencyPair = tradeResourceManager.getLastMaxTradeCurrencyPair();
+        		if (!maxTradeCurrencyPair.isEmpty()) {
+        			currencyPair = maxTradeCurrencyPair;
+        		}
+        	} else {
+        		// No background cycle, so manage the DB write/restore/diagnostics inline
+        		currencyPair = tradeResourceManager.manageResources(minutesForVWAP);
+        	}
         }
         
         return currencyPair;
@@ -68,6 +73,7 @@ public class VWAPCalculatorService {
     
     public void shutdown(VWAPCalculator vwapCalculator) {
     	vwapCalculator.shutdown();
+    	tradeResourceManager.shutdown();
     }
     
     public int getTradeThresholdPerPair() {
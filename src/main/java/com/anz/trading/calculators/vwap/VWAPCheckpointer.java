@@ -0,0 +1,197 @@
+package com.anz.trading.calculators.vwap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+
+/**
+ * Periodically snapshots every VWAPData of a calculator to a compact binary file so a restart can
+ * pick up the running sums and window contents directly, then replay only the trades the persistent
+ * DB received after the snapshot, rather than rebuilding the whole window from the DB.
+ *
+ * File layout (big-endian, DataOutputStream): magic, version, checkpoint epoch nanos, pair count,
+ * then per pair its name followed by the state written by VWAPData.writeCheckpoint.
+ * The file is written to a temporary sibling and renamed over the previous checkpoint, so a crash
+ * mid-write leaves the last complete checkpoint in place.
+ */
+public class VWAPCheckpointer {
+    private static final int MAGIC = 0x56574150; // "VWAP"
+    private static final int VERSION = 2;
+    private static final int STREAM_BUFFER_BYTES = 1 << 16;
+
+    private final VWAPCalculator vwapCalculator;
+    private final Path checkpointFile;
+    private ScheduledExecutorService scheduler;
+
+    public VWAPCheckpointer(VWAPCalculator vwapCalculator, Path checkpointFile) {
+        this.vwapCalculator = vwapCalculator;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Writes a checkpoint of every pair seen so far, replacing the previous one
+     * @return the number of pairs written
+     */
+    public synchronized int checkpoint() throws IOException {
+        Map<String, VWAPData> dataMap = vwapCalculator.getDataMap();
+        Path parent = checkpointFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, STREAM_BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(vwapCalculator.getClock().nowNanos());
+            out.writeInt(dataMap.size());
+            for (Map.Entry<String, VWAPData> entry : dataMap.entrySet()) {
+                // Each pair is written under its own monitor, so the trade path only stalls for one pair at a time
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeCheckpoint(out);
+            }
+            out.flush();
+            // The rename below must not become visible before the contents are on disk
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return dataMap.size();
+    }
+
+    /**
+     * Loads the latest checkpoint into the calculator, then replays from the persistent DB every trade
+     * written after it (i.e. with a higher sequence id than the highest each pair had applied), reading
+     * the tail once for all pairs.
+     * To be called on startup before any trade is processed.
+     * @param persistentDAO the DB the trade logger writes to, or null to load the checkpoint only
+     * @return the number of pairs restored, 0 if there is no checkpoint yet
+     */
+    public int restore(TradeDAO persistentDAO) throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        int nbrPairs;
+        try (InputStream fileIn = Files.newInputStream(checkpointFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, STREAM_BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a VWAP checkpoint: " + checkpointFile);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported VWAP checkpoint version " + version + ": " + checkpointFile);
+            }
+            in.readLong(); // checkpoint time, kept for diagnostics
+            nbrPairs = in.readInt();
+            Map<String, VWAPData> restored = new LinkedHashMap<>();
+            for (int i = 0; i < nbrPairs; i++) {
+                String currencyPair = in.readUTF();
+                VWAPData vwapData = vwapCalculator.getOrCreateVWAPData(currencyPair);
+                vwapData.readCheckpoint(in);
+                restored.put(currencyPair, vwapData);
+            }
+            if (persistentDAO != null) {
+                replayTail(persistentDAO, restored, vwapCalculator.getClock().now());
+            }
+        }
+        return nbrPairs;
+    }
+
+    // One pass over the trades after the lowest of the pairs' watermarks, each row applied to its pair if it is
+    // above that pair's own. Trades older than the longest window (as of the calculator's clock) cannot affect the
+    // VWAP, so only it is searched
+    private static void replayTail(TradeDAO persistentDAO, Map<String, VWAPData> restored, LocalDateTime now)
+            throws IOException {
+        // Read up front, as replaying moves the watermarks
+        Map<String, Long> watermarks = new LinkedHashMap<>();
+        long afterSequenceId = Long.MAX_VALUE;
+        long longestWindowMinutes = 0;
+        for (Map.Entry<String, VWAPData> entry : restored.entrySet()) {
+            VWAPData vwapData = entry.getValue();
+            if (vwapData.getWindowMode() == WindowMode.BUCKETED) {
+                // Bucketed windows never spill trades to the DB
+                continue;
+            }
+            long[] windows = vwapData.getWindowsMinutes();
+            watermarks.put(entry.getKey(), vwapData.getLastSequenceId());
+            afterSequenceId = Math.min(afterSequenceId, vwapData.getLastSequenceId());
+            longestWindowMinutes = Math.max(longestWindowMinutes, windows[windows.length - 1]);
+        }
+        if (watermarks.isEmpty()) {
+            return;
+        }
+        try {
+            persistentDAO.streamTradesAfter(afterSequenceId, now.minusMinutes(longestWindowMinutes + 1), now.plusMinutes(1),
+                    watermarks.keySet(), (currencyPair, price, volume, timestampNanos, sequenceId) -> {
+                        if (sequenceId > watermarks.get(currencyPair)) {
+                            restored.get(currencyPair).replayDataPoint(
+                                    new Trade(price, volume, timestampNanos, currencyPair, sequenceId));
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new IOException("Failed to replay trades after the checkpoint", e);
+        }
+    }
+
+    /**
+     * Starts taking a checkpoint every periodMillis on a background thread
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Checkpointer is already running");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vwap-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                // Keep the schedule alive, the previous checkpoint is still intact
+                System.err.println("Failed to write VWAP checkpoint: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic checkpoints and writes a final one, before the calculator releases its buffers
+     */
+    public void shutdown() throws IOException {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+            scheduler = null;
+        }
+        if (running != null) {
+            running.shutdown();
+            try {
+                running.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    public Path getCheckpointFile() {
+        return checkpointFile;
+    }
+}
@@ -1,108 +1,617 @@
 package com.anz.trading.calculators.vwap;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 public class VWAPData {
+    // Published to lock-free readers through the seqlock below, only written while holding the monitor
     private double sumPriceVolume = 0;
     private long sumVolume = 0;
+    private int tradeCount = 0;
+    private long lastTimestampNanos = 0;
+    // Highest sequence id applied, trades above it in the DB are the tail replayed after a checkpoint
+    // Ids are taken when a Trade is created on the producer threads, so a pair's trades need not arrive in id
+    // order. A trade with a lower id that was still in flight at the checkpoint is a gap the replay won't fill
+    private long lastSequenceId = Long.MIN_VALUE;
+    // Trades held in each tier and restored bars, published the same way so the resource manager can read them
+    // without taking the monitor and stalling ingestion
+    private int newestCount = 0;
+    private int unpersistedCount = 0;
+    private int oldCount = 0;
+    private int restoredBarCount = 0;
+    // Seqlock version, odd while a writer is updating the published fields
+    private volatile long version = 0;
     private final long minutesForVWAP;
+    private String currencyPair;
     
-    // Separate queues for newest and oldest data (for pre and post-database writing)
-    private final Queue<Trade> tradeQueueNewest = new ConcurrentLinkedDeque<>();
-    private final Queue<Trade> tradeQueueOld = new ConcurrentLinkedDeque<>();  
+    // Default bucket length when the window is held as time buckets rather than individual trades
+    public static final long DEFAULT_BUCKET_MILLIS = 1000;
+    
+    // Checkpointed trades are price, volume, epoch nanos and sequence id, copied in chunks of this many
+    private static final int CHECKPOINT_RECORD_BYTES = 32;
+    private static final int CHECKPOINT_CHUNK_RECORDS = 2048;
+    
+    // Separate buffers for newest and oldest data (for pre and post-database writing)
+    // Held as primitive ring buffers rather than queues of Trade objects to keep the per-trade footprint small
+    private final TradeBuffer tradeQueueNewest;
+    private final TradeBuffer tradeQueueOld;  
+    
+    // Minutes of spilled trades restored from the DB as aggregates, oldest first, each evicted whole
+    // once its last trade leaves the window (so up to a minute late, as with BUCKETED mode)
+    private final ArrayDeque<MinuteBar> restoredBars = new ArrayDeque<>();
+    
+    // Only set in BUCKETED mode, in which case the trade buffers above stay empty
+    private final BucketedWindow bucketedWindow;
+    private final WindowMode windowMode;
+    
+    // Shorter windows over the same trade sequence, shortest first, each with its own running sums and
+    // an eviction cursor (absolute position in tradeQueueNewest) so no trade is stored more than once
+    private final long[] subWindowMinutes;
+    private final long[] subWindowNanos;
+    private final double[] subSumPriceVolume;
+    private final long[] subSumVolume;
+    private final long[] subWindowCursors;
+    // Newest tier trades before this position are already in the DB and only kept for the shorter windows
+    private long persistedPosition = 0;
     
     // Initial inputs
-    LocalDateTime now = LocalDateTime.now();
     private LocalDateTime lastBackup = LocalDateTime.of(2000, 1, 1, 0, 0, 0, 0);
     private LocalDateTime lastRestore = LocalDateTime.of(2000, 1, 1, 0, 0, 0, 0);
     private LocalDateTime lastRestoredDataTimestamp; 
     
     public VWAPData(long minutesForVWAP) {
-        this.minutesForVWAP = minutesForVWAP;
-        this.lastRestoredDataTimestamp = now.minusMinutes(minutesForVWAP + 1);
+        this(null, minutesForVWAP);
+    }
+
+    public VWAPData(String currencyPair, long minutesForVWAP) {
+        this(currencyPair, minutesForVWAP, WindowMode.TRADES, DEFAULT_BUCKET_MILLIS);
+    }
+
+    public VWAPData(String currencyPair, long minutesForVWAP, WindowMode windowMode) {
+        this(currencyPair, minutesForVWAP, windowMode, DEFAULT_BUCKET_MILLIS);
+    }
+
+    public VWAPData(String currencyPair, long minutesForVWAP, WindowMode windowMode, long bucketMillis) {
+        this(currencyPair, new long[] { minutesForVWAP }, windowMode, bucketMillis);
+    }
+
+    // Several window lengths at once, the longest sets how long trades are retained
+    public VWAPData(String currencyPair, long[] windowsMinutes, WindowMode windowMode) {
+        this(currencyPair, windowsMinutes, windowMode, DEFAULT_BUCKET_MILLIS);
+    }
+
+    public VWAPData(String currencyPair, long[] windowsMinutes, WindowMode windowMode, long bucketMillis) {
+        this(currencyPair, windowsMinutes, windowMode, bucketMillis, TradeClock.SYSTEM);
+    }
+
+    // The clock only dates the first restore, the window itself moves with the trade timestamps
+    public VWAPData(String currencyPair, long[] windowsMinutes, WindowMode windowMode, long bucketMillis,
+            TradeClock clock) {
+        long[] windows = Arrays.stream(windowsMinutes).distinct().sorted().toArray();
+        if (windows.length == 0 || windows[0] <= 0) {
+            throw new IllegalArgumentException("Window lengths must be positive: " + Arrays.toString(windowsMinutes));
+        }
+        if (windows.length > 1 && windowMode == WindowMode.BUCKETED) {
+            throw new IllegalArgumentException("Multiple window lengths are not supported in BUCKETED mode");
+        }
+        this.currencyPair = currencyPair;
+        this.minutesForVWAP = windows[windows.length - 1];
+        this.lastRestoredDataTimestamp = clock.now().minusMinutes(minutesForVWAP + 1);
+        this.windowMode = windowMode;
+        this.subWindowMinutes = Arrays.copyOf(windows, windows.length - 1);
+        this.subWindowNanos = new long[subWindowMinutes.length];
+        for (int i = 0; i < subWindowMinutes.length; i++) {
+            subWindowNanos[i] = TradeTime.minutesToNanos(subWindowMinutes[i]);
+        }
+        this.subSumPriceVolume = new double[subWindowMinutes.length];
+        this.subSumVolume = new long[subWindowMinutes.length];
+        this.subWindowCursors = new long[subWindowMinutes.length];
+        if (windowMode == WindowMode.BUCKETED) {
+            bucketedWindow = new BucketedWindow(minutesForVWAP, bucketMillis);
+            tradeQueueNewest = new TradeRingBuffer(2);
+            tradeQueueOld = new TradeRingBuffer(2);
+        } else if (windowMode == WindowMode.OFF_HEAP) {
+            bucketedWindow = null;
+            tradeQueueNewest = new OffHeapTradeBuffer();
+            tradeQueueOld = new OffHeapTradeBuffer();
+        } else {
+            bucketedWindow = null;
+            tradeQueueNewest = new TradeRingBuffer();
+            tradeQueueOld = new TradeRingBuffer();
+        }
     }
 
     // Add new data point and maintain the 1-hour window
     public synchronized int addDataPoint(Trade trade) {
+    	return addDataPointUnlocked(trade);
+    }
+    
+    // Add a batch of data points for this pair inside a single critical section
+    public synchronized int addDataPoints(List<Trade> trades) {
+    	int nbrTradesTrimmed = 0;
+    	for (Trade trade : trades) {
+    		nbrTradesTrimmed += addDataPointUnlocked(trade);
+    	}
+    	return nbrTradesTrimmed;
+    }
+    
+    private int addDataPointUnlocked(Trade trade) {
+    	rememberCurrencyPair(trade);
+    	beginWrite();
+    	try {
+    		int nbrTradesTrimmed = bucketedWindow != null ? addToBuckets(trade) : addToTradeBuffers(trade);
+    		lastTimestampNanos = trade.getTimestampNanos();
+    		lastSequenceId = Math.max(lastSequenceId, trade.getSequenceId());
+    		updateTierCounts();
+    		return nbrTradesTrimmed;
+    	} finally {
+    		endWrite();
+    	}
+    }
+    
+    private int addToBuckets(Trade trade) {
+    	// Eviction is a bucket subtraction so the running sums are taken from the buckets
+    	int nbrTradesTrimmed = bucketedWindow.add(trade.getPrice(), trade.getVolume(), trade.getTimestampNanos());
+    	sumPriceVolume = bucketedWindow.getSumPriceVolume();
+    	sumVolume = bucketedWindow.getSumVolume();
+    	tradeCount = bucketedWindow.getTradeCount();
+    	return nbrTradesTrimmed;
+    }
+    
+    private int addToTradeBuffers(Trade trade) {
     	int nbrTradesTrimmed = 0;
     	
         // Remove old data points that are older than 1 hour from the current timestamp
-        LocalDateTime currentTime = trade.getTimestamp();
+        // Cutoff is computed once as epoch nanos so eviction is a primitive compare with no allocation
+        long currentTime = trade.getTimestampNanos();
+        long windowStart = currentTime - TradeTime.minutesToNanos(minutesForVWAP);
+        // Shorter windows evict first, the trim below may drop trades they still have to subtract
+        trimSubWindows(currentTime);
         // 1st while loop only used if trade volume is small enough to entirely retain on memory
-        while (!tradeQueueNewest.isEmpty() && 
-        		tradeQueueNewest.peek().getTimestamp().isBefore(currentTime.minusMinutes(minutesForVWAP))) {
-            Trade oldest = tradeQueueNewest.poll();
-            sumPriceVolume -= oldest.getPrice() * oldest.getVolume();
-            sumVolume -= oldest.getVolume();
-            nbrTradesTrimmed++;
-        }
+        nbrTradesTrimmed += trimOlderThan(tradeQueueNewest, windowStart);
         // 2nd while loop to remove oldest trades from old Queue and adjust numerator/denominator values
-        while (!tradeQueueOld.isEmpty() && 
-        		tradeQueueOld.peek().getTimestamp().isBefore(currentTime.minusMinutes(minutesForVWAP))) {
-            Trade oldest = tradeQueueOld.poll();
-            sumPriceVolume -= oldest.getPrice() * oldest.getVolume();
-            sumVolume -= oldest.getVolume();
-            nbrTradesTrimmed++;
-        }     
+        nbrTradesTrimmed += trimOlderThan(tradeQueueOld, windowStart);
+        nbrTradesTrimmed += trimBarsOlderThan(windowStart);
 
         // Add the new data point
         tradeQueueNewest.add(trade);
         sumPriceVolume += trade.getPrice() * trade.getVolume();
         sumVolume += trade.getVolume();
+        tradeCount += 1 - nbrTradesTrimmed;
+        for (int i = 0; i < subWindowNanos.length; i++) {
+        	subSumPriceVolume[i] += trade.getPrice() * trade.getVolume();
+        	subSumVolume[i] += trade.getVolume();
+        }
         
         return nbrTradesTrimmed;
     }
     
+    private void trimSubWindows(long currentTime) {
+    	long tail = tradeQueueNewest.tailPosition();
+    	for (int i = 0; i < subWindowNanos.length; i++) {
+    		long windowStart = currentTime - subWindowNanos[i];
+    		long cursor = Math.max(subWindowCursors[i], tradeQueueNewest.headPosition());
+    		while (cursor < tail && tradeQueueNewest.timestampAt(cursor) < windowStart) {
+    			subSumPriceVolume[i] -= tradeQueueNewest.priceAt(cursor) * tradeQueueNewest.volumeAt(cursor);
+    			subSumVolume[i] -= tradeQueueNewest.volumeAt(cursor);
+    			cursor++;
+    		}
+    		subWindowCursors[i] = cursor;
+    	}
+    }
+    
+    // Writers already hold the monitor, so the version only has to tell readers a write is in progress
+    private void beginWrite() {
+    	version++;
+    	// Keep the field writes below from becoming visible before the odd version
+    	VarHandle.storeStoreFence();
+    }
+    
+    private void endWrite() {
+    	// The volatile write releases the field writes above along with the even version
+    	version++;
+    }
+    
+    // Readers take the version from here, copy the published fields, then retry unless validRead holds
+    private long beginRead() {
+    	long startVersion = version;
+    	while ((startVersion & 1) != 0) {
+    		Thread.onSpinWait();
+    		startVersion = version;
+    	}
+    	return startVersion;
+    }
+    
+    private boolean validRead(long startVersion) {
+    	// Keep the field reads above from moving after the version check
+    	VarHandle.loadLoadFence();
+    	return startVersion == version;
+    }
+    
+    // Buffer sizes are position arithmetic, so this is O(1) however many trades are held
+    // Called between beginWrite and endWrite by everything that adds, trims, restores or drains a tier
+    private void updateTierCounts() {
+    	newestCount = tradeQueueNewest.size();
+    	unpersistedCount = (int) (tradeQueueNewest.tailPosition() - unpersistedPosition());
+    	oldCount = tradeQueueOld.size();
+    	restoredBarCount = restoredBars.size();
+    }
+    
+    // For the writers outside addDataPoint, which leave the running sums alone
+    private void publishTierCounts() {
+    	beginWrite();
+    	updateTierCounts();
+    	endWrite();
+    }
+    
+    private int trimOlderThan(TradeBuffer buffer, long windowStart) {
+    	int nbrTradesTrimmed = 0;
+        while (!buffer.isEmpty() && buffer.peekTimestamp() < windowStart) {
+            sumPriceVolume -= buffer.peekPrice() * buffer.peekVolume();
+            sumVolume -= buffer.peekVolume();
+            buffer.removeFirst();
+            nbrTradesTrimmed++;
+        }
+        return nbrTradesTrimmed;
+    }
+    
+    private int trimBarsOlderThan(long windowStart) {
+    	int nbrTradesTrimmed = 0;
+    	while (!restoredBars.isEmpty() && restoredBars.peekFirst().getLastTimestampNanos() < windowStart) {
+    		MinuteBar bar = restoredBars.pollFirst();
+    		sumPriceVolume -= bar.getSumPriceVolume();
+    		sumVolume -= bar.getSumVolume();
+    		nbrTradesTrimmed += bar.getTradeCount();
+    	}
+    	return nbrTradesTrimmed;
+    }
+    
+    private void rememberCurrencyPair(Trade trade) {
+    	if (currencyPair == null) {
+    		currencyPair = trade.getCurrencyPair();
+    	}
+    }
+    
     // Computationally efficient way to add back to the old queue without performing any other operations
     // As those will be handled separately in the addDataPoint
+    // Bucketed windows never spill trades, so there is nothing to restore into them
     public synchronized void restoreDataPoint(Trade trade) {
-    	tradeQueueOld.add(trade);    	
+    	if (bucketedWindow != null) {
+    		return;
+    	}
+    	rememberCurrencyPair(trade);
+    	if (!isRetainedInNewest(trade.getTimestampNanos())) {
+    		tradeQueueOld.add(trade);
+    		publishTierCounts();
+    	}
+    }
+    
+    // As above for a row streamed from the DB, so restoring allocates no Trade
+    public synchronized void restoreDataPoint(double price, long volume, long timestampNanos, long sequenceId) {
+    	if (bucketedWindow != null || isRetainedInNewest(timestampNanos)) {
+    		return;
+    	}
+    	tradeQueueOld.add(price, volume, timestampNanos, sequenceId);
+    	publishTierCounts();
+    }
+    
+    // Restores a whole minute of spilled trades as one aggregate rather than trade by trade
+    // Returns false if some of its trades may still be held in the newest tier, in which case nothing is
+    // restored and the caller falls back to the minute's individual trades
+    public synchronized boolean restoreMinuteBar(MinuteBar bar) {
+    	if (bucketedWindow != null) {
+    		return true;
+    	}
+    	if (isRetainedInNewest(bar.getLastTimestampNanos())) {
+    		return false;
+    	}
+    	restoredBars.addLast(bar);
+    	publishTierCounts();
+    	return true;
+    }
+    
+    // A trade read back from the DB after a checkpoint is applied like a new trade, but is only marked as
+    // persisted when nothing ahead of it in the newest tier is still waiting to be written
+    public synchronized int replayDataPoint(Trade trade) {
+    	boolean allPersisted = unpersistedPosition() == tradeQueueNewest.tailPosition();
+    	int nbrTradesTrimmed = addDataPointUnlocked(trade);
+    	if (allPersisted) {
+    		persistedPosition = tradeQueueNewest.tailPosition();
+    		publishTierCounts();
+    	}
+    	return nbrTradesTrimmed;
+    }
+    
+    // A trade from the DB that is still held in the newest tier must not be counted twice
+    private boolean isRetainedInNewest(long timestampNanos) {
+    	return tradeQueueNewest.headPosition() < persistedPosition
+    			&& timestampNanos >= tradeQueueNewest.peekTimestamp();
     }
 
-    // Get the current VWAP
-    public synchronized double getVWAP() {
-    	return sumVolume == 0 ? 0 : sumPriceVolume / sumVolume;
+    // Get the current VWAP without taking the monitor, retrying if a writer was mid-update
+    public double getVWAP() {
+    	long startVersion;
+    	double priceVolume;
+    	long volume;
+    	do {
+    		startVersion = beginRead();
+    		priceVolume = sumPriceVolume;
+    		volume = sumVolume;
+    	} while (!validRead(startVersion));
+    	return volume == 0 ? 0 : priceVolume / volume;
+    }
+    
+    // VWAP over any configured window length, read the same lock-free way as above
+    public double getVWAP(long windowMinutes) {
+    	if (windowMinutes == minutesForVWAP) {
+    		return getVWAP();
+    	}
+    	int window = subWindowIndex(windowMinutes);
+    	long startVersion;
+    	double priceVolume;
+    	long volume;
+    	do {
+    		startVersion = beginRead();
+    		priceVolume = subSumPriceVolume[window];
+    		volume = subSumVolume[window];
+    	} while (!validRead(startVersion));
+    	return volume == 0 ? 0 : priceVolume / volume;
+    }
+    
+    private int subWindowIndex(long windowMinutes) {
+    	for (int i = 0; i < subWindowMinutes.length; i++) {
+    		if (subWindowMinutes[i] == windowMinutes) {
+    			return i;
+    		}
+    	}
+    	throw new IllegalArgumentException("No " + windowMinutes + " minute window is configured for " + currencyPair);
+    }
+    
+    // Every configured window length, shortest first
+    public long[] getWindowsMinutes() {
+    	long[] windows = Arrays.copyOf(subWindowMinutes, subWindowMinutes.length + 1);
+    	windows[subWindowMinutes.length] = minutesForVWAP;
+    	return windows;
+    }
+    
+    // Consistent view of the published running sums and tier counts, read without blocking the writer
+    public VWAPSnapshot getSnapshot() {
+    	VWAPSnapshot snapshot;
+    	long startVersion;
+    	do {
+    		startVersion = beginRead();
+    		snapshot = new VWAPSnapshot(sumPriceVolume, sumVolume, tradeCount, lastTimestampNanos,
+    				unpersistedCount, newestCount, oldCount, restoredBarCount, newestCount + oldCount);
+    	} while (!validRead(startVersion));
+    	return snapshot;
     }
     
     // For a queue of Trades fed from an external source (i.e. database snapshot)
     public synchronized void restoreTrades(Queue<Trade> trades) {
+    	if (bucketedWindow != null) {
+    		return;
+    	}
         for (Trade trade : trades) {
-            tradeQueueOld.add(trade);
+        	rememberCurrencyPair(trade);
+        	if (!isRetainedInNewest(trade.getTimestampNanos())) {
+        		tradeQueueOld.add(trade);
+        	}
         }
+        publishTierCounts();
     }
     
     public synchronized Queue<Trade> getNewestQueueAndClear() {
-        // Create an unmodifiable snapshot as a Queue
-        Queue<Trade> snapshot = new ConcurrentLinkedDeque<>(tradeQueueNewest);
+        // Materialise the buffer as a Queue of trades for the DB write
+        Queue<Trade> snapshot = tradeQueueNewest.toTrades(currencyPair, unpersistedPosition());
 
-        // Clear the tradeQueueNewest and reset variables
-        tradeQueueNewest.clear();
+        if (subWindowCursors.length == 0) {
+        	// Clear the tradeQueueNewest and reset variables
+        	tradeQueueNewest.clear();
+        } else {
+        	// Keep what the longest of the shorter windows still has to evict, it is marked as persisted below
+        	long retainFrom = subWindowCursors[subWindowCursors.length - 1];
+        	while (tradeQueueNewest.headPosition() < retainFrom) {
+        		tradeQueueNewest.removeFirst();
+        	}
+        }
+        persistedPosition = tradeQueueNewest.tailPosition();
+        publishTierCounts();
         return snapshot;
     }
     
+    // For a backup that keeps the trades in memory, they are marked as written so later backups skip them
+    public synchronized Queue<Trade> getNewestQueueAndMarkPersisted() {
+    	Queue<Trade> snapshot = tradeQueueNewest.toTrades(currencyPair, unpersistedPosition());
+    	persistedPosition = tradeQueueNewest.tailPosition();
+    	publishTierCounts();
+    	return snapshot;
+    }
+    
+    private long unpersistedPosition() {
+    	return Math.max(tradeQueueNewest.headPosition(), persistedPosition);
+    }
+    
     // Helper methods
-    public synchronized int getNewestQueueSize() {
-        return tradeQueueNewest.size();
+    // The sizes below are read from the published snapshot without taking the monitor
+    // Trades in the newest tier not yet written to the DB
+    public int getNewestQueueSize() {
+    	return getSnapshot().getNewestQueueSize();
+    }
+    
+    // What a backup that clears memory takes the in-memory count down by, as against the trades it writes
+    public int getNewestTierSize() {
+    	return getSnapshot().getNewestTierSize();
+    }
+    
+    public int getOldQueueSize() {
+    	return getSnapshot().getOldQueueSize();
+    }
+    
+    public int getRestoredBarCount() {
+    	return getSnapshot().getRestoredBarCount();
+    }
+    
+    // Trades held in memory across both tiers, both counts from the same write
+    public int getCombinedQueueSize() {
+    	return getSnapshot().getCombinedQueueSize();
+    }
+    
+    // Number of trades inside the window, whether retained, spilled to the DB or only held as bucket sums
+    public int getTradeCount() {
+    	return getSnapshot().getTradeCount();
+    }
+    
+    public synchronized long getLastSequenceId() {
+    	return lastSequenceId;
+    }
+    
+    // Writes the running sums, window contents (or buckets) and backup markers, see VWAPCheckpointer
+    synchronized void writeCheckpoint(DataOutput out) throws IOException {
+    	out.writeByte(windowMode.ordinal());
+    	long[] windows = getWindowsMinutes();
+    	out.writeInt(windows.length);
+    	for (long window : windows) {
+    		out.writeLong(window);
+    	}
+    	out.writeDouble(sumPriceVolume);
+    	out.writeLong(sumVolume);
+    	out.writeInt(tradeCount);
+    	out.writeLong(lastTimestampNanos);
+    	out.writeLong(lastSequenceId);
+    	out.writeLong(TradeTime.toEpochNanos(lastBackup));
+    	out.writeLong(TradeTime.toEpochNanos(lastRestore));
+    	out.writeLong(TradeTime.toEpochNanos(lastRestoredDataTimestamp));
+    	if (bucketedWindow != null) {
+    		bucketedWindow.writeTo(out);
+    		return;
+    	}
+    	// Positions are written relative to the head so they can be rebased onto fresh buffers
+    	long head = tradeQueueNewest.headPosition();
+    	for (int i = 0; i < subWindowCursors.length; i++) {
+    		out.writeDouble(subSumPriceVolume[i]);
+    		out.writeLong(subSumVolume[i]);
+    		out.writeLong(Math.max(subWindowCursors[i], head) - head);
+    	}
+    	out.writeLong(unpersistedPosition() - head);
+    	writeTier(out, tradeQueueNewest);
+    	writeTier(out, tradeQueueOld);
+    	out.writeInt(restoredBars.size());
+    	for (MinuteBar bar : restoredBars) {
+    		out.writeLong(bar.getMinuteStartNanos());
+    		out.writeDouble(bar.getSumPriceVolume());
+    		out.writeLong(bar.getSumVolume());
+    		out.writeInt(bar.getTradeCount());
+    		out.writeLong(bar.getFirstTimestampNanos());
+    		out.writeLong(bar.getLastTimestampNanos());
+    	}
+    }
+    
+    // Records are copied through a chunk buffer so the stream sees a few large writes rather than one per field
+    private static void writeTier(DataOutput out, TradeBuffer buffer) throws IOException {
+    	out.writeInt(buffer.size());
+    	ByteBuffer chunk = ByteBuffer.allocate(CHECKPOINT_CHUNK_RECORDS * CHECKPOINT_RECORD_BYTES);
+    	for (long position = buffer.headPosition(); position < buffer.tailPosition(); position++) {
+    		chunk.putDouble(buffer.priceAt(position));
+    		chunk.putLong(buffer.volumeAt(position));
+    		chunk.putLong(buffer.timestampAt(position));
+    		chunk.putLong(buffer.sequenceIdAt(position));
+    		if (!chunk.hasRemaining()) {
+    			out.write(chunk.array(), 0, chunk.position());
+    			chunk.clear();
+    		}
+    	}
+    	out.write(chunk.array(), 0, chunk.position());
+    }
+    
+    // Replaces this window's state with one written by writeCheckpoint for the same mode and window lengths
+    synchronized void readCheckpoint(DataInput in) throws IOException {
+    	int mode = in.readByte();
+    	long[] windows = new long[in.readInt()];
+    	for (int i = 0; i < windows.length; i++) {
+    		windows[i] = in.readLong();
+    	}
+    	if (mode != windowMode.ordinal() || !Arrays.equals(windows, getWindowsMinutes())) {
+    		throw new IOException("Checkpoint for " + currencyPair + " was taken with window mode "
+    				+ WindowMode.values()[mode] + " " + Arrays.toString(windows) + " rather than "
+    				+ windowMode + " " + Arrays.toString(getWindowsMinutes()));
+    	}
+    	beginWrite();
+    	try {
+    		sumPriceVolume = in.readDouble();
+    		sumVolume = in.readLong();
+    		tradeCount = in.readInt();
+    		lastTimestampNanos = in.readLong();
+    		lastSequenceId = in.readLong();
+    		lastBackup = TradeTime.toLocalDateTime(in.readLong());
+    		lastRestore = TradeTime.toLocalDateTime(in.readLong());
+    		lastRestoredDataTimestamp = TradeTime.toLocalDateTime(in.readLong());
+    		if (bucketedWindow != null) {
+    			bucketedWindow.readFrom(in);
+    			return;
+    		}
+    		tradeQueueNewest.clear();
+    		tradeQueueOld.clear();
+    		long head = tradeQueueNewest.headPosition();
+    		for (int i = 0; i < subWindowCursors.length; i++) {
+    			subSumPriceVolume[i] = in.readDouble();
+    			subSumVolume[i] = in.readLong();
+    			subWindowCursors[i] = head + in.readLong();
+    		}
+    		persistedPosition = head + in.readLong();
+    		readTier(in, tradeQueueNewest);
+    		readTier(in, tradeQueueOld);
+    		restoredBars.clear();
+    		int nbrBars = in.readInt();
+    		for (int i = 0; i < nbrBars; i++) {
+    			restoredBars.addLast(new MinuteBar(currencyPair, in.readLong(), in.readDouble(), in.readLong(),
+    					in.readInt(), in.readLong(), in.readLong()));
+    		}
+    	} finally {
+    		updateTierCounts();
+    		endWrite();
+    	}
+    }
+    
+    private static void readTier(DataInput in, TradeBuffer buffer) throws IOException {
+    	int remaining = in.readInt();
+    	ByteBuffer chunk = ByteBuffer.allocate(CHECKPOINT_CHUNK_RECORDS * CHECKPOINT_RECORD_BYTES);
+    	while (remaining > 0) {
+    		int records = Math.min(remaining, CHECKPOINT_CHUNK_RECORDS);
+    		chunk.clear();
+    		in.readFully(chunk.array(), 0, records * CHECKPOINT_RECORD_BYTES);
+    		for (int i = 0; i < records; i++) {
+    			buffer.add(chunk.getDouble(), chunk.getLong(), chunk.getLong(), chunk.getLong());
+    		}
+    		remaining -= records;
+    	}
     }
     
-    public synchronized int getOldQueueSize() {
-        return tradeQueueOld.size();
+    public WindowMode getWindowMode() {
+    	return windowMode;
     }
     
-    public synchronized int getCombinedQueueSize() {
-    	return tradeQueueNewest.size() + tradeQueueOld.size();
+    // Returns the direct memory of OFF_HEAP trade buffers immediately, a no-op for heap backed windows
+    // In OFF_HEAP mode any later add or restore fails rather than touching freed memory
+    public synchronized void release() {
+    	tradeQueueNewest.release();
+    	tradeQueueOld.release();
     }
     
     // Make getters of the queue immutable as they are used for the purpose of snapshotting
     public synchronized Queue<Trade> getNewestQueue() {
-    	return new ConcurrentLinkedDeque<>(tradeQueueNewest);
+    	return tradeQueueNewest.toTrades(currencyPair, unpersistedPosition());
     }
 
     public synchronized Queue<Trade> getOldQueue() {
-        return new ConcurrentLinkedDeque<>(tradeQueueOld);
+        return tradeQueueOld.toTrades(currencyPair);
     }
 
 	public synchronized LocalDateTime getLastBackup() {
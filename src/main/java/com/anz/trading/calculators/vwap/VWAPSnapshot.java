@@ -0,0 +1,79 @@
+package com.anz.trading.calculators.vwap;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable, mutually consistent copy of the running sums and tier counts published by a VWAPData
+ */
+public final class VWAPSnapshot {
+    private final double sumPriceVolume;
+    private final long sumVolume;
+    private final int tradeCount;
+    private final long lastTimestampNanos;
+    private final int newestQueueSize;
+    private final int newestTierSize;
+    private final int oldQueueSize;
+    private final int restoredBarCount;
+    private final int combinedQueueSize;
+
+    public VWAPSnapshot(double sumPriceVolume, long sumVolume, int tradeCount, long lastTimestampNanos,
+            int newestQueueSize, int newestTierSize, int oldQueueSize, int restoredBarCount, int combinedQueueSize) {
+        this.sumPriceVolume = sumPriceVolume;
+        this.sumVolume = sumVolume;
+        this.tradeCount = tradeCount;
+        this.lastTimestampNanos = lastTimestampNanos;
+        this.newestQueueSize = newestQueueSize;
+        this.newestTierSize = newestTierSize;
+        this.oldQueueSize = oldQueueSize;
+        this.restoredBarCount = restoredBarCount;
+        this.combinedQueueSize = combinedQueueSize;
+    }
+
+    public double getVWAP() {
+        return sumVolume == 0 ? 0 : sumPriceVolume / sumVolume;
+    }
+
+    public double getSumPriceVolume() {
+        return sumPriceVolume;
+    }
+
+    public long getSumVolume() {
+        return sumVolume;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+
+    public long getLastTimestampNanos() {
+        return lastTimestampNanos;
+    }
+
+    // Trades in the newest tier not yet written to the DB
+    public int getNewestQueueSize() {
+        return newestQueueSize;
+    }
+
+    // Every trade in the newest tier, including those already written and kept for the shorter windows
+    public int getNewestTierSize() {
+        return newestTierSize;
+    }
+
+    public int getOldQueueSize() {
+        return oldQueueSize;
+    }
+
+    public int getRestoredBarCount() {
+        return restoredBarCount;
+    }
+
+    // Trades held in memory across both tiers
+    public int getCombinedQueueSize() {
+        return combinedQueueSize;
+    }
+
+    // Null until the first trade has been added
+    public LocalDateTime getLastTimestamp() {
+        return lastTimestampNanos == 0 ? null : TradeTime.toLocalDateTime(lastTimestampNanos);
+    }
+}
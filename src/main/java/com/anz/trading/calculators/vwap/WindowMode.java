@@ -0,0 +1,14 @@
+package com.anz.trading.calculators.vwap;
+
+/**
+ * How each VWAPData holds its rolling window, chosen when the VWAPData/VWAPCalculator is constructed
+ */
+public enum WindowMode {
+    // Every trade is retained (and spilled/restored via the DB) so eviction is exact to the nanosecond
+    TRADES,
+    // Only per-bucket sums are retained, memory is fixed per pair and eviction is at bucket granularity
+    BUCKETED,
+    // Every trade is retained as a fixed-width record in direct memory, so the window can stay in memory
+    // without growing the heap instead of being spilled to the DB
+    OFF_HEAP
+}
@@ -0,0 +1,170 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small bounded pool of connections to one H2 database. Connections are opened on demand up to the limit,
+ * after which a borrower waits for one to be released, so the number of open connections never exceeds it.
+ */
+public class H2ConnectionPool implements AutoCloseable {
+
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30_000;
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // Work done on a borrowed connection
+    @FunctionalInterface
+    public interface ConnectionWork<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final BlockingQueue<Connection> idle;
+    // Connections opened and not yet closed, guarded by this
+    private int openCount = 0;
+    private boolean closed = false;
+
+    public H2ConnectionPool(String url, String username, String password, int maxSize) {
+        this(url, username, password, maxSize, DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+    public H2ConnectionPool(String url, String username, String password, int maxSize, long borrowTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Takes an idle connection, opens a new one if the pool is below its limit, or otherwise waits
+     * for one to be released. Must be handed back with release()
+     */
+    public Connection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        Connection connection = idle.poll();
+        while (true) {
+            if (connection != null) {
+                if (!connection.isClosed()) {
+                    return connection;
+                }
+                // Closed behind the pool's back, its slot is free again
+                discard(connection);
+            }
+            if (reserveSlot()) {
+                try {
+                    return DriverManager.getConnection(url, username, password);
+                } catch (SQLException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new SQLException("No connection to " + url + " released within " + borrowTimeoutMillis + " ms");
+            }
+            try {
+                // Woken periodically as a discarded connection frees a slot without going through the idle queue
+                connection = idle.poll(Math.min(remainingNanos, RECHECK_NANOS), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+            }
+        }
+    }
+
+    // Hands a borrowed connection back, left in auto-commit for the next borrower
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (connection.isClosed() || isClosed()) {
+                discard(connection);
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(connection);
+            return;
+        }
+        idle.offer(connection);
+    }
+
+    // Borrows a connection for the duration of the work
+    public <T> T withConnection(ConnectionWork<T> work) throws SQLException {
+        Connection connection = borrow();
+        try {
+            return work.apply(connection);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private synchronized boolean reserveSlot() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool for " + url + " is closed");
+        }
+        if (openCount >= maxSize) {
+            return false;
+        }
+        openCount++;
+        return true;
+    }
+
+    private synchronized void releaseSlot() {
+        openCount--;
+    }
+
+    private void discard(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        releaseSlot();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    // Closes the idle connections, borrowed ones are closed as they are released
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+}
@@ -30,6 +30,13 @@ public class H2DatabaseUtility {
     	return persistentConnection;
     }
 
+    /**
+     * Returns a new bounded pool of connections to the persistent H2 database, owned (and closed) by the caller
+     */
+    public static H2ConnectionPool createPersistentConnectionPool(int maxSize) {
+        return new H2ConnectionPool(PERSISTENT_DB_URL, USERNAME, PASSWORD, maxSize);
+    }
+
     /**
      * Returns a connection to the in-memory H2 database.
      */
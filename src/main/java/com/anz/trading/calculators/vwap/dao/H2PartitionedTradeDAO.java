@@ -0,0 +1,275 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+
+/**
+ * Persistent trade store split into one H2 table per hour or per day of trade time (TRADES_P yyyyMMdd[HH]),
+ * each keyed on the trade sequence id with a (currency_pair, timestamp) index. A range query only visits
+ * the partitions it overlaps, and retention drops whole partitions rather than deleting rows.
+ * Partitions are created on the first trade that falls into them.
+ */
+public class H2PartitionedTradeDAO implements TradeDAO {
+    private static final String TABLE_PREFIX = "TRADES_P";
+    private static final String DUPLICATE_KEY_STATE = "23505";
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    // May be shared with other DAOs and threads (i.e. H2DatabaseUtility's connection), and a commit or rollback
+    // ends whatever transaction is open on it, so writes and reads hold its monitor for their whole transaction
+    private final Connection connection;
+    private final ChronoUnit partitionUnit;
+    private final DateTimeFormatter suffixFormat;
+    private final int chunkSize;
+    // Partition start -> table name, for every partition that exists
+    private final NavigableMap<LocalDateTime, String> partitions = new ConcurrentSkipListMap<>();
+
+    public H2PartitionedTradeDAO(Connection connection, ChronoUnit partitionUnit) {
+        this(connection, partitionUnit, H2TradePersistent.DEFAULT_CHUNK_SIZE);
+    }
+
+    public H2PartitionedTradeDAO(Connection connection, ChronoUnit partitionUnit, int chunkSize) {
+        if (partitionUnit != ChronoUnit.HOURS && partitionUnit != ChronoUnit.DAYS) {
+            throw new IllegalArgumentException("Partitions must be HOURS or DAYS: " + partitionUnit);
+        }
+        this.connection = connection;
+        this.partitionUnit = partitionUnit;
+        this.suffixFormat = DateTimeFormatter.ofPattern(partitionUnit == ChronoUnit.HOURS ? "yyyyMMddHH" : "yyyyMMdd");
+        this.chunkSize = chunkSize;
+    }
+
+    // Picks up the partitions already in the DB, new ones are created as trades arrive
+    @Override
+    public void createTable() throws SQLException {
+        String listSQL = "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME LIKE '" + TABLE_PREFIX + "%'";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(listSQL)) {
+            while (rs.next()) {
+                String tableName = rs.getString(1);
+                LocalDateTime start = parsePartitionStart(tableName);
+                if (start != null) {
+                    partitions.put(start, tableName);
+                }
+            }
+        }
+        for (String tableName : partitions.values()) {
+            H2TradeDAO.widenTimestampColumn(connection, tableName);
+        }
+    }
+
+    // Null for tables of the other granularity (or anything else that happens to share the prefix)
+    private LocalDateTime parsePartitionStart(String tableName) {
+        String suffix = tableName.substring(TABLE_PREFIX.length());
+        try {
+            if (partitionUnit == ChronoUnit.HOURS) {
+                return suffix.length() == 10 ? LocalDateTime.parse(suffix, suffixFormat) : null;
+            }
+            return suffix.length() == 8 ? LocalDate.parse(suffix, suffixFormat).atStartOfDay() : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private String partitionFor(LocalDateTime partitionStart) throws SQLException {
+        String tableName = partitions.get(partitionStart);
+        if (tableName == null) {
+            tableName = TABLE_PREFIX + partitionStart.format(suffixFormat);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                        "seq_id BIGINT PRIMARY KEY, " +
+                        "price DOUBLE, " +
+                        "volume BIGINT, " +
+                        "timestamp TIMESTAMP(9), " +
+                        "currency_pair VARCHAR(10))");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + tableName + "_pair_timestamp ON " + tableName +
+                        "(currency_pair, timestamp)");
+            }
+            partitions.put(partitionStart, tableName);
+        }
+        return tableName;
+    }
+
+    private LocalDateTime partitionStart(LocalDateTime timestamp) {
+        return timestamp.truncatedTo(partitionUnit);
+    }
+
+    @Override
+    public void insertTrade(Trade trade) throws SQLException {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        trades.add(trade);
+        insertTradesFrom(trades);
+    }
+
+    // Trades are grouped by partition, then written as in H2TradePersistent: batched INSERTs committed per chunk,
+    // with a chunk that hits an existing sequence id re-applied as a MERGE
+    @Override
+    public void insertTradesFrom(Queue<Trade> trades) throws SQLException {
+        synchronized (connection) {
+            Map<LocalDateTime, List<Trade>> byPartition = new LinkedHashMap<>();
+            for (Trade trade : trades) {
+                byPartition.computeIfAbsent(partitionStart(trade.getTimestamp()), start -> new ArrayList<>()).add(trade);
+            }
+
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (Map.Entry<LocalDateTime, List<Trade>> partition : byPartition.entrySet()) {
+                    String tableName = partitionFor(partition.getKey());
+                    List<Trade> partitionTrades = partition.getValue();
+                    for (int from = 0; from < partitionTrades.size(); from += chunkSize) {
+                        insertChunk(tableName, partitionTrades.subList(from, Math.min(from + chunkSize, partitionTrades.size())));
+                    }
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private void insertChunk(String tableName, List<Trade> chunk) throws SQLException {
+        String insertSQL = "INSERT INTO " + tableName + " (seq_id, price, volume, timestamp, currency_pair) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+            for (Trade trade : chunk) {
+                H2TradeDAO.bindTrade(pstmt, trade);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            connection.commit();
+        } catch (BatchUpdateException e) {
+            connection.rollback();
+            if (!isDuplicateKey(e)) {
+                throw e;
+            }
+            mergeChunk(tableName, chunk);
+        }
+    }
+
+    private void mergeChunk(String tableName, List<Trade> chunk) throws SQLException {
+        String mergeSQL = "MERGE INTO " + tableName + " (seq_id, price, volume, timestamp, currency_pair) KEY (seq_id) " +
+                          "VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(mergeSQL)) {
+            for (Trade trade : chunk) {
+                H2TradeDAO.bindTrade(pstmt, trade);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    private static boolean isDuplicateKey(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if (DUPLICATE_KEY_STATE.equals(cause.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Queue<Trade> getAllTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException {
+        synchronized (connection) {
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            streamTrades(startTime, endTime, currencyPair, (price, volume, timestampNanos, sequenceId) ->
+                    trades.add(new Trade(price, volume, timestampNanos, currencyPair, sequenceId)));
+            return trades;
+        }
+    }
+
+    // Partitions are disjoint in time and visited in order, so rows arrive in timestamp order overall
+    @Override
+    public void streamTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair,
+            TradeRecordConsumer consumer) throws SQLException {
+        synchronized (connection) {
+            if (endTime.isBefore(startTime)) {
+                return;
+            }
+            for (String tableName : partitions.subMap(partitionStart(startTime), true, endTime, true).values()) {
+                String selectSQL = "SELECT seq_id, price, volume, timestamp FROM " + tableName +
+                                   " WHERE currency_pair = ? AND timestamp BETWEEN ? AND ? ORDER BY timestamp";
+                try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+                    pstmt.setFetchSize(STREAM_FETCH_SIZE);
+                    pstmt.setString(1, currencyPair);
+                    pstmt.setObject(2, startTime);
+                    pstmt.setObject(3, endTime);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(rs.getDouble(2), rs.getLong(3),
+                                    TradeTime.toEpochNanos(rs.getObject(4, LocalDateTime.class)), rs.getLong(1));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every partition that ends at or before the cutoff, i.e. retention without deleting rows
+     * @return the number of partitions dropped
+     */
+    public int dropPartitionsBefore(LocalDateTime cutoff) throws SQLException {
+        int dropped = 0;
+        for (Map.Entry<LocalDateTime, String> partition : partitions.headMap(cutoff, true).entrySet()) {
+            if (partition.getKey().plus(1, partitionUnit).isAfter(cutoff)) {
+                continue;
+            }
+            dropPartition(partition.getKey(), partition.getValue());
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private void dropPartition(LocalDateTime partitionStart, String tableName) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + tableName);
+        }
+        partitions.remove(partitionStart);
+    }
+
+    // Table names of the existing partitions, oldest first
+    public List<String> getPartitionNames() {
+        return new ArrayList<>(partitions.values());
+    }
+
+    @Override
+    public void clearTrades() throws SQLException {
+        throw new UnsupportedOperationException("clearTrades is not supported in persistent storage, "
+                + "use dropPartitionsBefore() or deleteDB() instead");
+    }
+
+    // Drops every partition
+    @Override
+    public void deleteDB() throws SQLException {
+        for (Map.Entry<LocalDateTime, String> partition : partitions.entrySet()) {
+            dropPartition(partition.getKey(), partition.getValue());
+        }
+    }
+
+    @Override
+    public Queue<Trade> getAllTrades() throws SQLException {
+        throw new UnsupportedOperationException("Operation prohibited without time constraints as performing "
+                + "this on persistent DB as an unfiltered query will likely crash the machine.");
+    }
+}
@@ -6,12 +6,21 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
 import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
 
 public abstract class H2TradeDAO implements TradeDAO {
+    // Rows fetched per round trip when streaming, bounds the driver's buffer rather than the result size
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // Created by earlier versions, superseded by idx_pair_timestamp
+    private static final String[] LEGACY_INDEXES = { "idx_price", "idx_volume", "idx_timestamp", "idx_currency_pair" };
+
+    // May be shared with other DAOs and threads (i.e. H2DatabaseUtility's connection), and a commit or rollback
+    // ends whatever transaction is open on it, so writes and reads hold its monitor for their whole transaction
     protected final Connection connection;
     
     
@@ -22,43 +31,88 @@ public abstract class H2TradeDAO implements TradeDAO {
 
     @Override
     public void createTable() throws SQLException {
+        // The trade sequence id is the key, rows inserted without one are numbered by the DB
+        // Timestamps keep the nanoseconds trades carry, as the minute bars do
         String createTableSQL = "CREATE TABLE IF NOT EXISTS trades (" +
-                "id IDENTITY PRIMARY KEY, " +
+                "seq_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
                 "price DOUBLE, " +              
                 "volume BIGINT, " +             
-                "timestamp TIMESTAMP, " +    
+                "timestamp TIMESTAMP(9), " +    
                 "currency_pair VARCHAR(10))";   
 
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
         }
+        widenTimestampColumn(connection, "TRADES");
+        
+        // Tables created before trades carried a sequence id are migrated in place
+        if (addColumnIfNotExists("seq_id", "BIGINT")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_seq_id ON trades(seq_id)");
+            }
+        }
 
-        // Create indexes on the columns used in the MERGE statement for faster lookups
-        createIndexIfNotExists("idx_price", "price");
-        createIndexIfNotExists("idx_volume", "volume");
-        createIndexIfNotExists("idx_timestamp", "timestamp");
-        createIndexIfNotExists("idx_currency_pair", "currency_pair");
+        // Every range query is one pair over a time range, so one composite index serves them all
+        // The single column indexes it replaces (price and volume were never queried) cost every insert
+        createIndexIfNotExists("idx_pair_timestamp", "currency_pair, timestamp");
+        for (String legacyIndex : LEGACY_INDEXES) {
+            dropIndexIfExists(legacyIndex);
+        }
+    }
+    
+    // Tables created with a plain TIMESTAMP (microseconds) are widened in place, their existing rows keep
+    // the precision they were written with
+    static void widenTimestampColumn(Connection connection, String tableName) throws SQLException {
+        String precisionSQL = "SELECT DATETIME_PRECISION FROM INFORMATION_SCHEMA.COLUMNS " +
+                              "WHERE UPPER(TABLE_NAME) = UPPER(?) AND UPPER(COLUMN_NAME) = 'TIMESTAMP'";
+        try (PreparedStatement stmt = connection.prepareStatement(precisionSQL)) {
+            if (stmt == null) {
+                System.err.println("PreparedStatement is null, check your connection or query.");
+                return;
+            }
+            stmt.setString(1, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) >= 9) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + tableName + " ALTER COLUMN timestamp SET DATA TYPE TIMESTAMP(9)");
+        }
     }
     
-    private void createIndexIfNotExists(String indexName, String columnName) throws SQLException {
+    private void dropIndexIfExists(String indexName) throws SQLException {
+        if (countIndexes(indexName) > 0) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP INDEX " + indexName);
+            }
+        }
+    }
+    
+    // Returns -1 if the check could not be made (i.e. the statement could not be created)
+    private int countIndexes(String indexName) throws SQLException {
         String checkIndexSQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES " +
                                "WHERE UPPER(TABLE_NAME) = 'TRADES' AND UPPER(INDEX_NAME) = UPPER(?)";
 
         try (PreparedStatement stmt = connection.prepareStatement(checkIndexSQL)) {
             if (stmt == null) {
                 System.err.println("PreparedStatement is null, check your connection or query.");
-                return; // Exit if PreparedStatement could not be created
+                return -1;
             }
-
             stmt.setString(1, indexName);
-
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next() && rs.getInt(1) == 0) {
-                    // Index doesn't exist, create it
-                    String createIndexSQL = "CREATE INDEX " + indexName + " ON trades(" + columnName + ")";
-                    try (Statement createStmt = connection.createStatement()) {
-                        createStmt.execute(createIndexSQL);
-                    }
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+    
+    private void createIndexIfNotExists(String indexName, String columns) throws SQLException {
+        try {
+            if (countIndexes(indexName) == 0) {
+                // Index doesn't exist, create it
+                try (Statement createStmt = connection.createStatement()) {
+                    createStmt.execute("CREATE INDEX " + indexName + " ON trades(" + columns + ")");
                 }
             }
         } catch (SQLException e) {
@@ -67,44 +121,146 @@ public abstract class H2TradeDAO implements TradeDAO {
         }
     }
 
+    // Returns true if the column was missing and has been added
+    private boolean addColumnIfNotExists(String columnName, String columnType) throws SQLException {
+        String checkColumnSQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                                "WHERE UPPER(TABLE_NAME) = 'TRADES' AND UPPER(COLUMN_NAME) = UPPER(?)";
+
+        try (PreparedStatement stmt = connection.prepareStatement(checkColumnSQL)) {
+            if (stmt == null) {
+                System.err.println("PreparedStatement is null, check your connection or query.");
+                return false;
+            }
+
+            stmt.setString(1, columnName);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getInt(1) == 0) {
+                    try (Statement alterStmt = connection.createStatement()) {
+                        alterStmt.execute("ALTER TABLE trades ADD COLUMN " + columnName + " " + columnType);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public void insertTrade(Trade trade) throws SQLException {
-        // Reordered to match Trade input order (price, volume, timestamp, currencyPair)
-        String insertSQL = "INSERT INTO trades (price, volume, timestamp, currency_pair) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
-            pstmt.setDouble(1, trade.getPrice());        // Set price
-            pstmt.setLong(2, trade.getVolume());         // Set volume
-            pstmt.setObject(3, trade.getTimestamp());    // Set timestamp (using setObject)
-            pstmt.setString(4, trade.getCurrencyPair()); // Set currency pair
-            pstmt.executeUpdate();  // Execute the insert
+        synchronized (connection) {
+            // Reordered to match Trade input order (price, volume, timestamp, currencyPair)
+            String insertSQL = "INSERT INTO trades (seq_id, price, volume, timestamp, currency_pair) VALUES (?, ?, ?, ?, ?)";
+            try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+                bindTrade(pstmt, trade);
+                pstmt.executeUpdate();  // Execute the insert
+            }
         }
     }
     
+    // Binds (seq_id, price, volume, timestamp, currency_pair) in that order
+    protected static void bindTrade(PreparedStatement pstmt, Trade trade) throws SQLException {
+        pstmt.setLong(1, trade.getSequenceId());     // Set sequence id
+        pstmt.setDouble(2, trade.getPrice());        // Set price
+        pstmt.setLong(3, trade.getVolume());         // Set volume
+        pstmt.setObject(4, trade.getTimestamp());    // Set timestamp (using setObject)
+        pstmt.setString(5, trade.getCurrencyPair()); // Set currency pair
+    }
+    
+    // Map the current row to a Trade object, keeping the sequence id it was written with
+    protected static Trade readTrade(ResultSet rs, String currencyPair) throws SQLException {
+        double price = rs.getDouble("price");
+        long volume = rs.getLong("volume");
+        LocalDateTime timestamp = rs.getObject("timestamp", LocalDateTime.class);
+        long sequenceId = rs.getLong("seq_id");
+        if (rs.wasNull()) {
+            // Row written before the migration
+            sequenceId = Trade.nextSequenceId();
+        }
+        return new Trade(price, volume, TradeTime.toEpochNanos(timestamp), currencyPair, sequenceId);
+    }
+    
     @Override
     public Queue<Trade> getAllTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException {
-        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        synchronized (connection) {
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
         
-        // Updated SQL query to include currencyPair filter
-        String selectSQL = "SELECT * FROM trades WHERE timestamp BETWEEN ? AND ? AND currency_pair = ?";
+            // Updated SQL query to include currencyPair filter
+            String selectSQL = "SELECT * FROM trades WHERE timestamp BETWEEN ? AND ? AND currency_pair = ?";
         
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            pstmt.setObject(1, startTime);  // Set the start time parameter
-            pstmt.setObject(2, endTime);    // Set the end time parameter
-            pstmt.setString(3, currencyPair); // Set the currency pair parameter
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+                pstmt.setObject(1, startTime);  // Set the start time parameter
+                pstmt.setObject(2, endTime);    // Set the end time parameter
+                pstmt.setString(3, currencyPair); // Set the currency pair parameter
             
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    // Map the result set to a Trade object
-                    double price = rs.getDouble("price");
-                    long volume = rs.getLong("volume");
-                    LocalDateTime timestamp = rs.getObject("timestamp", LocalDateTime.class);
-
-                    Trade trade = new Trade(price, volume, timestamp, currencyPair);
-                    trades.add(trade);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        trades.add(readTrade(rs, currencyPair));
+                    }
+                }
+            }
+            return trades;
+        }
+    }
+    
+    @Override
+    public void streamTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair,
+            TradeRecordConsumer consumer) throws SQLException {
+        synchronized (connection) {
+            String selectSQL = "SELECT seq_id, price, volume, timestamp FROM trades " +
+                               "WHERE timestamp BETWEEN ? AND ? AND currency_pair = ? ORDER BY timestamp";
+
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+                pstmt.setFetchSize(STREAM_FETCH_SIZE);
+                pstmt.setObject(1, startTime);
+                pstmt.setObject(2, endTime);
+                pstmt.setString(3, currencyPair);
+
+                streamRows(pstmt, consumer);
+            }
+        }
+    }
+
+    // Walks the seq_id primary key from the checkpoint onwards once for every pair, the range is checked here so
+    // the planner cannot prefer the (currency_pair, timestamp) index and scan each pair's whole history instead
+    // Rows of pairs not asked for are skipped here too
+    @Override
+    public void streamTradesAfter(long afterSequenceId, LocalDateTime startTime, LocalDateTime endTime,
+            Collection<String> currencyPairs, PairTradeRecordConsumer consumer) throws SQLException {
+        synchronized (connection) {
+            String selectSQL = "SELECT seq_id, price, volume, timestamp, currency_pair FROM trades " +
+                               "WHERE seq_id > ? ORDER BY seq_id";
+
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+                pstmt.setFetchSize(STREAM_FETCH_SIZE);
+                pstmt.setLong(1, afterSequenceId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        LocalDateTime timestamp = rs.getObject(4, LocalDateTime.class);
+                        String currencyPair = rs.getString(5);
+                        if (currencyPairs.contains(currencyPair)
+                                && !timestamp.isBefore(startTime) && !timestamp.isAfter(endTime)) {
+                            consumer.accept(currencyPair, rs.getDouble(2), rs.getLong(3),
+                                    TradeTime.toEpochNanos(timestamp), rs.getLong(1));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void streamRows(PreparedStatement pstmt, TradeRecordConsumer consumer) throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                long sequenceId = rs.getLong(1);
+                if (rs.wasNull()) {
+                    // Row written before the migration
+                    sequenceId = Trade.nextSequenceId();
                 }
+                consumer.accept(rs.getDouble(2), rs.getLong(3),
+                        TradeTime.toEpochNanos(rs.getObject(4, LocalDateTime.class)), sequenceId);
             }
         }
-        return trades;
     }
     
     public abstract void insertTradesFrom(Queue<Trade> trades) throws SQLException;    
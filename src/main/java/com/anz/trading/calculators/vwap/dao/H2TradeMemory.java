@@ -5,7 +5,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -51,14 +50,7 @@ public class H2TradeMemory extends H2TradeDAO {
         try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    // Map the result set to a Trade object
-                    double price = rs.getDouble("price");
-                    long volume = rs.getLong("volume");
-                    LocalDateTime timestamp = rs.getObject("timestamp", LocalDateTime.class);
-                    String currencyPair = rs.getString("currency_pair");
-
-                    Trade trade = new Trade(price, volume, timestamp, currencyPair);
-                    trades.add(trade);
+                    trades.add(readTrade(rs, rs.getString("currency_pair")));
                 }
             }
         }
@@ -1,50 +1,290 @@
 package com.anz.trading.calculators.vwap.dao;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
+import com.anz.trading.calculators.vwap.MinuteBar;
 import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
 
-public class H2TradePersistent extends H2TradeDAO {
+public class H2TradePersistent extends H2TradeDAO implements MinuteBarDAO {
 
+	// Trades per batch and per commit, bounds both the statement batch and the open transaction
+	public static final int DEFAULT_CHUNK_SIZE = 10_000;
+	private static final String DUPLICATE_KEY_STATE = "23505";
+	
+	private static final String BAR_COLUMNS = "currency_pair, minute_start, sum_price_volume, sum_volume, " +
+	                                          "trade_count, first_timestamp, last_timestamp";
+	// Aggregates raw trades into bars, the caller appends the WHERE clause and BAR_GROUP_BY
+	private static final String BAR_AGGREGATE_SQL = "SELECT currency_pair, DATE_TRUNC('MINUTE', timestamp), " +
+	                                                "SUM(price * volume), SUM(volume), COUNT(*), MIN(timestamp), MAX(timestamp) " +
+	                                                "FROM trades ";
+	private static final String BAR_GROUP_BY = " GROUP BY currency_pair, DATE_TRUNC('MINUTE', timestamp)";
+	// Adds a chunk's aggregate for one pair and minute onto the bar, creating it if it is the minute's first trade
+	private static final String ADD_TO_BAR_SQL = "MERGE INTO trade_bars AS target " +
+	        "USING (VALUES (?, ?, ?, ?, ?, ?, ?)) AS source(" + BAR_COLUMNS + ") " +
+	        "ON target.currency_pair = source.currency_pair AND target.minute_start = source.minute_start " +
+	        "WHEN MATCHED THEN UPDATE SET target.sum_price_volume = target.sum_price_volume + source.sum_price_volume, " +
+	        "target.sum_volume = target.sum_volume + source.sum_volume, " +
+	        "target.trade_count = target.trade_count + source.trade_count, " +
+	        "target.first_timestamp = LEAST(target.first_timestamp, source.first_timestamp), " +
+	        "target.last_timestamp = GREATEST(target.last_timestamp, source.last_timestamp) " +
+	        "WHEN NOT MATCHED THEN INSERT (" + BAR_COLUMNS + ") VALUES (source.currency_pair, source.minute_start, " +
+	        "source.sum_price_volume, source.sum_volume, source.trade_count, source.first_timestamp, source.last_timestamp)";
+	
+	private final int chunkSize;
 
 	public H2TradePersistent(Connection connection) {
+        this(connection, DEFAULT_CHUNK_SIZE);
+    }
+	
+	public H2TradePersistent(Connection connection, int chunkSize) {
         super(connection);
+        this.chunkSize = chunkSize;
     }
 	
+	@Override
+	public void createTable() throws SQLException {
+	    super.createTable();
+	    createMinuteBarTableIfNotExists();
+	}
+	
+	// One row per pair per clock minute, the raw trades stay in the trades table for audit queries
+	private void createMinuteBarTableIfNotExists() throws SQLException {
+	    if (countTables("TRADE_BARS") != 0) {
+	        return;
+	    }
+	    try (Statement stmt = connection.createStatement()) {
+	        stmt.execute("CREATE TABLE IF NOT EXISTS trade_bars (" +
+	                "currency_pair VARCHAR(10), " +
+	                "minute_start TIMESTAMP(9), " +
+	                "sum_price_volume DOUBLE, " +
+	                "sum_volume BIGINT, " +
+	                "trade_count INT, " +
+	                "first_timestamp TIMESTAMP(9), " +
+	                "last_timestamp TIMESTAMP(9), " +
+	                "PRIMARY KEY (currency_pair, minute_start))");
+	        // Trades written before the bars existed are aggregated once
+	        stmt.execute("INSERT INTO trade_bars (" + BAR_COLUMNS + ") " + BAR_AGGREGATE_SQL +
+	                "WHERE timestamp IS NOT NULL AND currency_pair IS NOT NULL" + BAR_GROUP_BY);
+	    }
+	}
+	
+	// Returns -1 if the check could not be made (i.e. the statement could not be created)
+	private int countTables(String tableName) throws SQLException {
+	    String checkTableSQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = '" + tableName + "'";
+	    try (PreparedStatement pstmt = connection.prepareStatement(checkTableSQL)) {
+	        if (pstmt == null) {
+	            System.err.println("PreparedStatement is null, check your connection or query.");
+	            return -1;
+	        }
+	        try (ResultSet rs = pstmt.executeQuery()) {
+	            return rs.next() ? rs.getInt(1) : -1;
+	        }
+	    }
+	}
+	
+	// The trade and its minute bar are written in one transaction
+	@Override
+	public void insertTrade(Trade trade) throws SQLException {
+	    synchronized (connection) {
+	        boolean autoCommit = connection.getAutoCommit();
+	        connection.setAutoCommit(false);
+	        try {
+	            super.insertTrade(trade);
+	            List<Trade> single = new ArrayList<>(1);
+	            single.add(trade);
+	            addToMinuteBars(single);
+	            connection.commit();
+	        } catch (SQLException e) {
+	            connection.rollback();
+	            throw e;
+	        } finally {
+	            connection.setAutoCommit(autoCommit);
+	        }
+	    }
+	}
+	
+	// Plain batched INSERTs with one commit per chunk, no per-row lookup
+	// The sequence id makes a rewrite idempotent, a chunk that hits an existing id is re-applied as a MERGE
 	@Override
 	public void insertTradesFrom(Queue<Trade> trades) throws SQLException {
-	    String mergeSQL = "MERGE INTO trades AS target " +
-	                      "USING (VALUES (?, ?, ?, ?)) AS source(price, volume, timestamp, currency_pair) " +
-	                      "ON target.price = source.price " +
-	                      "AND target.volume = source.volume " +
-	                      "AND target.timestamp = source.timestamp " +
-	                      "AND target.currency_pair = source.currency_pair " +
-	                      "WHEN MATCHED THEN UPDATE SET target.price = source.price, " +
-	                      "target.volume = source.volume, " +
-	                      "target.timestamp = source.timestamp, " +
-	                      "target.currency_pair = source.currency_pair " +
-	                      "WHEN NOT MATCHED THEN INSERT (price, volume, timestamp, currency_pair) " +
-	                      "VALUES (source.price, source.volume, source.timestamp, source.currency_pair)";
+	    synchronized (connection) {
+	        String insertSQL = "INSERT INTO trades (seq_id, price, volume, timestamp, currency_pair) VALUES (?, ?, ?, ?, ?)";
 
+	        boolean autoCommit = connection.getAutoCommit();
+	        connection.setAutoCommit(false);
+	        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+	            List<Trade> chunk = new ArrayList<>(Math.min(chunkSize, trades.size()));
+	            for (Trade trade : trades) {
+	                chunk.add(trade);
+	                if (chunk.size() == chunkSize) {
+	                    insertChunk(pstmt, chunk);
+	                    chunk.clear();
+	                }
+	            }
+	            if (!chunk.isEmpty()) {
+	                insertChunk(pstmt, chunk);
+	            }
+	        } finally {
+	            connection.setAutoCommit(autoCommit);
+	        }
+	    }
+	}
+	
+	private void insertChunk(PreparedStatement pstmt, List<Trade> chunk) throws SQLException {
+	    for (Trade trade : chunk) {
+	        bindTrade(pstmt, trade);
+	        pstmt.addBatch();  // Add to batch
+	    }
+	    try {
+	        pstmt.executeBatch();  // Execute the batch of inserts
+	        addToMinuteBars(chunk);
+	        connection.commit();
+	    } catch (BatchUpdateException e) {
+	        connection.rollback();
+	        pstmt.clearBatch();
+	        if (!isDuplicateKey(e)) {
+	            throw e;
+	        }
+	        // Some of the chunk was written before (e.g. a backup that did not clear memory)
+	        mergeChunk(chunk);
+	    } catch (SQLException e) {
+	        // The bars failed after the inserts, neither is kept
+	        connection.rollback();
+	        pstmt.clearBatch();
+	        throw e;
+	    }
+	}
+	
+	private void mergeChunk(List<Trade> chunk) throws SQLException {
+	    String mergeSQL = "MERGE INTO trades (seq_id, price, volume, timestamp, currency_pair) KEY (seq_id) " +
+	                      "VALUES (?, ?, ?, ?, ?)";
 	    try (PreparedStatement pstmt = connection.prepareStatement(mergeSQL)) {
-	        for (Trade trade : trades) {
-	            pstmt.setDouble(1, trade.getPrice());        // Set price
-	            pstmt.setLong(2, trade.getVolume());         // Set volume
-	            pstmt.setObject(3, trade.getTimestamp());    // Set timestamp
-	            pstmt.setString(4, trade.getCurrencyPair()); // Set currency pair
-	            pstmt.addBatch();  // Add to batch
+	        for (Trade trade : chunk) {
+	            bindTrade(pstmt, trade);
+	            pstmt.addBatch();
 	        }
-	        pstmt.executeBatch();  // Execute the batch of merges
+	        pstmt.executeBatch();
+	        // Adding the chunk's aggregates would count the trades already written twice, so the
+	        // minutes it touches are re-aggregated from the raw trades instead
+	        recomputeMinuteBars(aggregate(chunk).values());
+	        connection.commit();
 	    } catch (SQLException e) {
-	        e.printStackTrace();  // Handle exceptions properly
-	    } 
+	        connection.rollback();
+	        throw e;
+	    }
+	}
+	
+	// Running totals of one pair's trades within one minute of a chunk
+	private static final class BarAccumulator {
+	    private final String currencyPair;
+	    private final long minuteStartNanos;
+	    private double sumPriceVolume = 0;
+	    private long sumVolume = 0;
+	    private int tradeCount = 0;
+	    private long firstTimestampNanos = Long.MAX_VALUE;
+	    private long lastTimestampNanos = Long.MIN_VALUE;
+	    
+	    private BarAccumulator(String currencyPair, long minuteStartNanos) {
+	        this.currencyPair = currencyPair;
+	        this.minuteStartNanos = minuteStartNanos;
+	    }
+	    
+	    private void add(Trade trade) {
+	        sumPriceVolume += trade.getPrice() * trade.getVolume();
+	        sumVolume += trade.getVolume();
+	        tradeCount++;
+	        firstTimestampNanos = Math.min(firstTimestampNanos, trade.getTimestampNanos());
+	        lastTimestampNanos = Math.max(lastTimestampNanos, trade.getTimestampNanos());
+	    }
+	}
+	
+	private static Map<String, BarAccumulator> aggregate(List<Trade> chunk) {
+	    Map<String, BarAccumulator> bars = new LinkedHashMap<>();
+	    for (Trade trade : chunk) {
+	        long minuteStart = MinuteBar.minuteStartNanos(trade.getTimestampNanos());
+	        String key = trade.getCurrencyPair() + '@' + minuteStart;
+	        BarAccumulator bar = bars.get(key);
+	        if (bar == null) {
+	            bar = new BarAccumulator(trade.getCurrencyPair(), minuteStart);
+	            bars.put(key, bar);
+	        }
+	        bar.add(trade);
+	    }
+	    return bars;
+	}
+	
+	// Within the caller's transaction, a handful of rows per chunk rather than one per trade
+	private void addToMinuteBars(List<Trade> chunk) throws SQLException {
+	    try (PreparedStatement pstmt = connection.prepareStatement(ADD_TO_BAR_SQL)) {
+	        for (BarAccumulator bar : aggregate(chunk).values()) {
+	            pstmt.setString(1, bar.currencyPair);
+	            pstmt.setObject(2, TradeTime.toLocalDateTime(bar.minuteStartNanos));
+	            pstmt.setDouble(3, bar.sumPriceVolume);
+	            pstmt.setLong(4, bar.sumVolume);
+	            pstmt.setInt(5, bar.tradeCount);
+	            pstmt.setObject(6, TradeTime.toLocalDateTime(bar.firstTimestampNanos));
+	            pstmt.setObject(7, TradeTime.toLocalDateTime(bar.lastTimestampNanos));
+	            pstmt.execute();
+	        }
+	    }
+	}
+	
+	private void recomputeMinuteBars(Iterable<BarAccumulator> bars) throws SQLException {
+	    String recomputeSQL = "MERGE INTO trade_bars (" + BAR_COLUMNS + ") KEY (currency_pair, minute_start) " +
+	                          BAR_AGGREGATE_SQL + "WHERE currency_pair = ? AND timestamp >= ? AND timestamp < ?" + BAR_GROUP_BY;
+	    try (PreparedStatement pstmt = connection.prepareStatement(recomputeSQL)) {
+	        for (BarAccumulator bar : bars) {
+	            pstmt.setString(1, bar.currencyPair);
+	            pstmt.setObject(2, TradeTime.toLocalDateTime(bar.minuteStartNanos));
+	            pstmt.setObject(3, TradeTime.toLocalDateTime(bar.minuteStartNanos + MinuteBar.NANOS_PER_MINUTE));
+	            pstmt.execute();
+	        }
+	    }
+	}
+	
+	@Override
+	public List<MinuteBar> getMinuteBars(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException {
+	    synchronized (connection) {
+	        String selectSQL = "SELECT " + BAR_COLUMNS + " FROM trade_bars " +
+	                           "WHERE currency_pair = ? AND minute_start BETWEEN ? AND ? ORDER BY minute_start";
+	        List<MinuteBar> bars = new ArrayList<>();
+	        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+	            pstmt.setString(1, currencyPair);
+	            pstmt.setObject(2, startTime);
+	            pstmt.setObject(3, endTime);
+	            try (ResultSet rs = pstmt.executeQuery()) {
+	                while (rs.next()) {
+	                    bars.add(new MinuteBar(rs.getString(1),
+	                            TradeTime.toEpochNanos(rs.getObject(2, LocalDateTime.class)),
+	                            rs.getDouble(3), rs.getLong(4), rs.getInt(5),
+	                            TradeTime.toEpochNanos(rs.getObject(6, LocalDateTime.class)),
+	                            TradeTime.toEpochNanos(rs.getObject(7, LocalDateTime.class))));
+	                }
+	            }
+	        }
+	        return bars;
+	    }
+	}
+	
+	private static boolean isDuplicateKey(SQLException e) {
+	    for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+	        if (DUPLICATE_KEY_STATE.equals(cause.getSQLState())) {
+	            return true;
+	        }
+	    }
+	    return false;
 	}
 	
 	@Override
@@ -55,13 +295,12 @@ public class H2TradePersistent extends H2TradeDAO {
 
 	@Override
 	public void deleteDB() throws SQLException {
-	    String checkTableSQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'TRADES'";
-	    try (PreparedStatement pstmt = connection.prepareStatement(checkTableSQL);
-	         ResultSet rs = pstmt.executeQuery()) {
-	        if (rs.next() && rs.getInt(1) > 0) {
-	            // Table exists, truncate it
-	            try (Statement stmt = connection.createStatement()) {
-	                stmt.execute("TRUNCATE TABLE TRADES");
+	    if (countTables("TRADES") > 0) {
+	        // Table exists, truncate it
+	        try (Statement stmt = connection.createStatement()) {
+	            stmt.execute("TRUNCATE TABLE TRADES");
+	            if (countTables("TRADE_BARS") > 0) {
+	                stmt.execute("TRUNCATE TABLE TRADE_BARS");
 	            }
 	        }
 	    }
@@ -0,0 +1,376 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.anz.trading.calculators.vwap.DirectMemory;
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+
+/**
+ * File based TradeDAO that appends fixed-width binary trade records straight into memory-mapped
+ * journal segments, one set of segments per currency pair. A sparse in-memory index of the timestamps
+ * in every block of records turns a time range query into a binary search plus a sequential scan.
+ * Drop-in replacement for H2TradePersistent, which is only ever appended to and read by time range.
+ */
+public class MappedTradeJournal implements TradeDAO {
+
+    // 64MB segments
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 21;
+    // Records covered by one sparse index entry
+    static final int INDEX_INTERVAL = 1024;
+
+    // Segment layout: a header holding the number of committed records, then the records
+    private static final int HEADER_BYTES = 64;
+    private static final int MAGIC_POSITION = 0;
+    private static final int COUNT_POSITION = 8;
+    private static final long MAGIC = 0x5654524A524E4C31L;
+    // Record layout, per pair so the currency pair is implied by the segment
+    private static final int RECORD_BYTES = 32;
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int PRICE_OFFSET = 8;
+    private static final int VOLUME_OFFSET = 16;
+    private static final int SEQUENCE_OFFSET = 24;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final Map<String, PairJournal> journals = new HashMap<>();
+
+    public MappedTradeJournal(Path directory) {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    public MappedTradeJournal(Path directory, int recordsPerSegment) {
+        this.directory = directory;
+        // Whole index blocks per segment, so a block never spans two segments
+        this.recordsPerSegment = Math.max(1, (recordsPerSegment + INDEX_INTERVAL - 1) / INDEX_INTERVAL) * INDEX_INTERVAL;
+    }
+
+    @Override
+    public synchronized void createTable() throws SQLException {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new SQLException("Failed to create trade journal directory " + directory, e);
+        }
+    }
+
+    @Override
+    public void insertTrade(Trade trade) throws SQLException {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        trades.add(trade);
+        insertTradesFrom(trades);
+    }
+
+    // Appends every trade, then commits the record count and forces each touched segment once
+    // All or nothing, a failure rolls every pair back to its last commit so the batch can be retried
+    // without its trades being appended twice (the journal cannot MERGE on the sequence id as H2 does)
+    @Override
+    public synchronized void insertTradesFrom(Queue<Trade> trades) throws SQLException {
+        Map<String, PairJournal> touched = new LinkedHashMap<>();
+        try {
+            for (Trade trade : trades) {
+                PairJournal journal = touched.get(trade.getCurrencyPair());
+                if (journal == null) {
+                    journal = journal(trade.getCurrencyPair());
+                    touched.put(trade.getCurrencyPair(), journal);
+                }
+                journal.append(trade);
+            }
+            for (PairJournal journal : touched.values()) {
+                journal.publish();
+            }
+            for (PairJournal journal : touched.values()) {
+                journal.force();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (PairJournal journal : touched.values()) {
+                journal.rollback();
+            }
+            throw new SQLException("Failed to append trades to the journal in " + directory, e);
+        }
+        for (PairJournal journal : touched.values()) {
+            journal.commit();
+        }
+    }
+
+    @Override
+    public void clearTrades() throws SQLException {
+        throw new UnsupportedOperationException("clearTrades is not supported by the trade journal as it's only intended"
+                + "periodically cleaning up in-memory storage. Please use deleteDB() method instead");
+    }
+
+    // Unmaps and deletes every segment, the journal can be appended to again afterwards
+    @Override
+    public synchronized void deleteDB() throws SQLException {
+        close();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> pairDirectories = Files.newDirectoryStream(directory)) {
+            for (Path pairDirectory : pairDirectories) {
+                if (!Files.isDirectory(pairDirectory)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> segments = Files.newDirectoryStream(pairDirectory, "*" + SEGMENT_SUFFIX)) {
+                    for (Path segment : segments) {
+                        Files.delete(segment);
+                    }
+                }
+                Files.deleteIfExists(pairDirectory);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to delete the trade journal in " + directory, e);
+        }
+    }
+
+    @Override
+    public Queue<Trade> getAllTrades() throws SQLException {
+        throw new UnsupportedOperationException("Operation prohibited without time constraints as performing "
+                + "this on the trade journal as an unfiltered query will likely crash the machine.");
+    }
+
+    @Override
+    public synchronized Queue<Trade> getAllTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair)
+            throws SQLException {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        streamTrades(startTime, endTime, currencyPair, (price, volume, timestampNanos, sequenceId) ->
+                trades.add(new Trade(price, volume, timestampNanos, currencyPair, sequenceId)));
+        return trades;
+    }
+
+    // Records are passed straight from the mapped segments, in append order
+    @Override
+    public synchronized void streamTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair,
+            TradeRecordConsumer consumer) throws SQLException {
+        try {
+            journal(currencyPair).read(TradeTime.toEpochNanos(startTime), TradeTime.toEpochNanos(endTime), consumer);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read trades for " + currencyPair + " from the journal", e);
+        }
+    }
+
+    // Unmaps every open segment, they are mapped again on the next access
+    public synchronized void close() {
+        for (PairJournal journal : journals.values()) {
+            journal.unmap();
+        }
+        journals.clear();
+    }
+
+    private PairJournal journal(String currencyPair) throws IOException {
+        PairJournal journal = journals.get(currencyPair);
+        if (journal == null) {
+            journal = new PairJournal(currencyPair);
+            journals.put(currencyPair, journal);
+        }
+        return journal;
+    }
+
+    // The segments of one currency pair, with the sparse index rebuilt from them when first opened
+    private final class PairJournal {
+        private final Path pairDirectory;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private long recordCount = 0;
+        // Records appended but not yet committed start at this index
+        private long committedCount = 0;
+
+        // Min and max timestamp of every block of INDEX_INTERVAL records, plus the running max up to each block
+        // Trades can arrive out of order, the running max is what keeps the binary search valid
+        private long[] blockMin = new long[16];
+        private long[] blockMax = new long[16];
+        private long[] blockPrefixMax = new long[16];
+        private int blockCount = 0;
+
+        private PairJournal(String currencyPair) throws IOException {
+            this.pairDirectory = directory.resolve(currencyPair.replace('/', '_'));
+            open();
+        }
+
+        private void open() throws IOException {
+            if (!Files.isDirectory(pairDirectory)) {
+                return;
+            }
+            List<Path> segmentFiles = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(pairDirectory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    segmentFiles.add(file);
+                }
+            }
+            // Zero padded names, so name order is append order
+            segmentFiles.sort(null);
+            for (Path file : segmentFiles) {
+                MappedByteBuffer segment = map(file);
+                if (segment.getLong(MAGIC_POSITION) != MAGIC) {
+                    throw new IOException("Not a trade journal segment: " + file);
+                }
+                segments.add(segment);
+                long count = segment.getLong(COUNT_POSITION);
+                for (int local = 0; local < count; local++) {
+                    index(recordCount++, segment.getLong(offset(local) + TIMESTAMP_OFFSET));
+                }
+            }
+            committedCount = recordCount;
+        }
+
+        private MappedByteBuffer map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_BYTES + (long) recordsPerSegment * RECORD_BYTES);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                return segment;
+            }
+        }
+
+        private MappedByteBuffer newSegment() throws IOException {
+            Files.createDirectories(pairDirectory);
+            MappedByteBuffer segment = map(pairDirectory.resolve(String.format("%010d%s", segments.size(), SEGMENT_SUFFIX)));
+            segment.putLong(MAGIC_POSITION, MAGIC);
+            segment.putLong(COUNT_POSITION, 0);
+            segments.add(segment);
+            return segment;
+        }
+
+        private int offset(int localRecord) {
+            return HEADER_BYTES + localRecord * RECORD_BYTES;
+        }
+
+        // Written straight into the mapped segment, no intermediate buffer
+        private void append(Trade trade) throws IOException {
+            int segmentIndex = (int) (recordCount / recordsPerSegment);
+            MappedByteBuffer segment = segmentIndex < segments.size() ? segments.get(segmentIndex) : newSegment();
+            int offset = offset((int) (recordCount % recordsPerSegment));
+            segment.putLong(offset + TIMESTAMP_OFFSET, trade.getTimestampNanos());
+            segment.putDouble(offset + PRICE_OFFSET, trade.getPrice());
+            segment.putLong(offset + VOLUME_OFFSET, trade.getVolume());
+            segment.putLong(offset + SEQUENCE_OFFSET, trade.getSequenceId());
+            index(recordCount++, trade.getTimestampNanos());
+        }
+
+        // Publishes the appended records by updating each touched segment's count
+        private void publish() {
+            writeSegmentCounts(recordCount);
+        }
+        
+        // Flushes the appended records and their counts to disk
+        private void force() {
+            if (committedCount == recordCount) {
+                return;
+            }
+            int firstSegment = (int) (committedCount / recordsPerSegment);
+            int lastSegment = (int) ((recordCount - 1) / recordsPerSegment);
+            for (int segmentIndex = firstSegment; segmentIndex <= lastSegment; segmentIndex++) {
+                segments.get(segmentIndex).force();
+            }
+        }
+        
+        private void commit() {
+            committedCount = recordCount;
+        }
+        
+        // Drops everything appended since the last commit, from the segment counts and the sparse index
+        private void rollback() {
+            recordCount = committedCount;
+            writeSegmentCounts(committedCount);
+            blockCount = (int) ((committedCount + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+            if (committedCount % INDEX_INTERVAL != 0) {
+                // The last block is partly rolled back, so it is indexed again from its committed records
+                int block = blockCount - 1;
+                long from = (long) block * INDEX_INTERVAL;
+                blockCount = block;
+                for (long record = from; record < committedCount; record++) {
+                    MappedByteBuffer segment = segments.get((int) (record / recordsPerSegment));
+                    index(record, segment.getLong(offset((int) (record % recordsPerSegment)) + TIMESTAMP_OFFSET));
+                }
+            }
+        }
+        
+        // Every segment from the one the last commit ended in holds its share of the given count
+        private void writeSegmentCounts(long count) {
+            for (int segmentIndex = (int) (committedCount / recordsPerSegment); segmentIndex < segments.size(); segmentIndex++) {
+                long segmentStart = (long) segmentIndex * recordsPerSegment;
+                long segmentCount = Math.max(0, Math.min(count - segmentStart, recordsPerSegment));
+                segments.get(segmentIndex).putLong(COUNT_POSITION, segmentCount);
+            }
+        }
+
+        private void index(long recordIndex, long timestampNanos) {
+            int block = (int) (recordIndex / INDEX_INTERVAL);
+            if (block == blockCount) {
+                if (blockCount == blockMin.length) {
+                    blockMin = Arrays.copyOf(blockMin, blockCount * 2);
+                    blockMax = Arrays.copyOf(blockMax, blockCount * 2);
+                    blockPrefixMax = Arrays.copyOf(blockPrefixMax, blockCount * 2);
+                }
+                blockMin[block] = timestampNanos;
+                blockMax[block] = timestampNanos;
+                blockPrefixMax[block] = block == 0 ? timestampNanos : Math.max(blockPrefixMax[block - 1], timestampNanos);
+                blockCount++;
+            } else {
+                blockMin[block] = Math.min(blockMin[block], timestampNanos);
+                blockMax[block] = Math.max(blockMax[block], timestampNanos);
+                blockPrefixMax[block] = Math.max(blockPrefixMax[block], timestampNanos);
+            }
+        }
+
+        // Inclusive of both ends, as the SQL BETWEEN of the H2 DAOs
+        private void read(long startNanos, long endNanos, TradeRecordConsumer consumer) {
+            for (int block = firstBlockReaching(startNanos); block < blockCount; block++) {
+                if (blockMin[block] > endNanos || blockMax[block] < startNanos) {
+                    continue;
+                }
+                long from = (long) block * INDEX_INTERVAL;
+                long to = Math.min(from + INDEX_INTERVAL, committedCount);
+                MappedByteBuffer segment = segments.get((int) (from / recordsPerSegment));
+                for (long record = from; record < to; record++) {
+                    int offset = offset((int) (record % recordsPerSegment));
+                    long timestampNanos = segment.getLong(offset + TIMESTAMP_OFFSET);
+                    if (timestampNanos >= startNanos && timestampNanos <= endNanos) {
+                        consumer.accept(segment.getDouble(offset + PRICE_OFFSET), segment.getLong(offset + VOLUME_OFFSET),
+                                timestampNanos, segment.getLong(offset + SEQUENCE_OFFSET));
+                    }
+                }
+            }
+        }
+
+        // Every block before the first whose running max reaches startNanos lies entirely before the range
+        private int firstBlockReaching(long startNanos) {
+            int low = 0;
+            int high = blockCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blockPrefixMax[mid] < startNanos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void unmap() {
+            for (MappedByteBuffer segment : segments) {
+                DirectMemory.free(segment);
+            }
+            segments.clear();
+        }
+    }
+}
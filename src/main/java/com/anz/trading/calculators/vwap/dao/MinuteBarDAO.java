@@ -0,0 +1,16 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.anz.trading.calculators.vwap.MinuteBar;
+
+/**
+ * Implemented by trade stores that also keep per-pair per-minute aggregates of the trades written to them,
+ * maintained in the same transaction as the raw trades so the two always agree
+ */
+public interface MinuteBarDAO {
+	// Bars whose minute starts within the range, oldest first
+	List<MinuteBar> getMinuteBars(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException;
+}
@@ -0,0 +1,10 @@
+package com.anz.trading.calculators.vwap.dao;
+
+/**
+ * As TradeRecordConsumer, for a stream that mixes currency pairs (i.e. the tail written after a checkpoint),
+ * so one pass over the rows can be dispatched to each pair
+ */
+@FunctionalInterface
+public interface PairTradeRecordConsumer {
+    void accept(String currencyPair, double price, long volume, long timestampNanos, long sequenceId);
+}
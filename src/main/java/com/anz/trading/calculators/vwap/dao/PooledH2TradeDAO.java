@@ -0,0 +1,100 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+import com.anz.trading.calculators.vwap.MinuteBar;
+import com.anz.trading.calculators.vwap.Trade;
+
+/**
+ * The persistent H2 store with each call run on a connection borrowed from a pool rather than one shared connection,
+ * so restores and backups of different currency pairs can hit the DB at the same time
+ */
+public class PooledH2TradeDAO implements TradeDAO, MinuteBarDAO {
+
+    // One call against an H2TradePersistent bound to the borrowed connection
+    @FunctionalInterface
+    private interface DAOWork<T> {
+        T apply(H2TradePersistent tradeDAO) throws SQLException;
+    }
+
+    private final H2ConnectionPool connectionPool;
+    private final int chunkSize;
+
+    public PooledH2TradeDAO(H2ConnectionPool connectionPool) {
+        this(connectionPool, H2TradePersistent.DEFAULT_CHUNK_SIZE);
+    }
+
+    public PooledH2TradeDAO(H2ConnectionPool connectionPool, int chunkSize) {
+        this.connectionPool = connectionPool;
+        this.chunkSize = chunkSize;
+    }
+
+    // The DAO only holds the connection, so one per call costs nothing next to the query
+    private <T> T using(DAOWork<T> work) throws SQLException {
+        return connectionPool.withConnection(connection ->
+                work.apply(new H2TradePersistent(connection, chunkSize)));
+    }
+
+    @Override
+    public void createTable() throws SQLException {
+        using(tradeDAO -> { tradeDAO.createTable(); return null; });
+    }
+
+    @Override
+    public void insertTrade(Trade trade) throws SQLException {
+        using(tradeDAO -> { tradeDAO.insertTrade(trade); return null; });
+    }
+
+    @Override
+    public void insertTradesFrom(Queue<Trade> trades) throws SQLException {
+        using(tradeDAO -> { tradeDAO.insertTradesFrom(trades); return null; });
+    }
+
+    @Override
+    public void clearTrades() throws SQLException {
+        using(tradeDAO -> { tradeDAO.clearTrades(); return null; });
+    }
+
+    @Override
+    public void deleteDB() throws SQLException {
+        using(tradeDAO -> { tradeDAO.deleteDB(); return null; });
+    }
+
+    @Override
+    public Queue<Trade> getAllTrades() throws SQLException {
+        return using(tradeDAO -> tradeDAO.getAllTrades());
+    }
+
+    @Override
+    public Queue<Trade> getAllTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException {
+        return using(tradeDAO -> tradeDAO.getAllTrades(startTime, endTime, currencyPair));
+    }
+
+    @Override
+    public void streamTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair,
+            TradeRecordConsumer consumer) throws SQLException {
+        using(tradeDAO -> { tradeDAO.streamTrades(startTime, endTime, currencyPair, consumer); return null; });
+    }
+
+    @Override
+    public void streamTradesAfter(long afterSequenceId, LocalDateTime startTime, LocalDateTime endTime,
+            Collection<String> currencyPairs, PairTradeRecordConsumer consumer) throws SQLException {
+        using(tradeDAO -> {
+            tradeDAO.streamTradesAfter(afterSequenceId, startTime, endTime, currencyPairs, consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public List<MinuteBar> getMinuteBars(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException {
+        return using(tradeDAO -> tradeDAO.getMinuteBars(startTime, endTime, currencyPair));
+    }
+
+    public H2ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+}
@@ -2,6 +2,7 @@ package com.anz.trading.calculators.vwap.dao;
 
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Queue;
 
@@ -15,4 +16,20 @@ public interface TradeDAO {
     void deleteDB() throws SQLException;
     Queue<Trade> getAllTrades() throws SQLException;
 	Queue<Trade> getAllTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair) throws SQLException;
+	// Same range as above, passed to the consumer row by row instead of being collected
+	void streamTrades(LocalDateTime startTime, LocalDateTime endTime, String currencyPair,
+			TradeRecordConsumer consumer) throws SQLException;
+	// The trades of the given pairs in the range with a sequence id after the given one (i.e. the tail written
+	// after a checkpoint), in one stream for all pairs. By default each pair's range is scanned and filtered,
+	// stores keyed on the sequence id can read the tail once and dispatch each row to its pair
+	default void streamTradesAfter(long afterSequenceId, LocalDateTime startTime, LocalDateTime endTime,
+			Collection<String> currencyPairs, PairTradeRecordConsumer consumer) throws SQLException {
+		for (String currencyPair : currencyPairs) {
+			streamTrades(startTime, endTime, currencyPair, (price, volume, timestampNanos, sequenceId) -> {
+				if (sequenceId > afterSequenceId) {
+					consumer.accept(currencyPair, price, volume, timestampNanos, sequenceId);
+				}
+			});
+		}
+	}
 }
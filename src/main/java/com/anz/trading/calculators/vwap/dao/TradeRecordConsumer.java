@@ -0,0 +1,10 @@
+package com.anz.trading.calculators.vwap.dao;
+
+/**
+ * Receives trades streamed from a TradeDAO one row at a time as primitives, so a restore
+ * neither allocates a Trade per row nor holds the result set in memory
+ */
+@FunctionalInterface
+public interface TradeRecordConsumer {
+    void accept(double price, long volume, long timestampNanos, long sequenceId);
+}
@@ -0,0 +1,19 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * When trades arrive, as the gaps between consecutive trades. Implementations may keep state (such as whether a
+ * burst is under way), so each thread works on its own copy()
+ */
+public interface ArrivalProcess {
+
+    // Nanoseconds from the previous trade to the next
+    long nextGapNanos(SplittableRandom random);
+
+    // Long-run average trades per second
+    double getMeanRate();
+
+    // A copy in the initial state, replaying the same arrivals when drawn with an equally seeded random
+    ArrivalProcess copy();
+}
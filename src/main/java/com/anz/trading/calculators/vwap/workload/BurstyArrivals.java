@@ -0,0 +1,72 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Two-state Markov-modulated Poisson process: calm periods at the base rate broken by bursts at a multiple of it,
+ * like the spikes that follow news. Both kinds of period last an exponentially distributed time with the given
+ * mean. Starts calm. Not thread-safe, each thread uses its own copy()
+ */
+public final class BurstyArrivals implements ArrivalProcess {
+
+    private final double baseRatePerSecond;
+    private final double burstMultiplier;
+    private final long meanCalmMillis;
+    private final long meanBurstMillis;
+    private final double meanCalmNanos;
+    private final double meanBurstNanos;
+    private boolean bursting = false;
+    // Time left in the current period, drawn when the period starts
+    private double remainingNanos = -1;
+
+    public BurstyArrivals(double baseRatePerSecond, double burstMultiplier, long meanCalmMillis, long meanBurstMillis) {
+        if (!(baseRatePerSecond > 0) || !(burstMultiplier >= 1)) {
+            throw new IllegalArgumentException("Rate must be positive and the burst multiplier at least 1: "
+                    + baseRatePerSecond + ", " + burstMultiplier);
+        }
+        if (meanCalmMillis <= 0 || meanBurstMillis <= 0) {
+            throw new IllegalArgumentException("Period lengths must be positive: " + meanCalmMillis + ", " + meanBurstMillis);
+        }
+        this.baseRatePerSecond = baseRatePerSecond;
+        this.burstMultiplier = burstMultiplier;
+        this.meanCalmMillis = meanCalmMillis;
+        this.meanBurstMillis = meanBurstMillis;
+        this.meanCalmNanos = meanCalmMillis * 1e6;
+        this.meanBurstNanos = meanBurstMillis * 1e6;
+    }
+
+    @Override
+    public long nextGapNanos(SplittableRandom random) {
+        if (remainingNanos < 0) {
+            remainingNanos = PoissonArrivals.exponential(random, meanCalmNanos);
+        }
+        // Arrivals are memoryless, so a gap that runs past the end of the period is redrawn at the next period's
+        // rate from that point on
+        double gap = 0;
+        while (true) {
+            double rate = bursting ? baseRatePerSecond * burstMultiplier : baseRatePerSecond;
+            double draw = PoissonArrivals.exponential(random, 1e9 / rate);
+            if (draw <= remainingNanos) {
+                remainingNanos -= draw;
+                return Math.round(gap + draw);
+            }
+            gap += remainingNanos;
+            bursting = !bursting;
+            remainingNanos = PoissonArrivals.exponential(random, bursting ? meanBurstNanos : meanCalmNanos);
+        }
+    }
+
+    @Override
+    public double getMeanRate() {
+        return baseRatePerSecond * (meanCalmNanos + burstMultiplier * meanBurstNanos) / (meanCalmNanos + meanBurstNanos);
+    }
+
+    @Override
+    public ArrivalProcess copy() {
+        return new BurstyArrivals(baseRatePerSecond, burstMultiplier, meanCalmMillis, meanBurstMillis);
+    }
+
+    public boolean isBursting() {
+        return bursting;
+    }
+}
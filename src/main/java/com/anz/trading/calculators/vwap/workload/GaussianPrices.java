@@ -0,0 +1,35 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+
+/**
+ * Every price drawn independently from the pair's normal distribution, as TradeGenerator does
+ */
+public final class GaussianPrices implements PriceModel {
+
+    private final double[] means;
+    private final double[] standardDeviations;
+
+    public GaussianPrices(CurrencyPairData currencyPairData) {
+        double[][] currencyPairStats = currencyPairData.getCurrencyPairStats();
+        this.means = new double[currencyPairStats.length];
+        this.standardDeviations = new double[currencyPairStats.length];
+        for (int i = 0; i < currencyPairStats.length; i++) {
+            means[i] = currencyPairStats[i][0];
+            standardDeviations[i] = currencyPairStats[i][1];
+        }
+    }
+
+    @Override
+    public double nextPrice(int pairIndex, SplittableRandom random) {
+        return means[pairIndex] + random.nextGaussian() * standardDeviations[pairIndex];
+    }
+
+    // Stateless
+    @Override
+    public PriceModel copy() {
+        return this;
+    }
+}
@@ -0,0 +1,85 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks the index of the currency pair each trade is for from fixed popularity weights, such as Zipf's law or a
+ * measured production mix. Immutable, so one instance can be shared by every producer thread
+ */
+public final class PairSelector {
+
+    // Cumulative, normalised so the last entry is 1, null when every pair is equally likely
+    private final double[] cumulativeWeights;
+    private final int nbrPairs;
+
+    private PairSelector(double[] cumulativeWeights, int nbrPairs) {
+        this.cumulativeWeights = cumulativeWeights;
+        this.nbrPairs = nbrPairs;
+    }
+
+    public static PairSelector uniform(int nbrPairs) {
+        if (nbrPairs < 1) {
+            throw new IllegalArgumentException("At least one currency pair is needed: " + nbrPairs);
+        }
+        return new PairSelector(null, nbrPairs);
+    }
+
+    /**
+     * Pair i gets weight 1 / (i + 1)^skew, 0 is uniform and larger skews concentrate flow on the first pairs
+     * (about 1.2 gives the first of 10 pairs 40% of trades)
+     */
+    public static PairSelector zipf(int nbrPairs, double skew) {
+        double[] weights = new double[nbrPairs];
+        for (int i = 0; i < nbrPairs; i++) {
+            weights[i] = 1 / Math.pow(i + 1, skew);
+        }
+        return weighted(weights);
+    }
+
+    // Pair i is picked with probability weights[i] / sum(weights)
+    public static PairSelector weighted(double... weights) {
+        if (weights.length < 1) {
+            throw new IllegalArgumentException("At least one currency pair is needed");
+        }
+        double[] cumulative = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (!(weights[i] >= 0)) {
+                throw new IllegalArgumentException("Weights must not be negative: " + Arrays.toString(weights));
+            }
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("At least one weight must be positive: " + Arrays.toString(weights));
+        }
+        for (int i = 0; i < weights.length; i++) {
+            cumulative[i] /= total;
+        }
+        return new PairSelector(cumulative, weights.length);
+    }
+
+    public int nextPair(SplittableRandom random) {
+        if (cumulativeWeights == null) {
+            return random.nextInt(nbrPairs);
+        }
+        double draw = random.nextDouble();
+        int index = Arrays.binarySearch(cumulativeWeights, draw);
+        // A miss returns -(insertion point) - 1, the first entry above the draw
+        index = index < 0 ? -index - 1 : index + 1;
+        return Math.min(index, nbrPairs - 1);
+    }
+
+    // Share of trades expected for the pair at the given index
+    public double getProbability(int index) {
+        if (cumulativeWeights == null) {
+            return 1.0 / nbrPairs;
+        }
+        return index == 0 ? cumulativeWeights[0] : cumulativeWeights[index] - cumulativeWeights[index - 1];
+    }
+
+    public int getNumberOfPairs() {
+        return nbrPairs;
+    }
+}
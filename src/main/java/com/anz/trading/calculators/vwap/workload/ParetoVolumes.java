@@ -0,0 +1,32 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Heavy-tailed volumes: mostly close to the minimum with occasional block trades orders of magnitude larger, the
+ * chance of exceeding v falling as (minVolume / v)^alpha. Alpha below 2 has unbounded variance, so draws are
+ * capped at maxVolume
+ */
+public final class ParetoVolumes implements VolumeModel {
+
+    private final long minVolume;
+    private final long maxVolume;
+    private final double inverseAlpha;
+
+    public ParetoVolumes(long minVolume, double alpha, long maxVolume) {
+        if (minVolume <= 0 || maxVolume < minVolume || !(alpha > 0)) {
+            throw new IllegalArgumentException("Need 0 < minVolume <= maxVolume and a positive alpha: "
+                    + minVolume + ", " + alpha + ", " + maxVolume);
+        }
+        this.minVolume = minVolume;
+        this.maxVolume = maxVolume;
+        this.inverseAlpha = 1 / alpha;
+    }
+
+    @Override
+    public long nextVolume(SplittableRandom random) {
+        // Inverse of the distribution function, 1 - nextDouble() is in (0, 1]
+        double volume = minVolume / Math.pow(1 - random.nextDouble(), inverseAlpha);
+        return volume >= maxVolume ? maxVolume : (long) volume;
+    }
+}
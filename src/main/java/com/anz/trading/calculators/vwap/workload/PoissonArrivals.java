@@ -0,0 +1,40 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Trades arriving independently at a constant average rate, so the gaps are exponentially distributed
+ */
+public final class PoissonArrivals implements ArrivalProcess {
+
+    private final double ratePerSecond;
+
+    public PoissonArrivals(double ratePerSecond) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    @Override
+    public long nextGapNanos(SplittableRandom random) {
+        return Math.round(exponential(random, 1e9 / ratePerSecond));
+    }
+
+    @Override
+    public double getMeanRate() {
+        return ratePerSecond;
+    }
+
+    // Stateless
+    @Override
+    public ArrivalProcess copy() {
+        return this;
+    }
+
+    // An exponentially distributed value with the given mean
+    static double exponential(SplittableRandom random, double mean) {
+        // 1 - nextDouble() is in (0, 1] so the log is finite
+        return -Math.log(1 - random.nextDouble()) * mean;
+    }
+}
@@ -0,0 +1,15 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Price of the next trade for the currency pair at the given index. Implementations may keep per-pair state
+ * (such as the last price), so each thread works on its own copy()
+ */
+public interface PriceModel {
+
+    double nextPrice(int pairIndex, SplittableRandom random);
+
+    // A copy in the initial state
+    PriceModel copy();
+}
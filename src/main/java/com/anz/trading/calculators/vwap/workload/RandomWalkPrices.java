@@ -0,0 +1,59 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+
+/**
+ * Each pair's price moves a small random step from its last price, pulled back towards the pair's mean so it
+ * wanders within its standard deviation rather than drifting away (a discrete Ornstein-Uhlenbeck walk).
+ * Consecutive trades of a pair are correlated as in a real market. Starts at the mean. Not thread-safe
+ */
+public final class RandomWalkPrices implements PriceModel {
+
+    private final double[] means;
+    private final double[] stepDeviations;
+    private final double reversion;
+    private final double[] lastPrices;
+
+    /**
+     * @param reversion fraction of the distance to the mean recovered each trade, in (0, 1]. Smaller values give
+     *                  longer trends, 1 makes every price independent
+     */
+    public RandomWalkPrices(CurrencyPairData currencyPairData, double reversion) {
+        if (!(reversion > 0 && reversion <= 1)) {
+            throw new IllegalArgumentException("Reversion must be in (0, 1]: " + reversion);
+        }
+        double[][] currencyPairStats = currencyPairData.getCurrencyPairStats();
+        this.reversion = reversion;
+        this.means = new double[currencyPairStats.length];
+        this.stepDeviations = new double[currencyPairStats.length];
+        this.lastPrices = new double[currencyPairStats.length];
+        for (int i = 0; i < currencyPairStats.length; i++) {
+            means[i] = currencyPairStats[i][0];
+            // Step size at which the walk's long-run standard deviation is the pair's
+            stepDeviations[i] = currencyPairStats[i][1] * Math.sqrt(reversion * (2 - reversion));
+            lastPrices[i] = means[i];
+        }
+    }
+
+    private RandomWalkPrices(RandomWalkPrices other) {
+        this.reversion = other.reversion;
+        this.means = other.means;
+        this.stepDeviations = other.stepDeviations;
+        this.lastPrices = other.means.clone();
+    }
+
+    @Override
+    public double nextPrice(int pairIndex, SplittableRandom random) {
+        double price = lastPrices[pairIndex];
+        price += reversion * (means[pairIndex] - price) + random.nextGaussian() * stepDeviations[pairIndex];
+        lastPrices[pairIndex] = price;
+        return price;
+    }
+
+    @Override
+    public PriceModel copy() {
+        return new RandomWalkPrices(this);
+    }
+}
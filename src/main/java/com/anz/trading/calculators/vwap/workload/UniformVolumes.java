@@ -0,0 +1,25 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Volumes spread evenly from the minimum up to but excluding the maximum, as TradeGenerator draws them
+ */
+public final class UniformVolumes implements VolumeModel {
+
+    private final long minVolume;
+    private final long maxVolume;
+
+    public UniformVolumes(long minVolume, long maxVolume) {
+        if (minVolume < 0 || maxVolume <= minVolume) {
+            throw new IllegalArgumentException("Volume range must be non-empty: " + minVolume + " to " + maxVolume);
+        }
+        this.minVolume = minVolume;
+        this.maxVolume = maxVolume;
+    }
+
+    @Override
+    public long nextVolume(SplittableRandom random) {
+        return random.nextLong(minVolume, maxVolume);
+    }
+}
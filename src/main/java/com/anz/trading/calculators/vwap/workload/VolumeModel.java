@@ -0,0 +1,11 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Volume of the next trade. Implementations are stateless and can be shared between threads
+ */
+public interface VolumeModel {
+
+    long nextVolume(SplittableRandom random);
+}
@@ -0,0 +1,91 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+
+/**
+ * What a synthetic trade stream looks like: which pairs trade, when trades arrive, and how prices and volumes
+ * are drawn. Immutable, generators take copies of any stateful model so one profile can be shared by threads
+ */
+public final class WorkloadProfile {
+
+    // Zipf skew giving the first of ten pairs about 40% of trades
+    public static final double PRODUCTION_PAIR_SKEW = 1.2;
+    // News spikes reach 50x the baseline rate, a half-second spike every half a minute on average
+    public static final double PRODUCTION_BURST_MULTIPLIER = 50;
+    public static final long PRODUCTION_MEAN_CALM_MILLIS = 30_000;
+    public static final long PRODUCTION_MEAN_BURST_MILLIS = 500;
+
+    private final CurrencyPairData currencyPairData;
+    private final PairSelector pairSelector;
+    private final ArrivalProcess arrivals;
+    private final PriceModel prices;
+    private final VolumeModel volumes;
+
+    /**
+     * @param arrivals null when the consumer sets the pace itself (as fast as possible or at a fixed rate)
+     */
+    public WorkloadProfile(CurrencyPairData currencyPairData, PairSelector pairSelector, ArrivalProcess arrivals,
+            PriceModel prices, VolumeModel volumes) {
+        if (pairSelector.getNumberOfPairs() != currencyPairData.getCurrencyPairs().length) {
+            throw new IllegalArgumentException("Pair selector covers " + pairSelector.getNumberOfPairs()
+                    + " pairs, the data has " + currencyPairData.getCurrencyPairs().length);
+        }
+        this.currencyPairData = currencyPairData;
+        this.pairSelector = pairSelector;
+        this.arrivals = arrivals;
+        this.prices = prices;
+        this.volumes = volumes;
+    }
+
+    /**
+     * The stream TradeGenerator has always produced: uniform pairs, independent normal prices and volumes
+     * uniform from 100 to 100,099, paced by the consumer
+     */
+    public static WorkloadProfile uniform(CurrencyPairData currencyPairData) {
+        return new WorkloadProfile(currencyPairData, PairSelector.uniform(currencyPairData.getCurrencyPairs().length),
+                null, new GaussianPrices(currencyPairData), new UniformVolumes(100, 100_100));
+    }
+
+    /**
+     * Representative production flow: Zipf pair popularity (EUR/USD about 40% with the default pairs), Poisson
+     * arrivals at the base rate with 50x news bursts, mean-reverting random-walk prices and Pareto volumes from
+     * 100 with the occasional block of up to 10M
+     */
+    public static WorkloadProfile production(CurrencyPairData currencyPairData, double baseRatePerSecond) {
+        return new WorkloadProfile(currencyPairData,
+                PairSelector.zipf(currencyPairData.getCurrencyPairs().length, PRODUCTION_PAIR_SKEW),
+                new BurstyArrivals(baseRatePerSecond, PRODUCTION_BURST_MULTIPLIER, PRODUCTION_MEAN_CALM_MILLIS,
+                        PRODUCTION_MEAN_BURST_MILLIS),
+                new RandomWalkPrices(currencyPairData, 0.001), new ParetoVolumes(100, 1.5, 10_000_000));
+    }
+
+    // The same profile with another pair mix
+    public WorkloadProfile withPairSelector(PairSelector pairSelector) {
+        return new WorkloadProfile(currencyPairData, pairSelector, arrivals, prices, volumes);
+    }
+
+    // The same profile with other arrivals, null to let the consumer set the pace
+    public WorkloadProfile withArrivals(ArrivalProcess arrivals) {
+        return new WorkloadProfile(currencyPairData, pairSelector, arrivals, prices, volumes);
+    }
+
+    public CurrencyPairData getCurrencyPairData() {
+        return currencyPairData;
+    }
+
+    public PairSelector getPairSelector() {
+        return pairSelector;
+    }
+
+    public ArrivalProcess getArrivals() {
+        return arrivals;
+    }
+
+    public PriceModel getPrices() {
+        return prices;
+    }
+
+    public VolumeModel getVolumes() {
+        return volumes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BucketedWindowTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    @Test
+    public void testSumsAccumulateWithinWindow() {
+        BucketedWindow window = new BucketedWindow(60, 1000);
+
+        assertEquals(0, window.add(1.0, 200, 0));
+        assertEquals(0, window.add(1.01, 300, 30 * MINUTE));
+
+        assertEquals(1.0 * 200 + 1.01 * 300, window.getSumPriceVolume(), 0.0001);
+        assertEquals(500, window.getSumVolume());
+        assertEquals(2, window.getTradeCount());
+    }
+
+    @Test
+    public void testBucketsOutsideWindowAreEvicted() {
+        BucketedWindow window = new BucketedWindow(60, 1000);
+        window.add(1.0, 200, 0);
+        window.add(1.0, 100, 500_000_000L); // Same one second bucket
+
+        int trimmed = window.add(1.01, 300, 61 * MINUTE);
+
+        assertEquals(2, trimmed, "Both trades in the expired bucket should be trimmed");
+        assertEquals(1.01 * 300, window.getSumPriceVolume(), 0.0001);
+        assertEquals(300, window.getSumVolume());
+        assertEquals(1, window.getTradeCount());
+    }
+
+    @Test
+    public void testLongGapClearsEveryBucket() {
+        BucketedWindow window = new BucketedWindow(1, 1000);
+        for (int i = 0; i < 50; i++) {
+            window.add(1.0, 10, i * SECOND);
+        }
+
+        int trimmed = window.add(2.0, 10, 24 * 60 * MINUTE);
+
+        assertEquals(50, trimmed);
+        assertEquals(1, window.getTradeCount());
+        assertEquals(20.0, window.getSumPriceVolume(), 0.0001);
+    }
+
+    @Test
+    public void testLateTradeOutsideWindowIsTrimmedImmediately() {
+        BucketedWindow window = new BucketedWindow(60, 1000);
+        window.add(1.0, 200, 120 * MINUTE);
+
+        int trimmed = window.add(5.0, 100, 30 * MINUTE);
+
+        assertEquals(1, trimmed);
+        assertEquals(200, window.getSumVolume());
+    }
+
+    @Test
+    public void testBucketCountIsFixedByWindowAndBucketLength() {
+        assertEquals(3602, new BucketedWindow(60, 1000).getBucketCount());
+        assertEquals(36002, new BucketedWindow(60, 100).getBucketCount());
+    }
+}
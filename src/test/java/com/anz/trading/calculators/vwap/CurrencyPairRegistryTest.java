@@ -0,0 +1,42 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CurrencyPairRegistryTest {
+
+    @Test
+    public void testSeededPairsGetDenseIdsInOrder() {
+        CurrencyPairRegistry registry = new CurrencyPairRegistry(new String[]{"EUR/USD", "USD/JPY"});
+
+        assertEquals(0, registry.getId("EUR/USD"));
+        assertEquals(1, registry.getId("USD/JPY"));
+        assertEquals("USD/JPY", registry.getCurrencyPair(1));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testNewPairsAreInternedAtRuntime() {
+        CurrencyPairRegistry registry = new CurrencyPairRegistry(new String[]{"EUR/USD"});
+
+        assertEquals(-1, registry.getId("EUR/GBP"), "Unregistered pair should have no id");
+        int id = registry.intern("EUR/GBP");
+
+        assertEquals(1, id);
+        assertEquals(id, registry.intern(new String("EUR/GBP")), "Interning again should return the same id");
+        assertEquals("EUR/GBP", registry.getCurrencyPair(id));
+    }
+
+    @Test
+    public void testTradesResolveIdsFromDefaultRegistry() {
+        CurrencyPairRegistry registry = CurrencyPairRegistry.getDefault();
+        Trade byName = new Trade(1.0, 100, LocalDateTime.now(), "AUD/USD");
+        Trade byId = new Trade(1.0, 100, TradeTime.nowNanos(), registry.getId("AUD/USD"));
+
+        assertEquals(registry.getId("AUD/USD"), byName.getCurrencyPairId());
+        assertEquals("AUD/USD", byId.getCurrencyPair());
+    }
+}
@@ -0,0 +1,104 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+class FastTradeGeneratorTest {
+
+    @Test
+    void testBulkGenerationMatchesTheSeedAndDistributions() {
+        CurrencyPairData currencyPairData = CurrencyPairData.createDefault();
+        int nbrTrades = 100_000;
+        double[] prices = new double[nbrTrades];
+        long[] volumes = new long[nbrTrades];
+        long[] timestamps = new long[nbrTrades];
+        int[] currencyPairIds = new int[nbrTrades];
+        long before = TradeTime.nowNanos();
+        new FastTradeGenerator(currencyPairData, 7).generate(prices, volumes, timestamps, currencyPairIds, 0, nbrTrades);
+        long after = TradeTime.nowNanos();
+
+        // Same seed, same trades, one at a time through a holder
+        FastTradeGenerator sameSeed = new FastTradeGenerator(currencyPairData, 7);
+        FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+        double[] priceSum = new double[currencyPairData.getCurrencyPairs().length];
+        int[] tradesPerPair = new int[priceSum.length];
+        for (int i = 0; i < nbrTrades; i++) {
+            sameSeed.next(holder);
+            assertEquals(prices[i], holder.getPrice());
+            assertEquals(volumes[i], holder.getVolume());
+            assertEquals(currencyPairIds[i], holder.getCurrencyPairId());
+            assertTrue(volumes[i] >= 100 && volumes[i] < 100_100);
+            assertTrue(timestamps[i] >= before && timestamps[i] <= after);
+            int index = indexOf(currencyPairData, currencyPairIds[i]);
+            priceSum[index] += prices[i];
+            tradesPerPair[index]++;
+        }
+        for (int i = 0; i < priceSum.length; i++) {
+            double mean = currencyPairData.getCurrencyPairStats()[i][0];
+            double standardDeviation = currencyPairData.getCurrencyPairStats()[i][1];
+            assertEquals(nbrTrades / priceSum.length, tradesPerPair[i], nbrTrades / 100);
+            assertEquals(mean, priceSum[i] / tradesPerPair[i], standardDeviation / 10);
+        }
+        Trade trade = holder.toTrade();
+        assertEquals(holder.getPrice(), trade.getPrice());
+        assertEquals(CurrencyPairRegistry.getDefault().getCurrencyPair(holder.getCurrencyPairId()), trade.getCurrencyPair());
+
+        // A split generator draws a different stream
+        FastTradeGenerator split = new FastTradeGenerator(currencyPairData, 7).split();
+        assertNotEquals(prices[0], split.next(holder).getPrice());
+    }
+
+    @Test
+    void testGeneratingIntoArraysDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        FastTradeGenerator tradeGenerator = new FastTradeGenerator(42);
+        FastTradeGenerator.Holder holder = new FastTradeGenerator.Holder();
+        int batchSize = 1024;
+        double[] prices = new double[batchSize];
+        long[] volumes = new long[batchSize];
+        long[] timestamps = new long[batchSize];
+        int[] currencyPairIds = new int[batchSize];
+        long threadId = Thread.currentThread().getId();
+        SplittableRandom random = new SplittableRandom(42);
+        double sink = 0;
+
+        // The first rounds run while the JIT compiles, which allocates on this thread, so the quietest round counts
+        long allocated = Long.MAX_VALUE;
+        long drawsAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            for (int batch = 0; batch < 1_000; batch++) {
+                tradeGenerator.generate(prices, volumes, timestamps, currencyPairIds, 0, batchSize);
+                tradeGenerator.next(batch % tradeGenerator.getNumberOfCurrencyPairs(), holder);
+            }
+            allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+
+            // The same random draws on their own. They allocate nothing either, unless an earlier test's inline
+            // mock of java.util.Random has instrumented the RandomGenerator methods SplittableRandom inherits
+            allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 1_000 * (batchSize + 1); i++) {
+                sink += random.nextInt(10) + random.nextGaussian() + random.nextLong(100, 100_100);
+            }
+            drawsAllocated = Math.min(drawsAllocated, threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+
+        // A million trades a round, anything more than stray bytes would be an allocation per trade
+        assertTrue(allocated - drawsAllocated < 64 * 1024, "Allocated " + allocated + " bytes, "
+                + drawsAllocated + " of them by the random draws");
+        assertTrue(sink != 0);
+    }
+
+    private static int indexOf(CurrencyPairData currencyPairData, int currencyPairId) {
+        String currencyPair = CurrencyPairRegistry.getDefault().getCurrencyPair(currencyPairId);
+        String[] currencyPairs = currencyPairData.getCurrencyPairs();
+        for (int i = 0; i < currencyPairs.length; i++) {
+            if (currencyPairs[i].equals(currencyPair)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Unknown pair id " + currencyPairId);
+    }
+}
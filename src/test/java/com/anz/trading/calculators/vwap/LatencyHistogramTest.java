@@ -0,0 +1,52 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentilesAreWithinOnePercentOfTheExactValues() {
+        Random random = new Random(1);
+        long[] values = new long[100_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around 20us with a long tail
+            values[i] = (long) Math.exp(10 + 1.5 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] { 50, 90, 99, 99.9, 99.99 }) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact && reported <= exact * 1.01,
+                    "p" + percentile + " reported " + reported + " for exact " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testSmallValuesAreExactAndHistogramsMerge() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            first.record(i);
+            second.record(1000 + i);
+        }
+        assertEquals(50, first.getValueAtPercentile(50));
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+
+        first.add(second);
+        assertEquals(200, first.getTotalCount());
+        assertEquals(100, first.getValueAtPercentile(50));
+        assertEquals(1100, first.getMax());
+        assertEquals((5050 + 100_000 + 5050) / 200.0, first.getMean(), 1e-9);
+    }
+}
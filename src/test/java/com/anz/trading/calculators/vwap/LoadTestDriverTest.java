@@ -0,0 +1,81 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.SplittableRandom;
+
+import com.anz.trading.calculators.vwap.workload.ArrivalProcess;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+class LoadTestDriverTest {
+
+    @Test
+    void testOpenLoopRunSendsAtTheTargetRateAndTimesEveryTrade() throws InterruptedException {
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 2, 60);
+        LoadTestDriver driver = new LoadTestDriver(vwapCalculator, CurrencyPairData.createDefault());
+        driver.setProducers(2);
+        driver.setDurationMillis(500);
+        driver.setRate(10_000);
+        driver.setSkew(2);
+
+        LoadTestDriver.Report report = driver.run();
+        vwapCalculator.shutdown();
+
+        // The schedule fixes the number of trades whatever the calculator's speed
+        assertEquals(5000, report.getTradesSent(), 5);
+        assertEquals(report.getTradesSent(), report.getLatency().getTotalCount());
+        assertTrue(report.getLatency().getValueAtPercentile(50) > 0);
+        // With skew 2 the first pair gets 1 / (1 + 1/4 + 1/9 + ...) of the 10 pairs, about 65%
+        double firstPairShare = (double) report.getTradesSent(0) / report.getTradesSent();
+        assertEquals(0.65, firstPairShare, 0.05);
+        assertTrue(report.getTradesSent(0) > report.getTradesSent(1));
+    }
+
+    @Test
+    void testRampStartsAtTheStartRate() throws InterruptedException {
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, 60);
+        LoadTestDriver driver = new LoadTestDriver(vwapCalculator, CurrencyPairData.createDefault());
+        driver.setProducers(1);
+        driver.setDurationMillis(1000);
+        // 0 to 4000 trades/s over the whole second averages 2000
+        driver.setRate(4000);
+        driver.setRamp(0, 1000);
+        driver.setSampleEvery(10);
+
+        LoadTestDriver.Report report = driver.run();
+        vwapCalculator.shutdown();
+
+        assertEquals(2000, report.getTradesSent(), 100);
+        assertEquals(report.getTradesSent() / 10, report.getLatency().getTotalCount());
+        assertThrows(IllegalArgumentException.class, () -> driver.setProducers(0));
+    }
+
+    @Test
+    void testProductionProfileSendsItsArrivalsAcrossTheProducers() throws InterruptedException {
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 2, 60);
+        WorkloadProfile workload = WorkloadProfile.production(CurrencyPairData.createDefault(), 5000);
+        LoadTestDriver driver = new LoadTestDriver(vwapCalculator, workload);
+        driver.setProducers(3);
+        driver.setDurationMillis(1000);
+        driver.setSampleEvery(100);
+        driver.setSeed(7);
+
+        LoadTestDriver.Report report = driver.run();
+        vwapCalculator.shutdown();
+
+        // The producers share out one seeded arrival sequence, so together they send exactly the arrivals
+        // that fall within the run
+        ArrivalProcess arrivals = workload.getArrivals().copy();
+        SplittableRandom random = new SplittableRandom(7 * 31);
+        long expected = 0;
+        for (long arrivalNanos = arrivals.nextGapNanos(random); arrivalNanos < 1_000_000_000L;
+                arrivalNanos += arrivals.nextGapNanos(random)) {
+            expected++;
+        }
+        assertEquals(expected, report.getTradesSent());
+        // EUR/USD takes about 40% of the flow
+        assertEquals(0.40, (double) report.getTradesSent(0) / report.getTradesSent(), 0.04);
+    }
+}
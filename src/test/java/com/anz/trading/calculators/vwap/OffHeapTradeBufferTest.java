@@ -0,0 +1,74 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapTradeBufferTest {
+
+    @Test
+    public void testGrowsAndShrinksAsTheWindowMoves() {
+        OffHeapTradeBuffer buffer = new OffHeapTradeBuffer(4);
+
+        for (int i = 0; i < 32; i++) {
+            buffer.add(i, i * 10, i * 100L);
+        }
+        assertEquals(32, buffer.size());
+        assertEquals(32, buffer.capacity(), "Capacity should double while the buffer is full");
+
+        // Remove most of the burst, the records left must survive each halving in order
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, buffer.peekPrice(), 0.0001);
+            assertEquals(i * 10, buffer.peekVolume());
+            assertEquals(i * 100L, buffer.peekTimestamp());
+            buffer.removeFirst();
+        }
+        assertEquals(2, buffer.size());
+        assertTrue(buffer.capacity() < 32, "Capacity should shrink once the buffer is mostly empty");
+        assertEquals(30, buffer.peekPrice(), 0.0001);
+        assertEquals(3000L, buffer.peekTimestamp());
+    }
+
+    @Test
+    public void testToTradesAndRelease() {
+        OffHeapTradeBuffer buffer = new OffHeapTradeBuffer(2);
+        LocalDateTime timestamp = LocalDateTime.of(2024, 1, 1, 10, 0);
+        buffer.add(new Trade(1.25, 500, timestamp, "AUD/USD"));
+
+        Queue<Trade> trades = buffer.toTrades("AUD/USD");
+        Trade trade = trades.peek();
+        assertEquals(1, trades.size());
+        assertEquals(1.25, trade.getPrice(), 0.0001);
+        assertEquals(500, trade.getVolume());
+        assertEquals(timestamp, trade.getTimestamp());
+
+        buffer.release();
+        assertEquals(0, buffer.size());
+        assertThrows(IllegalStateException.class, () -> buffer.add(1.0, 1, 1L));
+        // Releasing twice is harmless
+        buffer.release();
+    }
+
+    @Test
+    public void testOffHeapVWAPDataMatchesOnHeap() {
+        VWAPData onHeap = new VWAPData("AUD/USD", 1, WindowMode.TRADES);
+        VWAPData offHeap = new VWAPData("AUD/USD", 1, WindowMode.OFF_HEAP);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 0);
+
+        for (int i = 0; i < 200; i++) {
+            Trade trade = new Trade(0.65 + i * 0.0001, 1000 + i, start.plusSeconds(i), "AUD/USD");
+            assertEquals(onHeap.addDataPoint(trade), offHeap.addDataPoint(trade));
+        }
+
+        assertEquals(WindowMode.OFF_HEAP, offHeap.getWindowMode());
+        assertEquals(onHeap.getVWAP(), offHeap.getVWAP(), 1e-12);
+        assertEquals(onHeap.getTradeCount(), offHeap.getTradeCount());
+        assertEquals(onHeap.getNewestQueueSize(), offHeap.getNewestQueueSize());
+        offHeap.release();
+    }
+}
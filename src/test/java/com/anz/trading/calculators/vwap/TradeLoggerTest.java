@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
 import com.anz.trading.calculators.vwap.dao.TradeDAO;
+import com.anz.trading.calculators.vwap.dao.TradeRecordConsumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -36,8 +37,14 @@ public class TradeLoggerTest {
         trades.add(trade1);
         trades.add(trade2);
 
-        when(persistentDAO.getAllTrades(any(LocalDateTime.class), any(LocalDateTime.class), eq("EUR/USD")))
-                .thenReturn(trades);
+        // Stream the EUR/USD trades to the consumer as the DAO would
+        doAnswer(invocation -> {
+            TradeRecordConsumer consumer = invocation.getArgument(3);
+            for (Trade trade : trades) {
+                consumer.accept(trade.getPrice(), trade.getVolume(), trade.getTimestampNanos(), trade.getSequenceId());
+            }
+            return null;
+        }).when(persistentDAO).streamTrades(any(LocalDateTime.class), any(LocalDateTime.class), eq("EUR/USD"), any());
         when(mockVWAPData.getLastRestoredDataTimestamp()).thenReturn(now.minusMinutes(90));
 
         // Instantiate TradeLogger
@@ -50,13 +57,71 @@ public class TradeLoggerTest {
 
         // Verify interactions
         verify(persistentDAO, times(1))
-                .getAllTrades(any(LocalDateTime.class), any(LocalDateTime.class), eq("EUR/USD"));
+                .streamTrades(any(LocalDateTime.class), any(LocalDateTime.class), eq("EUR/USD"), any());
 
-        verify(mockVWAPData, times(1)).restoreDataPoint(trade1);
-        verify(mockVWAPData, times(1)).restoreDataPoint(trade2);
-        verify(mockVWAPData, never()).restoreDataPoint(trade3); // Should not restore unrelated trades
+        verify(mockVWAPData, times(1)).restoreDataPoint(trade1.getPrice(), trade1.getVolume(),
+                trade1.getTimestampNanos(), trade1.getSequenceId());
+        verify(mockVWAPData, times(1)).restoreDataPoint(trade2.getPrice(), trade2.getVolume(),
+                trade2.getTimestampNanos(), trade2.getSequenceId());
+        verify(mockVWAPData, never()).restoreDataPoint(eq(trade3.getPrice()), anyLong(), anyLong(), anyLong()); // Should not restore unrelated trades
 
         verify(mockVWAPData, times(1)).setLastRestoredDataTimestamp(trade2.getTimestamp());
         verify(mockVWAPData, times(1)).setLastRestore(any(LocalDateTime.class));
     }
+    
+	@Test
+    void testEmergencyDumpCountsTradesAlreadyWrittenThatLeaveMemory() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:emergencyDumpCountTest", "sa", "")) {
+            TradeLogger tradeLogger = new TradeLogger(new H2TradePersistent(connection));
+            VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, 60);
+            LocalDateTime start = LocalDateTime.now().minusMinutes(30);
+            for (int i = 0; i < 100; i++) {
+                vwapCalculator.processDataWithoutExecutor(new Trade(1.1, 100, start.plusSeconds(i), "EUR/USD"));
+            }
+            // Written but kept in memory, then 20 more that are not written yet
+            tradeLogger.loadNewestToDB(vwapCalculator, "EUR/USD", false);
+            for (int i = 100; i < 120; i++) {
+                vwapCalculator.processDataWithoutExecutor(new Trade(1.1, 100, start.plusSeconds(i), "EUR/USD"));
+            }
+            assertEquals(20, vwapCalculator.getVWAPData("EUR/USD").getNewestQueueSize());
+
+            // All 120 leave memory, though only 20 are written
+            assertEquals(120, tradeLogger.emergencyDumpToDB(vwapCalculator));
+            assertEquals(0, vwapCalculator.getVWAPData("EUR/USD").getCombinedQueueSize());
+            vwapCalculator.shutdown();
+        }
+    }
+    
+	@Test
+    void testRestoreOldTradesToQueueFromMinuteBars() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:minuteBarRestoreTest", "sa", "")) {
+            TradeLogger tradeLogger = new TradeLogger(new H2TradePersistent(connection));
+            VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, 60);
+
+            // A trade every 5 seconds from 50 to 20 minutes ago, all spilled to the DB
+            LocalDateTime start = LocalDateTime.now().minusMinutes(50);
+            for (int i = 0; i < 360; i++) {
+                vwapCalculator.processDataWithoutExecutor(
+                        new Trade(1.0 + (i % 10) * 0.01, 100 + i, start.plusSeconds(5L * i), "EUR/USD"));
+            }
+            double vwap = vwapCalculator.getVWAP("EUR/USD");
+            tradeLogger.loadNewestToDB(vwapCalculator, "EUR/USD", true);
+            VWAPData vwapData = vwapCalculator.getVWAPData("EUR/USD");
+            assertEquals(0, vwapData.getCombinedQueueSize());
+
+            tradeLogger.restoreOldTradesToQueue(vwapCalculator, "EUR/USD", 60, 60);
+
+            // Every minute is back as a single bar rather than as its trades
+            assertTrue(vwapData.getRestoredBarCount() >= 30, "One bar per minute of trades");
+            assertEquals(0, vwapData.getOldQueueSize());
+            assertEquals(vwap, vwapCalculator.getVWAP("EUR/USD"), 1e-12);
+
+            // Once the window has moved past them, every restored trade is evicted
+            vwapCalculator.processDataWithoutExecutor(new Trade(2.0, 10, LocalDateTime.now().plusMinutes(45), "EUR/USD"));
+            assertEquals(0, vwapData.getRestoredBarCount());
+            assertEquals(2.0, vwapCalculator.getVWAP("EUR/USD"), 1e-9);
+            assertEquals(1, vwapData.getTradeCount());
+            vwapCalculator.shutdown();
+        }
+    }
 }
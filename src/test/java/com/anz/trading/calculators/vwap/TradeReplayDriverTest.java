@@ -0,0 +1,111 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.anz.trading.calculators.vwap.dao.H2ConnectionPool;
+import com.anz.trading.calculators.vwap.dao.PooledH2TradeDAO;
+import com.anz.trading.calculators.vwap.workload.PoissonArrivals;
+import com.anz.trading.calculators.vwap.workload.WorkloadProfile;
+
+class TradeReplayDriverTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 2, 9, 0);
+    private static int runNumber = 0;
+
+    @Test
+    void testThreeHoursReplayWithTheWindowMovingOnSimulatedTime() {
+        WorkloadProfile workload = WorkloadProfile.uniform(CurrencyPairData.createDefault())
+                .withArrivals(new PoissonArrivals(5));
+        SimulatedTradeClock clock = new SimulatedTradeClock(START);
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, new long[] { 60 }, WindowMode.TRADES,
+                ExecutionMode.SHARED_POOL, clock);
+        TradeReplayDriver driver = new TradeReplayDriver(vwapCalculator, clock, 60);
+
+        TradeReplayDriver.Report report = driver.replay(TradeReplayDriver.generatedTrades(workload, START, 180, 1));
+        vwapCalculator.shutdown();
+
+        // Three simulated hours at 5 trades/s, far faster than real time
+        assertEquals(54_000, report.getTradesReplayed(), 1_000);
+        assertTrue(report.getSimulatedNanos() > TradeTime.minutesToNanos(179));
+        assertTrue(report.getSpeedUp() > 100, "Speed-up " + report.getSpeedUp());
+
+        // Each pair holds exactly its trades of the last simulated hour
+        Map<String, Long> lastTimestamps = new HashMap<>();
+        Iterator<Trade> trades = TradeReplayDriver.generatedTrades(workload, START, 180, 1);
+        Map<String, double[]> expected = new HashMap<>();
+        List<Trade> all = new ArrayList<>();
+        while (trades.hasNext()) {
+            Trade trade = trades.next();
+            all.add(trade);
+            lastTimestamps.put(trade.getCurrencyPair(), trade.getTimestampNanos());
+        }
+        assertEquals(all.size(), report.getTradesReplayed());
+        // The clock was left at the last trade
+        assertEquals(all.get(all.size() - 1).getTimestampNanos(), clock.nowNanos());
+        for (Trade trade : all) {
+            if (trade.getTimestampNanos() >= lastTimestamps.get(trade.getCurrencyPair()) - TradeTime.minutesToNanos(60)) {
+                double[] sums = expected.computeIfAbsent(trade.getCurrencyPair(), pair -> new double[3]);
+                sums[0] += trade.getPrice() * trade.getVolume();
+                sums[1] += trade.getVolume();
+                sums[2]++;
+            }
+        }
+        for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+            VWAPData vwapData = vwapCalculator.getVWAPData(entry.getKey());
+            assertEquals((int) entry.getValue()[2], vwapData.getNewestQueueSize(), entry.getKey());
+            assertEquals(entry.getValue()[0] / entry.getValue()[1], vwapData.getVWAP(), 1e-9, entry.getKey());
+        }
+    }
+
+    @Test
+    void testResourceCyclesRunOnSimulatedTimeAndReplaysAreDeterministic() {
+        Map<String, Double> firstVWAPs = new HashMap<>();
+        Map<String, Double> secondVWAPs = new HashMap<>();
+        TradeReplayDriver.Report first = replayWithResourceManager(firstVWAPs);
+        TradeReplayDriver.Report second = replayWithResourceManager(secondVWAPs);
+
+        // Two hours with a cycle every simulated 30 seconds
+        assertEquals(240, first.getCyclesRun(), 1);
+        assertEquals(first.getCyclesRun(), second.getCyclesRun());
+        assertEquals(first.getTradesReplayed(), second.getTradesReplayed());
+        assertEquals(firstVWAPs, secondVWAPs);
+    }
+
+    private TradeReplayDriver.Report replayWithResourceManager(Map<String, Double> vwaps) {
+        WorkloadProfile workload = WorkloadProfile.production(CurrencyPairData.createDefault(), 5);
+        SimulatedTradeClock clock = new SimulatedTradeClock(START);
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, new long[] { 60 }, WindowMode.TRADES,
+                ExecutionMode.SHARED_POOL, clock);
+        try (H2ConnectionPool pool = new H2ConnectionPool("jdbc:h2:mem:tradeReplayTest" + runNumber++
+                + ";DB_CLOSE_DELAY=-1", "sa", "", 4)) {
+            // A low threshold per pair so the busiest pairs are backed up to the DB during the replay
+            TradeResourceManager resourceManager = new TradeResourceManager(vwapCalculator, 2_000, 1_000_000,
+                    new PooledH2TradeDAO(pool), 2, clock);
+            resourceManager.setReportStream(null);
+            TradeReplayDriver driver = new TradeReplayDriver(vwapCalculator, clock, 60);
+            driver.setResourceManager(resourceManager, 30_000);
+            TradeReplayDriver.Report report = driver.replay(TradeReplayDriver.generatedTrades(workload, START, 120, 3));
+
+            // Backups are dated on the simulated clock, not the wall clock
+            VWAPData busiest = vwapCalculator.getVWAPData("EUR/USD");
+            assertTrue(!busiest.getLastBackup().isBefore(START) && !busiest.getLastBackup().isAfter(clock.now()),
+                    "Last backup at " + busiest.getLastBackup());
+            for (Map.Entry<String, VWAPData> entry : vwapCalculator.getDataMap().entrySet()) {
+                vwaps.put(entry.getKey(), entry.getValue().getVWAP());
+            }
+            resourceManager.shutdown();
+            return report;
+        } finally {
+            vwapCalculator.shutdown();
+        }
+    }
+}
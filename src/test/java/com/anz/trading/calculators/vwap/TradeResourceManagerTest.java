@@ -3,9 +3,18 @@ package com.anz.trading.calculators.vwap;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -244,4 +253,144 @@ class TradeResourceManagerTest {
         // Ensure loadNewestToDB was invoked at least once
         verify(mockTradeLogger, atLeastOnce()).loadNewestToDB(any(), anyString(), anyBoolean());
     }
+
+    @Test
+    void testManageResources_PairsAreBackedUpInParallel() {
+        // Four pairs, all over the per-pair threshold
+        Map<String, VWAPData> mockDataMap = new LinkedHashMap<>();
+        String[] pairs = { "USD/EUR", "JPY/USD", "GBP/USD", "AUD/USD" };
+        for (int i = 0; i < pairs.length; i++) {
+            VWAPData mockVWAPData = mock(VWAPData.class);
+            when(mockVWAPData.getCombinedQueueSize()).thenReturn(150 + i);
+            when(mockVWAPData.getNewestQueueSize()).thenReturn(50);
+            when(mockVWAPData.getNewestTierSize()).thenReturn(50, 0);
+            when(mockVWAPData.getLastBackup()).thenReturn(LocalDateTime.now().minusMinutes(61));
+            mockDataMap.put(pairs[i], mockVWAPData);
+        }
+        VWAPCalculator mockVWAPCalculator = mock(VWAPCalculator.class);
+        when(mockVWAPCalculator.getDataMap()).thenReturn(mockDataMap);
+
+        // Each backup only returns once all four are in progress, which cannot happen if they run one after another
+        CountDownLatch allPairsStarted = new CountDownLatch(pairs.length);
+        TradeLogger mockTradeLogger = mock(TradeLogger.class);
+        doAnswer(invocation -> {
+            allPairsStarted.countDown();
+            assertTrue(allPairsStarted.await(5, TimeUnit.SECONDS), "Pairs were not backed up in parallel");
+            return null;
+        }).when(mockTradeLogger).loadNewestToDB(any(), anyString(), anyBoolean());
+
+        TradeResourceManager resourceManager = new TradeResourceManager(mockVWAPCalculator, 100, 5000,
+                mock(TradeDAO.class), pairs.length);
+        resourceManager.setTradeLogger(mockTradeLogger);
+
+        // The last pair keeps 103 trades once its 50 newest are in the DB
+        assertEquals("AUD/USD", resourceManager.manageResources(60));
+        for (String pair : pairs) {
+            verify(mockTradeLogger, times(1)).loadNewestToDB(mockVWAPCalculator, pair, true);
+        }
+        resourceManager.shutdown();
+        assertThrows(IllegalArgumentException.class,
+                () -> new TradeResourceManager(mockVWAPCalculator, 100, 5000, mock(TradeDAO.class), 0));
+    }
+
+    @Test
+    void testScheduledCyclesRunOffTheCallingThread() {
+        VWAPData mockVWAPData = mock(VWAPData.class);
+        when(mockVWAPData.getCombinedQueueSize()).thenReturn(150); // Exceeds threshold every cycle
+        when(mockVWAPData.getNewestQueueSize()).thenReturn(50);
+        when(mockVWAPData.getLastBackup()).thenReturn(LocalDateTime.now().minusMinutes(61));
+        Map<String, VWAPData> mockDataMap = new HashMap<>();
+        mockDataMap.put("USD/EUR", mockVWAPData);
+        VWAPCalculator mockVWAPCalculator = mock(VWAPCalculator.class);
+        when(mockVWAPCalculator.getDataMap()).thenReturn(mockDataMap);
+
+        Set<String> backupThreads = ConcurrentHashMap.newKeySet();
+        TradeLogger mockTradeLogger = mock(TradeLogger.class);
+        doAnswer(invocation -> backupThreads.add(Thread.currentThread().getName()))
+                .when(mockTradeLogger).loadNewestToDB(any(), anyString(), anyBoolean());
+
+        TradeResourceManager resourceManager = new TradeResourceManager(mockVWAPCalculator, 100, 1000,
+                mock(TradeDAO.class), 1);
+        resourceManager.setTradeLogger(mockTradeLogger);
+        assertThrows(IllegalArgumentException.class, () -> resourceManager.start(60, 10, 10));
+
+        resourceManager.recordTrades(150);
+        resourceManager.start(60, 20, 5);
+        assertTrue(resourceManager.isRunning());
+        assertThrows(IllegalStateException.class, () -> resourceManager.start(60, 20, 5));
+
+        // Several cycles run without the test thread calling manageResources
+        verify(mockTradeLogger, timeout(5000).atLeast(3)).loadNewestToDB(mockVWAPCalculator, "USD/EUR", true);
+        assertEquals(Set.of("trade-resource-manager"), backupThreads);
+        assertEquals("USD/EUR", resourceManager.getLastMaxTradeCurrencyPair());
+
+        resourceManager.shutdown();
+        assertFalse(resourceManager.isRunning());
+        int cyclesAtStop = mockingDetails(mockTradeLogger).getInvocations().size();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        assertEquals(cyclesAtStop, mockingDetails(mockTradeLogger).getInvocations().size(), "No cycle runs after stop");
+    }
+
+    @Test
+    void testManageResources_PairsAreWrittenBehindSideBySide() throws Exception {
+        String[] pairs = { "USD/EUR", "JPY/USD", "GBP/USD", "AUD/USD" };
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, 60);
+        for (String pair : pairs) {
+            for (int i = 0; i < 150; i++) {
+                vwapCalculator.processDataWithoutExecutor(new Trade(1.1, 100, LocalDateTime.now(), pair));
+            }
+        }
+
+        // Each write waits for the cycle to return and for all four writes to be in progress, which neither
+        // a cycle writing synchronously nor a single writer thread could allow
+        CountDownLatch cycleReturned = new CountDownLatch(1);
+        CountDownLatch allPairsWriting = new CountDownLatch(pairs.length);
+        Set<String> failures = ConcurrentHashMap.newKeySet();
+        AtomicInteger tradesWritten = new AtomicInteger();
+        TradeDAO persistentDAO = mock(TradeDAO.class);
+        doAnswer(invocation -> {
+            tradesWritten.addAndGet(invocation.<Queue<Trade>>getArgument(0).size());
+            allPairsWriting.countDown();
+            if (!cycleReturned.await(5, TimeUnit.SECONDS)) {
+                failures.add("Cycle waited for its backups to be written");
+            }
+            if (!allPairsWriting.await(5, TimeUnit.SECONDS)) {
+                failures.add("Backups were not written in parallel");
+            }
+            return null;
+        }).when(persistentDAO).insertTradesFrom(any());
+
+        TradeResourceManager resourceManager = new TradeResourceManager(vwapCalculator, 100, 5000, persistentDAO, pairs.length);
+        resourceManager.setReportStream(null);
+        resourceManager.manageResources(60);
+        cycleReturned.countDown();
+        resourceManager.flush();
+        resourceManager.shutdown();
+
+        assertEquals(Set.of(), failures);
+        assertEquals(150 * pairs.length, tradesWritten.get());
+        for (String pair : pairs) {
+            assertEquals(0, vwapCalculator.getVWAPData(pair).getNewestQueueSize(), pair);
+            assertTrue(vwapCalculator.getVWAPData(pair).getLastBackup().isAfter(LocalDateTime.now().minusMinutes(1)), pair);
+        }
+        vwapCalculator.shutdown();
+    }
+
+    @Test
+    void testManageResources_ReportGoesToTheGivenStreamOrNowhere() {
+        when(mockVWAPCalculator.getDataMap()).thenReturn(new HashMap<>());
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        resourceManager.setReportStream(new PrintStream(report, true));
+        resourceManager.manageResources(60);
+        assertTrue(report.toString().startsWith("Resource Query at "), report.toString());
+
+        report.reset();
+        resourceManager.setReportStream(null);
+        resourceManager.manageResources(60);
+        assertEquals(0, report.size());
+    }
 }
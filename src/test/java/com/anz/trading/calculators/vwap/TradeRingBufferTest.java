@@ -0,0 +1,88 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TradeRingBufferTest {
+
+    @Test
+    public void testAddAndRemoveInArrivalOrder() {
+        TradeRingBuffer buffer = new TradeRingBuffer(4);
+        buffer.add(1.0, 100, 10L);
+        buffer.add(1.1, 200, 20L);
+
+        assertEquals(2, buffer.size());
+        assertEquals(1.0, buffer.peekPrice(), 0.0001);
+        assertEquals(100, buffer.peekVolume());
+        assertEquals(10L, buffer.peekTimestamp());
+
+        buffer.removeFirst();
+        assertEquals(1.1, buffer.peekPrice(), 0.0001);
+        assertEquals(20L, buffer.peekTimestamp());
+
+        buffer.removeFirst();
+        assertTrue(buffer.isEmpty());
+        assertThrows(IllegalStateException.class, buffer::removeFirst);
+    }
+
+    @Test
+    public void testGrowsAcrossWrappedSlots() {
+        TradeRingBuffer buffer = new TradeRingBuffer(4);
+
+        // Advance the head so the ring wraps before it has to grow
+        for (int i = 0; i < 3; i++) {
+            buffer.add(i, i, i);
+        }
+        buffer.removeFirst();
+        buffer.removeFirst();
+        for (int i = 3; i < 10; i++) {
+            buffer.add(i, i, i);
+        }
+
+        assertEquals(8, buffer.size());
+        assertEquals(8, buffer.capacity(), "Capacity should double once the ring is full");
+        for (int i = 2; i < 10; i++) {
+            assertEquals(i, buffer.peekTimestamp(), "Trades should stay oldest first after growing");
+            buffer.removeFirst();
+        }
+    }
+
+    @Test
+    public void testClearReleasesGrownCapacity() {
+        TradeRingBuffer buffer = new TradeRingBuffer(4);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(i, i, i);
+        }
+
+        buffer.clear();
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(4, buffer.capacity());
+    }
+
+    @Test
+    public void testToTradesRoundTripsTimestamps() {
+        LocalDateTime timestamp = LocalDateTime.of(2024, 12, 16, 10, 30, 0, 123456789);
+        TradeRingBuffer buffer = new TradeRingBuffer();
+        buffer.add(new Trade(1.15, 500, timestamp, "EUR/USD"));
+        buffer.add(new Trade(1.16, 600, timestamp.plusSeconds(1), "EUR/USD"));
+
+        Queue<Trade> trades = buffer.toTrades("EUR/USD");
+
+        assertEquals(2, trades.size());
+        Iterator<Trade> iterator = trades.iterator();
+        Trade first = iterator.next();
+        assertEquals(1.15, first.getPrice(), 0.0001);
+        assertEquals(500, first.getVolume());
+        assertEquals(timestamp, first.getTimestamp());
+        assertEquals("EUR/USD", first.getCurrencyPair());
+        assertEquals(timestamp.plusSeconds(1), iterator.next().getTimestamp());
+    }
+}
@@ -1,6 +1,7 @@
 package com.anz.trading.calculators.vwap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.time.LocalDateTime;
 import org.junit.jupiter.api.Test;
 
@@ -27,4 +28,24 @@ public class TradeTest {
         assertEquals(expectedTimestamp, trade.getTimestamp());
         assertEquals(expectedCurrencyPair, trade.getCurrencyPair());
     }
+
+    @Test
+    public void testEpochNanosConstructorMatchesLocalDateTime() {
+        LocalDateTime timestamp = LocalDateTime.of(2024, 12, 16, 10, 30, 0, 123456789);
+
+        Trade fromLocalDateTime = new Trade(100.5, 500, timestamp, "USD/EUR");
+        Trade fromEpochNanos = new Trade(100.5, 500, TradeTime.toEpochNanos(timestamp), "USD/EUR");
+
+        assertEquals(fromLocalDateTime.getTimestampNanos(), fromEpochNanos.getTimestampNanos());
+        assertEquals(timestamp, fromEpochNanos.getTimestamp());
+    }
+
+    @Test
+    public void testNowNanosTracksLocalWallClock() {
+        long before = TradeTime.toEpochNanos(LocalDateTime.now().minusSeconds(1));
+        long now = TradeTime.nowNanos();
+        long after = TradeTime.toEpochNanos(LocalDateTime.now().plusSeconds(1));
+
+        assertTrue(now >= before && now <= after, "nowNanos should match LocalDateTime.now()");
+    }
 }
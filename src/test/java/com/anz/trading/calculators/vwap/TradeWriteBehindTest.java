@@ -0,0 +1,119 @@
+package com.anz.trading.calculators.vwap;
+
+import org.junit.jupiter.api.Test;
+
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TradeWriteBehindTest {
+
+    private static List<Trade> trades(int count) {
+        List<Trade> trades = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < count; i++) {
+            trades.add(new Trade(1.0 + i, 100, now.minusSeconds(i), "EUR/USD"));
+        }
+        return trades;
+    }
+
+    @Test
+    void testFlushWaitsForEveryTradeToBeWritten() throws SQLException {
+        TradeDAO tradeDAO = mock(TradeDAO.class);
+        AtomicInteger written = new AtomicInteger();
+        doAnswer(invocation -> {
+            written.addAndGet(invocation.<Queue<Trade>>getArgument(0).size());
+            return null;
+        }).when(tradeDAO).insertTradesFrom(any());
+
+        TradeWriteBehind writeBehind = new TradeWriteBehind(tradeDAO, 1000, 50);
+        writeBehind.submit(trades(120));
+        writeBehind.submit(trades(80));
+        writeBehind.flush();
+
+        assertEquals(200, written.get());
+        assertEquals(0, writeBehind.getPendingCount());
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void testSubmitBlocksWhileTheQueueIsFull() throws Exception {
+        TradeDAO tradeDAO = mock(TradeDAO.class);
+        CountDownLatch releaseWriter = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            releaseWriter.await();
+            return null;
+        }).when(tradeDAO).insertTradesFrom(any());
+
+        TradeWriteBehind writeBehind = new TradeWriteBehind(tradeDAO, 2, 1);
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            writeBehind.submit(trades(10));
+            submitted.countDown();
+        });
+        producer.start();
+
+        // The writer is stuck on its first trade, so at most 3 of the 10 can be taken
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS), "Submit should block until the writer catches up");
+
+        releaseWriter.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        writeBehind.shutdown();
+        verify(tradeDAO, times(10)).insertTradesFrom(any());
+    }
+
+    @Test
+    void testFailedBatchIsRetriedAndConfirmedOnlyOnceWritten() throws Exception {
+        TradeDAO tradeDAO = mock(TradeDAO.class);
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            // The DB is down for the first three attempts
+            if (attempts.incrementAndGet() <= 3) {
+                throw new SQLException("DB unavailable");
+            }
+            written.addAndGet(invocation.<Queue<Trade>>getArgument(0).size());
+            return null;
+        }).when(tradeDAO).insertTradesFrom(any());
+
+        TradeWriteBehind writeBehind = new TradeWriteBehind(tradeDAO, 100);
+        CountDownLatch confirmed = new CountDownLatch(1);
+        writeBehind.submit(trades(5), confirmed::countDown);
+
+        // Reported while failing, but the trades are kept for the next attempt
+        RuntimeException exception = assertThrows(RuntimeException.class, writeBehind::flush);
+        assertTrue(exception.getCause() instanceof SQLException);
+        assertEquals(0, written.get());
+
+        assertTrue(confirmed.await(5, TimeUnit.SECONDS), "Trades should be confirmed once the retry succeeds");
+        assertEquals(5, written.get());
+        assertDoesNotThrow(writeBehind::flush);
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void testShutdownReportsTradesThatCouldNotBeWritten() throws SQLException {
+        TradeDAO tradeDAO = mock(TradeDAO.class);
+        doThrow(new SQLException("DB unavailable")).when(tradeDAO).insertTradesFrom(any());
+
+        TradeWriteBehind writeBehind = new TradeWriteBehind(tradeDAO, 100);
+        AtomicInteger confirmed = new AtomicInteger();
+        writeBehind.submit(trades(5), confirmed::incrementAndGet);
+
+        RuntimeException exception = assertThrows(RuntimeException.class, writeBehind::shutdown);
+        assertTrue(exception.getMessage().contains("5 trades not written"), exception.getMessage());
+        assertTrue(exception.getCause() instanceof SQLException);
+        assertEquals(0, confirmed.get());
+    }
+}
@@ -3,11 +3,16 @@ package com.anz.trading.calculators.vwap;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VWAPCalculatorTest {
@@ -82,4 +87,191 @@ public class VWAPCalculatorTest {
         // Ensure the hashMap works as expected with respect to buckets
         assertEquals(dataMap.size(), 2, "Only 2 unique ccy pairs have been declared over 4 trades");
     }
+
+    @Test
+    public void testPinnedLanes_AppliesTradesForAPairInSubmissionOrder() {
+        // Arrange
+        VWAPCalculator pinnedCalculator = new VWAPCalculator((byte) 4, 60, ExecutionMode.PINNED_LANES);
+        LocalDateTime start = LocalDateTime.now().minusHours(24);
+        int nbrTrades = 1000;
+
+        // Act: one trade a minute, so eviction only works if they are applied in order
+        for (int i = 0; i < nbrTrades; i++) {
+            pinnedCalculator.processData(new Trade(1.0 + i, 100, start.plusMinutes(i), "EUR/USD"));
+        }
+        double result = pinnedCalculator.getVWAP("EUR/USD");
+        pinnedCalculator.shutdown();
+
+        // Only the last 61 trades are within 60 minutes of the final trade
+        double expectedVWAP = 0;
+        for (int i = nbrTrades - 61; i < nbrTrades; i++) {
+            expectedVWAP += 1.0 + i;
+        }
+        expectedVWAP /= 61;
+
+        // Assert
+        assertEquals(expectedVWAP, result, 0.0001, "VWAP for EUR/USD is incorrect");
+        assertEquals(61, pinnedCalculator.getVWAPData("EUR/USD").getCombinedQueueSize());
+    }
+
+    @Test
+    public void testSharedPool_AppliesTradesForAPairInSubmissionOrder() {
+        // Arrange: several workers, which would race each other over the pair's trades if they weren't serialised
+        VWAPCalculator sharedCalculator = new VWAPCalculator((byte) 4, 60, ExecutionMode.SHARED_POOL);
+        LocalDateTime start = LocalDateTime.now().minusHours(24);
+        int nbrTrades = 20_000;
+
+        // Act: one trade a minute, so eviction only works if they are applied in order
+        for (int i = 0; i < nbrTrades; i++) {
+            sharedCalculator.processData(new Trade(1.0 + i, 100, start.plusMinutes(i), "EUR/USD"));
+        }
+        double result = sharedCalculator.getVWAP("EUR/USD");
+        sharedCalculator.shutdown();
+
+        // Assert: only the last 61 trades are within 60 minutes of the final trade
+        assertEquals(nbrTrades - 30, result, 0.0001, "VWAP for EUR/USD is incorrect");
+        assertEquals(61, sharedCalculator.getVWAPData("EUR/USD").getCombinedQueueSize());
+    }
+
+    @Test
+    public void testSharedPool_GetVWAPSeesTheCallersOwnTrades() throws InterruptedException {
+        // Arrange: producers share one pair, so their tasks interleave on the pool's workers
+        VWAPCalculator sharedCalculator = new VWAPCalculator((byte) 4, 60, ExecutionMode.SHARED_POOL);
+        int nbrProducers = 4;
+        int tradesPerProducer = 500;
+        AtomicInteger missedOwnTrades = new AtomicInteger();
+
+        // Act: after every trade, the producer's getVWAP must already include it
+        Thread[] producers = new Thread[nbrProducers];
+        for (int p = 0; p < nbrProducers; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < tradesPerProducer; i++) {
+                    Trade trade = new Trade(1.0, 100, LocalDateTime.now(), "EUR/USD");
+                    sharedCalculator.processData(trade);
+                    sharedCalculator.getVWAP("EUR/USD");
+                    if (!sharedCalculator.getVWAPData("EUR/USD").getNewestQueue().stream()
+                            .anyMatch(applied -> applied.getSequenceId() == trade.getSequenceId())) {
+                        missedOwnTrades.incrementAndGet();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        sharedCalculator.shutdown();
+
+        // Assert
+        assertEquals(0, missedOwnTrades.get(), "getVWAP returned before the caller's own trade was applied");
+        assertEquals(nbrProducers * tradesPerProducer, sharedCalculator.getVWAPData("EUR/USD").getNewestQueueSize());
+    }
+
+    @Test
+    public void testSharedPool_RejectedTradesDoNotLeaveGetVWAPWaiting() throws InterruptedException {
+        // Arrange: a pool that rejects everything, with producers racing to queue trades for one pair
+        VWAPCalculator sharedCalculator = new VWAPCalculator((byte) 2, 60, ExecutionMode.SHARED_POOL);
+        sharedCalculator.processData(new Trade(1.0, 100, LocalDateTime.now(), "EUR/USD"));
+        sharedCalculator.shutdown();
+        int nbrProducers = 4;
+        int tradesPerProducer = 20_000;
+        AtomicInteger rejected = new AtomicInteger();
+
+        // Act
+        Thread[] producers = new Thread[nbrProducers];
+        for (int p = 0; p < nbrProducers; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < tradesPerProducer; i++) {
+                    try {
+                        sharedCalculator.processData(new Trade(1.0, 100, LocalDateTime.now(), "EUR/USD"));
+                    } catch (RejectedExecutionException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Assert: every dropped trade counts as applied, so the reader returns with only the first trade
+        assertTrue(rejected.get() > 0);
+        assertEquals(1.0, assertTimeoutPreemptively(Duration.ofSeconds(10), () -> sharedCalculator.getVWAP("EUR/USD")));
+        assertThrows(RejectedExecutionException.class, () -> sharedCalculator.processBatch(
+                new Trade[] { new Trade(1.0, 100, LocalDateTime.now(), "EUR/USD") }));
+        assertEquals(1.0, assertTimeoutPreemptively(Duration.ofSeconds(10), () -> sharedCalculator.getVWAP("EUR/USD")));
+    }
+
+    @Test
+    public void testPinnedLanes_SamePairAlwaysUsesSameLane() {
+        VWAPCalculator pinnedCalculator = new VWAPCalculator((byte) 4, 60, ExecutionMode.PINNED_LANES);
+
+        int lane = pinnedCalculator.laneIndex("USD/JPY");
+
+        assertTrue(lane >= 0 && lane < 4, "Lane index should be within the number of lanes");
+        assertEquals(lane, pinnedCalculator.laneIndex(new String("USD/JPY")));
+        assertEquals(-1, vwapCalculator.laneIndex("USD/JPY"), "Shared pool mode has no lanes");
+        pinnedCalculator.shutdown();
+    }
+
+    @Test
+    public void testProcessData_ReportsTrimmedTradesOnceApplied() {
+        // Arrange
+        LocalDateTime now = LocalDateTime.now();
+        Trade oldTrade = new Trade(1.0, 200, now.minusMinutes(65), "EUR/USD");
+        Trade newTrade = new Trade(1.01, 300, now.minusMinutes(1), "EUR/USD");
+
+        // Act
+        vwapCalculator.processData(oldTrade);
+        vwapCalculator.processData(newTrade);
+        double result = vwapCalculator.getVWAP("EUR/USD"); // Waits for both trades to be applied
+        int trimmed = vwapCalculator.processData(new Trade(1.02, 100, now, "EUR/USD"));
+
+        // Assert
+        assertEquals(1.01, result, 0.0001, "Only the newer trade should remain in the window");
+        assertEquals(1, trimmed, "The trade trimmed by an earlier task should be reported by the next call");
+    }
+
+    @Test
+    public void testProcessBatch_GroupsByPairAndReturnsTrimmedCounts() {
+        // Arrange
+        LocalDateTime now = LocalDateTime.now();
+        Trade[] trades = {
+            new Trade(1.0, 200, now.minusMinutes(65), "EUR/USD"),
+            new Trade(110.0, 100, now.minusMinutes(5), "USD/JPY"),
+            new Trade(1.01, 300, now.minusMinutes(1), "EUR/USD"),
+            new Trade(112.0, 200, now, "USD/JPY")
+        };
+
+        // Act
+        Map<String, Integer> trimmed = vwapCalculator.processBatch(trades);
+
+        // Assert
+        assertEquals(2, trimmed.size());
+        assertEquals(1, trimmed.get("EUR/USD"), "The 65 minute old trade should be trimmed");
+        assertEquals(0, trimmed.get("USD/JPY"));
+        assertEquals(1.01, vwapCalculator.getVWAP("EUR/USD"), 0.0001);
+        assertEquals((110.0 * 100 + 112.0 * 200) / 300, vwapCalculator.getVWAP("USD/JPY"), 0.0001);
+    }
+
+    @Test
+    public void testGetVWAP_ServesEveryConfiguredWindow() {
+        VWAPCalculator multiWindowCalculator = new VWAPCalculator((byte) 2, new long[] {1, 5, 15, 60},
+                WindowMode.TRADES, ExecutionMode.PINNED_LANES);
+        LocalDateTime start = LocalDateTime.now().minusMinutes(90);
+
+        // One trade a minute priced at its minute index
+        for (int i = 0; i < 90; i++) {
+            multiWindowCalculator.processData(new Trade(i, 100, start.plusMinutes(i), "GBP/USD"));
+        }
+
+        // An n minute window holds the last n + 1 trades, averaging to 89 - n / 2
+        assertEquals(88.5, multiWindowCalculator.getVWAP("GBP/USD", 1), 0.0001);
+        assertEquals(86.5, multiWindowCalculator.getVWAP("GBP/USD", 5), 0.0001);
+        assertEquals(81.5, multiWindowCalculator.getVWAP("GBP/USD", 15), 0.0001);
+        assertEquals(59.0, multiWindowCalculator.getVWAP("GBP/USD", 60), 0.0001);
+        assertEquals(multiWindowCalculator.getVWAP("GBP/USD"), multiWindowCalculator.getVWAP("GBP/USD", 60));
+        multiWindowCalculator.shutdown();
+    }
 }
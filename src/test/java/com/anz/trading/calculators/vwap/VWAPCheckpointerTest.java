@@ -0,0 +1,190 @@
+package com.anz.trading.calculators.vwap;
+
+import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VWAPCheckpointerTest {
+
+    @TempDir
+    Path checkpointDirectory;
+
+    private final LocalDateTime start = LocalDateTime.now().minusMinutes(30);
+
+    // One trade every 10 seconds from the start time
+    private Queue<Trade> trades(int from, int count) {
+        return trades(from, count, "EUR/USD");
+    }
+
+    private Queue<Trade> trades(int from, int count, String currencyPair) {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        for (int i = from; i < from + count; i++) {
+            trades.add(new Trade(1.10 + (i % 17) * 0.001, 1000 + i, start.plusSeconds(10L * i), currencyPair));
+        }
+        return trades;
+    }
+
+    private static void process(VWAPCalculator calculator, Queue<Trade> trades) {
+        for (Trade trade : trades) {
+            calculator.processDataWithoutExecutor(trade);
+        }
+    }
+
+    @Test
+    public void testRestore_ReproducesEveryWindowInEachMode() throws Exception {
+        for (WindowMode windowMode : WindowMode.values()) {
+            long[] windows = windowMode == WindowMode.BUCKETED ? new long[] { 60 } : new long[] { 5, 60 };
+            VWAPCalculator original = new VWAPCalculator((byte) 1, windows, windowMode, ExecutionMode.SHARED_POOL);
+            process(original, trades(0, 100));
+            original.getVWAPData("EUR/USD").setLastBackup(start);
+
+            VWAPCheckpointer checkpointer = new VWAPCheckpointer(original, checkpointDirectory.resolve(windowMode + ".ckpt"));
+            assertEquals(1, checkpointer.checkpoint());
+
+            VWAPCalculator restarted = new VWAPCalculator((byte) 1, windows, windowMode, ExecutionMode.SHARED_POOL);
+            assertEquals(1, new VWAPCheckpointer(restarted, checkpointer.getCheckpointFile()).restore(null));
+
+            VWAPData restored = restarted.getVWAPData("EUR/USD");
+            assertEquals(original.getVWAPData("EUR/USD").getTradeCount(), restored.getTradeCount(), windowMode.name());
+            assertEquals(start, restored.getLastBackup(), windowMode.name());
+            for (long window : windows) {
+                assertEquals(original.getVWAP("EUR/USD", window), restarted.getVWAP("EUR/USD", window), 1e-12, windowMode.name());
+            }
+
+            // The restored window keeps evicting exactly as the original does
+            Queue<Trade> later = trades(100, 100);
+            process(original, later);
+            process(restarted, later);
+            for (long window : windows) {
+                assertEquals(original.getVWAP("EUR/USD", window), restarted.getVWAP("EUR/USD", window), 1e-12, windowMode.name());
+            }
+            original.shutdown();
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestore_ReplaysOnlyTradesWrittenAfterTheCheckpoint() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:checkpointReplayTest", "sa", "")) {
+            TradeDAO persistentDAO = new H2TradePersistent(connection);
+            persistentDAO.createTable();
+
+            VWAPCalculator original = new VWAPCalculator((byte) 1, 60);
+            process(original, trades(0, 100));
+            // Everything so far is already in the DB, and must not be applied a second time
+            persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+
+            VWAPCheckpointer checkpointer = new VWAPCheckpointer(original, checkpointDirectory.resolve("vwap.ckpt"));
+            checkpointer.checkpoint();
+
+            // Trades processed and written after the checkpoint, then the process dies
+            process(original, trades(100, 50));
+            persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+
+            VWAPCalculator restarted = new VWAPCalculator((byte) 1, 60);
+            new VWAPCheckpointer(restarted, checkpointer.getCheckpointFile()).restore(persistentDAO);
+
+            assertEquals(original.getVWAP("EUR/USD"), restarted.getVWAP("EUR/USD"), 1e-12);
+            assertEquals(150, restarted.getVWAPData("EUR/USD").getTradeCount());
+            // Replayed trades came from the DB so they are not written again
+            assertEquals(0, restarted.getVWAPData("EUR/USD").getNewestQueueSize());
+            original.shutdown();
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestore_ReplaysEachPairFromItsOwnSequenceId() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:checkpointReplayPairsTest", "sa", "")) {
+            TradeDAO persistentDAO = new H2TradePersistent(connection);
+            persistentDAO.createTable();
+
+            // GBP/USD's trades come after EUR/USD's, so those already applied are above EUR/USD's sequence id
+            VWAPCalculator original = new VWAPCalculator((byte) 1, 60);
+            process(original, trades(0, 100, "EUR/USD"));
+            process(original, trades(0, 80, "GBP/USD"));
+            persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+            persistentDAO.insertTradesFrom(original.getVWAPData("GBP/USD").getNewestQueueAndMarkPersisted());
+
+            VWAPCheckpointer checkpointer = new VWAPCheckpointer(original, checkpointDirectory.resolve("pairs.ckpt"));
+            assertEquals(2, checkpointer.checkpoint());
+
+            process(original, trades(100, 50, "EUR/USD"));
+            process(original, trades(80, 30, "GBP/USD"));
+            persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+            persistentDAO.insertTradesFrom(original.getVWAPData("GBP/USD").getNewestQueueAndMarkPersisted());
+
+            VWAPCalculator restarted = new VWAPCalculator((byte) 1, 60);
+            assertEquals(2, new VWAPCheckpointer(restarted, checkpointer.getCheckpointFile()).restore(persistentDAO));
+
+            assertEquals(150, restarted.getVWAPData("EUR/USD").getTradeCount());
+            assertEquals(110, restarted.getVWAPData("GBP/USD").getTradeCount());
+            assertEquals(original.getVWAP("EUR/USD"), restarted.getVWAP("EUR/USD"), 1e-12);
+            assertEquals(original.getVWAP("GBP/USD"), restarted.getVWAP("GBP/USD"), 1e-12);
+            original.shutdown();
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestore_TakesTheTimeFromTheCalculatorsClock() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:checkpointClockTest", "sa", "")) {
+            TradeDAO persistentDAO = new H2TradePersistent(connection);
+            persistentDAO.createTable();
+
+            // A replay of a past session, nowhere near the wall clock
+            LocalDateTime sessionStart = LocalDateTime.of(2024, 1, 2, 9, 0);
+            SimulatedTradeClock clock = new SimulatedTradeClock(sessionStart);
+            long[] windows = { 60 };
+            VWAPCalculator original = new VWAPCalculator((byte) 1, windows, WindowMode.TRADES,
+                    ExecutionMode.SHARED_POOL, clock);
+            for (int i = 0; i < 150; i++) {
+                long timestampNanos = clock.advanceBy(TradeTime.minutesToNanos(1) / 6);
+                original.processDataWithoutExecutor(new Trade(1.10 + (i % 17) * 0.001, 1000 + i, timestampNanos,
+                        "EUR/USD"));
+                if (i == 99) {
+                    persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+                    new VWAPCheckpointer(original, checkpointDirectory.resolve("clock.ckpt")).checkpoint();
+                }
+            }
+            persistentDAO.insertTradesFrom(original.getVWAPData("EUR/USD").getNewestQueueAndMarkPersisted());
+
+            try (DataInputStream in = new DataInputStream(
+                    Files.newInputStream(checkpointDirectory.resolve("clock.ckpt")))) {
+                in.readInt();
+                in.readInt();
+                assertEquals(TradeTime.toEpochNanos(sessionStart.plusSeconds(1000)), in.readLong());
+            }
+
+            VWAPCalculator restarted = new VWAPCalculator((byte) 1, windows, WindowMode.TRADES,
+                    ExecutionMode.SHARED_POOL, clock);
+            new VWAPCheckpointer(restarted, checkpointDirectory.resolve("clock.ckpt")).restore(persistentDAO);
+
+            // The tail is searched around the simulated time, so the trades after the checkpoint are found
+            assertEquals(150, restarted.getVWAPData("EUR/USD").getTradeCount());
+            assertEquals(original.getVWAP("EUR/USD"), restarted.getVWAP("EUR/USD"), 1e-12);
+            original.shutdown();
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestore_NoCheckpointYet() throws Exception {
+        VWAPCalculator calculator = new VWAPCalculator((byte) 1, 60);
+        assertEquals(0, new VWAPCheckpointer(calculator, checkpointDirectory.resolve("missing.ckpt")).restore(null));
+        assertTrue(calculator.getDataMap().isEmpty());
+        calculator.shutdown();
+    }
+}
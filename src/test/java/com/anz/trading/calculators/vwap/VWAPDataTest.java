@@ -4,8 +4,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class VWAPDataTest {
 
@@ -36,6 +40,16 @@ public class VWAPDataTest {
         assertEquals(3, vwapData.getNewestQueueSize(), "Queue size should be 3 after adding 3 trades");
     }
 
+    @Test
+    public void testLastSequenceId_IsTheHighestApplied() {
+        // Trades created on different producer threads can arrive out of sequence id order
+        long nanos = TradeTime.toEpochNanos(LocalDateTime.now());
+        vwapData.addDataPoint(new Trade(1.0, 200, nanos, "EUR/USD", 7));
+        vwapData.addDataPoint(new Trade(1.01, 300, nanos + 1, "EUR/USD", 5));
+
+        assertEquals(7, vwapData.getLastSequenceId());
+    }
+
     @Test
     public void testAddDataPoint_WithinWindow() {
         LocalDateTime now = LocalDateTime.now();
@@ -69,4 +83,164 @@ public class VWAPDataTest {
         // No trades added
         assertEquals(0.0, vwapData.getVWAP(), "VWAP should be 0 for empty trades");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBucketedMode_KeepsNoTradesInMemory() {
+        VWAPData bucketedData = new VWAPData("EUR/USD", 60, WindowMode.BUCKETED);
+        LocalDateTime now = LocalDateTime.now();
+        Trade trade1 = new Trade(1.0, 200, now.minusMinutes(61), "EUR/USD");
+        Trade trade2 = new Trade(1.01, 300, now, "EUR/USD");
+
+        bucketedData.addDataPoint(trade1);
+        int trimmed = bucketedData.addDataPoint(trade2);
+
+        assertEquals(1, trimmed, "Trade older than the window should be trimmed from its bucket");
+        assertEquals(1.01, bucketedData.getVWAP(), 0.0001, "VWAP is incorrect");
+        assertEquals(1, bucketedData.getTradeCount());
+        assertEquals(0, bucketedData.getCombinedQueueSize(), "Bucketed mode should not retain individual trades");
+    }
+
+    @Test
+    public void testSnapshot_PublishesSumsCountAndLastTimestamp() {
+        LocalDateTime now = LocalDateTime.now();
+        vwapData.addDataPoint(new Trade(1.0, 200, now.minusMinutes(61), "EUR/USD"));
+        vwapData.addDataPoint(new Trade(1.01, 300, now, "EUR/USD"));
+
+        VWAPSnapshot snapshot = vwapData.getSnapshot();
+
+        assertEquals(1.01 * 300, snapshot.getSumPriceVolume(), 0.0001);
+        assertEquals(300, snapshot.getSumVolume());
+        assertEquals(1, snapshot.getTradeCount(), "Trimmed trade should not be counted");
+        assertEquals(now, snapshot.getLastTimestamp());
+        assertEquals(vwapData.getVWAP(), snapshot.getVWAP(), 0.0001);
+        // The tier counts come from the same write
+        assertEquals(1, snapshot.getNewestQueueSize());
+        assertEquals(0, snapshot.getOldQueueSize());
+        assertEquals(0, snapshot.getRestoredBarCount());
+        assertEquals(1, snapshot.getCombinedQueueSize());
+    }
+
+    @Test
+    public void testSnapshot_ReadersNeverSeeTornWrites() throws InterruptedException {
+        // Trade i has price i and volume 1, so any consistent snapshot has sum = count * (count - 1) / 2
+        long start = TradeTime.nowNanos();
+        int nbrTrades = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < nbrTrades; i++) {
+                vwapData.addDataPoint(new Trade(i, 1, start + i, "EUR/USD"));
+            }
+        });
+        writer.start();
+
+        int inconsistentReads = 0;
+        while (writer.isAlive()) {
+            VWAPSnapshot snapshot = vwapData.getSnapshot();
+            long count = snapshot.getTradeCount();
+            if (snapshot.getSumVolume() != count || snapshot.getSumPriceVolume() != count * (count - 1) / 2.0) {
+                inconsistentReads++;
+            }
+        }
+        writer.join();
+
+        assertEquals(0, inconsistentReads, "Every snapshot should be internally consistent");
+        assertEquals(nbrTrades, vwapData.getTradeCount());
+    }
+
+    @Test
+    public void testMultipleWindows_MatchSeparateSingleWindowInstances() {
+        long[] windows = {1, 5, 15, 60};
+        VWAPData multiWindow = new VWAPData("EUR/USD", windows, WindowMode.TRADES);
+        VWAPData[] singleWindows = new VWAPData[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            singleWindows[i] = new VWAPData("EUR/USD", windows[i]);
+        }
+
+        LocalDateTime start = LocalDateTime.now().minusHours(3);
+        for (int i = 0; i < 600; i++) {
+            Trade trade = new Trade(1.0 + (i % 37) * 0.01, 100 + i, start.plusSeconds(i * 15L), "EUR/USD");
+            multiWindow.addDataPoint(trade);
+            for (VWAPData singleWindow : singleWindows) {
+                singleWindow.addDataPoint(trade);
+            }
+        }
+
+        for (int i = 0; i < windows.length; i++) {
+            assertEquals(singleWindows[i].getVWAP(), multiWindow.getVWAP(windows[i]), 1e-9,
+                    windows[i] + " minute VWAP is incorrect");
+        }
+        // Only the longest window's trades are held
+        assertEquals(singleWindows[3].getCombinedQueueSize(), multiWindow.getCombinedQueueSize());
+        assertThrows(IllegalArgumentException.class, () -> multiWindow.getVWAP(30));
+    }
+
+    @Test
+    public void testMultipleWindows_SpillKeepsShorterWindowTradesWithoutRewritingThem() {
+        VWAPData multiWindow = new VWAPData("EUR/USD", new long[] {5, 60}, WindowMode.TRADES);
+        LocalDateTime start = LocalDateTime.now().minusMinutes(30);
+        for (int i = 0; i < 20; i++) {
+            multiWindow.addDataPoint(new Trade(1.0 + i * 0.01, 100, start.plusMinutes(i), "EUR/USD"));
+        }
+
+        // All 20 go to the DB, the 6 still inside the 5 minute window stay in memory
+        assertEquals(20, multiWindow.getNewestQueueAndClear().size());
+        assertEquals(0, multiWindow.getNewestQueueSize());
+        assertEquals(6, multiWindow.getCombinedQueueSize());
+
+        for (int i = 20; i < 25; i++) {
+            multiWindow.addDataPoint(new Trade(1.0 + i * 0.01, 100, start.plusMinutes(i), "EUR/USD"));
+        }
+        assertEquals(5, multiWindow.getNewestQueue().size(), "Persisted trades should not be written again");
+
+        // The 5 minute window still evicts the spilled trades it was holding
+        double expectedVWAP = 0;
+        for (int i = 19; i < 25; i++) {
+            expectedVWAP += 1.0 + i * 0.01;
+        }
+        assertEquals(expectedVWAP / 6, multiWindow.getVWAP(5), 1e-9);
+    }
+
+    @Test
+    public void testTierCounts_TrackEveryChangeAndAreReadWithoutTheMonitor() throws InterruptedException {
+        long start = TradeTime.nowNanos() - TradeTime.minutesToNanos(90);
+        // 25 trades three minutes apart, the first four are out of the 60 minute window when the last arrives
+        for (int i = 0; i < 25; i++) {
+            vwapData.addDataPoint(new Trade(1.0, 10, start + TradeTime.minutesToNanos(i * 3), "EUR/USD"));
+        }
+        assertEquals(21, vwapData.getNewestQueueSize());
+        assertEquals(21, vwapData.getCombinedQueueSize());
+
+        vwapData.getNewestQueueAndMarkPersisted();
+        assertEquals(0, vwapData.getNewestQueueSize());
+        assertEquals(21, vwapData.getCombinedQueueSize(), "Marked trades are still held in memory");
+
+        vwapData.getNewestQueueAndClear();
+        assertEquals(0, vwapData.getCombinedQueueSize());
+        vwapData.restoreDataPoint(1.0, 10, start + TradeTime.minutesToNanos(70), 1);
+        vwapData.restoreMinuteBar(new MinuteBar("EUR/USD", start + TradeTime.minutesToNanos(71),
+                20.0, 20, 2, start + TradeTime.minutesToNanos(71), start + TradeTime.minutesToNanos(71)));
+        assertEquals(1, vwapData.getOldQueueSize());
+        assertEquals(1, vwapData.getRestoredBarCount());
+        assertEquals(1, vwapData.getCombinedQueueSize());
+
+        // Another thread holding the monitor must not stop the counts being read
+        CountDownLatch monitorHeld = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (vwapData) {
+                monitorHeld.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(monitorHeld.await(5, TimeUnit.SECONDS));
+        assertEquals(1, vwapData.getOldQueueSize());
+        assertEquals(1, vwapData.getCombinedQueueSize());
+        assertEquals(0, vwapData.getNewestQueueSize());
+        release.countDown();
+        holder.join();
+    }
+}
@@ -0,0 +1,63 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.anz.trading.calculators.vwap.ExecutionMode;
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeGenerator;
+import com.anz.trading.calculators.vwap.VWAPCalculator;
+
+/**
+ * Compares the per-trade cost of VWAPCalculator.processData against processBatch for the same
+ * pre-generated trades. Run as a plain main, optional args: trades, batch size, threads
+ */
+public class BatchIngestionBenchmark {
+
+    public static void main(String[] args) {
+        int nbrTrades = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        byte nbrThreads = args.length > 2 ? Byte.parseByte(args[2]) : 4;
+
+        TradeGenerator tradeGenerator = new TradeGenerator();
+        List<Trade> trades = new ArrayList<>(nbrTrades);
+        for (int i = 0; i < nbrTrades; i++) {
+            trades.add(tradeGenerator.generateRandomTrade());
+        }
+
+        // Two rounds each, the first is a JIT warm-up
+        for (int round = 0; round < 2; round++) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                System.out.printf("%-12s processData:  %8.1f ns/trade%n", mode, runSingle(trades, nbrThreads, mode));
+                System.out.printf("%-12s processBatch: %8.1f ns/trade (batch %d)%n", mode,
+                        runBatch(trades, batchSize, nbrThreads, mode), batchSize);
+            }
+        }
+    }
+
+    private static double runSingle(List<Trade> trades, byte nbrThreads, ExecutionMode mode) {
+        VWAPCalculator vwapCalculator = new VWAPCalculator(nbrThreads, 60, mode);
+        long start = System.nanoTime();
+        for (Trade trade : trades) {
+            vwapCalculator.processData(trade);
+        }
+        // getVWAP waits for every submitted trade of the pair to be applied
+        for (Trade trade : trades.subList(0, Math.min(1000, trades.size()))) {
+            vwapCalculator.getVWAP(trade.getCurrencyPair());
+        }
+        long elapsed = System.nanoTime() - start;
+        vwapCalculator.shutdown();
+        return (double) elapsed / trades.size();
+    }
+
+    private static double runBatch(List<Trade> trades, int batchSize, byte nbrThreads, ExecutionMode mode) {
+        VWAPCalculator vwapCalculator = new VWAPCalculator(nbrThreads, 60, mode);
+        long start = System.nanoTime();
+        for (int from = 0; from < trades.size(); from += batchSize) {
+            vwapCalculator.processBatch(trades.subList(from, Math.min(from + batchSize, trades.size())));
+        }
+        long elapsed = System.nanoTime() - start;
+        vwapCalculator.shutdown();
+        return (double) elapsed / trades.size();
+    }
+}
@@ -0,0 +1,100 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeGenerator;
+import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+
+/**
+ * Rows/sec written to H2 by the previous per-row MERGE (matched on price, volume, timestamp and pair)
+ * against the bulk-append path of H2TradePersistent. Each run uses a fresh in-memory database.
+ * Run as a plain main, optional args: comma separated trade counts, chunk size
+ */
+public class PersistenceThroughputBenchmark {
+
+    private static final String LEGACY_MERGE_SQL = "MERGE INTO trades AS target " +
+            "USING (VALUES (?, ?, ?, ?)) AS source(price, volume, timestamp, currency_pair) " +
+            "ON target.price = source.price " +
+            "AND target.volume = source.volume " +
+            "AND target.timestamp = source.timestamp " +
+            "AND target.currency_pair = source.currency_pair " +
+            "WHEN MATCHED THEN UPDATE SET target.price = source.price, " +
+            "target.volume = source.volume, " +
+            "target.timestamp = source.timestamp, " +
+            "target.currency_pair = source.currency_pair " +
+            "WHEN NOT MATCHED THEN INSERT (price, volume, timestamp, currency_pair) " +
+            "VALUES (source.price, source.volume, source.timestamp, source.currency_pair)";
+
+    private static int runNumber = 0;
+
+    public static void main(String[] args) throws SQLException {
+        String[] sizes = (args.length > 0 ? args[0] : "100000,1000000").split(",");
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : H2TradePersistent.DEFAULT_CHUNK_SIZE;
+
+        TradeGenerator tradeGenerator = new TradeGenerator();
+        for (String size : sizes) {
+            int nbrTrades = Integer.parseInt(size.trim());
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            for (int i = 0; i < nbrTrades; i++) {
+                trades.add(tradeGenerator.generateRandomTrade());
+            }
+
+            System.out.printf("%,d trades%n", nbrTrades);
+            System.out.printf("  legacy MERGE: %,12.0f rows/sec%n", runLegacyMerge(trades));
+            System.out.printf("  bulk append:  %,12.0f rows/sec (chunk %d)%n", runBulkAppend(trades, chunkSize), chunkSize);
+        }
+    }
+
+    private static Connection newDatabase() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:persistenceBenchmark" + runNumber++, "sa", "");
+    }
+
+    private static double runLegacyMerge(Queue<Trade> trades) throws SQLException {
+        try (Connection connection = newDatabase()) {
+            // Schema and indexes as they were before the bulk-append change
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE trades (id IDENTITY PRIMARY KEY, price DOUBLE, volume BIGINT, " +
+                        "timestamp TIMESTAMP, currency_pair VARCHAR(10))");
+                for (String column : new String[] {"price", "volume", "timestamp", "currency_pair"}) {
+                    stmt.execute("CREATE INDEX idx_" + column + " ON trades(" + column + ")");
+                }
+            }
+
+            long start = System.nanoTime();
+            try (PreparedStatement pstmt = connection.prepareStatement(LEGACY_MERGE_SQL)) {
+                for (Trade trade : trades) {
+                    pstmt.setDouble(1, trade.getPrice());
+                    pstmt.setLong(2, trade.getVolume());
+                    pstmt.setObject(3, trade.getTimestamp());
+                    pstmt.setString(4, trade.getCurrencyPair());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            return rowsPerSecond(trades.size(), System.nanoTime() - start);
+        }
+    }
+
+    private static double runBulkAppend(Queue<Trade> trades, int chunkSize) throws SQLException {
+        try (Connection connection = newDatabase()) {
+            TradeDAO tradeDAO = new H2TradePersistent(connection, chunkSize);
+            tradeDAO.createTable();
+
+            long start = System.nanoTime();
+            tradeDAO.insertTradesFrom(trades);
+            return rowsPerSecond(trades.size(), System.nanoTime() - start);
+        }
+    }
+
+    private static double rowsPerSecond(int rows, long elapsedNanos) {
+        return rows / (elapsedNanos / 1e9);
+    }
+}
@@ -0,0 +1,69 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.VWAPData;
+
+/**
+ * Measures VWAPData.getVWAP throughput for 1..N reader threads while one writer ingests trades for
+ * the same pair. Lock-free reads should scale with the reader count. Run as a plain main
+ */
+public class ReadContentionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxReaders = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() - 1;
+        long durationMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        for (int readers = 1; readers <= Math.max(1, maxReaders); readers *= 2) {
+            run(readers, durationMillis);
+        }
+    }
+
+    private static void run(int nbrReaders, long durationMillis) throws InterruptedException {
+        VWAPData vwapData = new VWAPData("EUR/USD", 60);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+
+        Thread writer = new Thread(() -> {
+            long timestamp = TradeTime.nowNanos();
+            while (running.get()) {
+                vwapData.addDataPoint(new Trade(1.15, 100, timestamp++, "EUR/USD"));
+                writes.increment();
+            }
+        });
+        Thread[] readers = new Thread[nbrReaders];
+        for (int i = 0; i < nbrReaders; i++) {
+            readers[i] = new Thread(() -> {
+                long localReads = 0;
+                double sink = 0;
+                while (running.get()) {
+                    sink += vwapData.getVWAP();
+                    localReads++;
+                }
+                reads.add(localReads);
+                if (sink < 0) {
+                    System.out.println(sink);
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(durationMillis);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        double seconds = durationMillis / 1000.0;
+        System.out.printf("%2d readers: %,15.0f reads/s (%,.0f per reader), %,12.0f writes/s%n", nbrReaders,
+                reads.sum() / seconds, reads.sum() / seconds / nbrReaders, writes.sum() / seconds);
+    }
+}
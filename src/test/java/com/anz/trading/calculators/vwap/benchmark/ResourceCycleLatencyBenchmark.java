@@ -0,0 +1,85 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeGenerator;
+import com.anz.trading.calculators.vwap.TradeResourceManager;
+import com.anz.trading.calculators.vwap.VWAPCalculator;
+import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
+
+/**
+ * Per-trade ingest latency while resource cycles back trades up to an in-memory H2 DB, with the cycle run
+ * inline by the ingest thread every N trades (as VWAPCalculatorService did) against the scheduled background
+ * thread. The cycle's report is not printed during the runs.
+ * Run as a plain main, optional args: number of trades, trades per inline cycle, scheduled interval ms
+ */
+public class ResourceCycleLatencyBenchmark {
+
+    private static final int TRADE_THRESHOLD_PER_PAIR = 5_000;
+    private static final int TOTAL_TRADE_THRESHOLD = 10_000_000;
+    private static int runNumber = 0;
+
+    public static void main(String[] args) throws SQLException {
+        int nbrTrades = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int tradesPerCycle = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        long intervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        TradeGenerator tradeGenerator = new TradeGenerator();
+        List<Trade> trades = new ArrayList<>(nbrTrades);
+        for (int i = 0; i < nbrTrades; i++) {
+            trades.add(tradeGenerator.generateRandomTrade());
+        }
+
+        System.out.printf("%,d trades, inline cycle every %,d trades, scheduled cycle every %d ms%n",
+                nbrTrades, tradesPerCycle, intervalMillis);
+        System.out.printf("  %-10s %10s %10s %10s %10s %12s%n", "mode", "p50 ns", "p99 ns", "p99.9 ns", "p99.99 ns", "max ns");
+        // Two rounds each, the first is a JIT warm-up
+        for (int round = 0; round < 2; round++) {
+            report("inline", run(trades, tradesPerCycle, 0));
+            report("scheduled", run(trades, 0, intervalMillis));
+        }
+    }
+
+    private static long[] run(List<Trade> trades, int tradesPerCycle, long intervalMillis) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:resourceCycleBenchmark" + runNumber++, "sa", "");
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 4, 60);
+        TradeResourceManager resourceManager = new TradeResourceManager(vwapCalculator, TRADE_THRESHOLD_PER_PAIR,
+                TOTAL_TRADE_THRESHOLD, new H2TradePersistent(connection));
+        resourceManager.setReportStream(null);
+        long[] latencies = new long[trades.size()];
+        try {
+            if (intervalMillis > 0) {
+                resourceManager.start(60, intervalMillis, intervalMillis / 10);
+            }
+            for (int i = 0; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                resourceManager.recordTrades(1 - vwapCalculator.processData(trades.get(i)));
+                if (tradesPerCycle > 0 && (i + 1) % tradesPerCycle == 0) {
+                    resourceManager.manageResources(60);
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            resourceManager.shutdown();
+            vwapCalculator.shutdown();
+            connection.close();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void report(String mode, long[] sorted) {
+        System.out.printf("  %-10s %,10d %,10d %,10d %,10d %,12d%n", mode, percentile(sorted, 0.5),
+                percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 0.9999), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
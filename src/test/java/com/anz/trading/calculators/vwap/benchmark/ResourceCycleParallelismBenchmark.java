@@ -0,0 +1,101 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+import com.anz.trading.calculators.vwap.ExecutionMode;
+import com.anz.trading.calculators.vwap.SimulatedTradeClock;
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeResourceManager;
+import com.anz.trading.calculators.vwap.TradeTime;
+import com.anz.trading.calculators.vwap.VWAPCalculator;
+import com.anz.trading.calculators.vwap.WindowMode;
+import com.anz.trading.calculators.vwap.dao.H2ConnectionPool;
+import com.anz.trading.calculators.vwap.dao.PooledH2TradeDAO;
+
+/**
+ * Wall time of one resource cycle over the 10 default currency pairs against a file-backed H2 DB, for each
+ * parallelism. The first cycle backs every pair up, the second backs up the trades since and restores the
+ * older half of the window. Backups still queued for the writer thread are included in the time.
+ * Run as a plain main, optional args: trades per pair for each cycle, parallelisms to compare
+ */
+public class ResourceCycleParallelismBenchmark {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 2, 9, 0);
+    private static final String[] PAIRS = CurrencyPairData.createDefault().getCurrencyPairs();
+
+    public static void main(String[] args) throws IOException {
+        int tradesPerPair = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int[] parallelisms = { 1, 2, 4, 10 };
+        if (args.length > 1) {
+            parallelisms = Stream.of(args[1].split(",")).mapToInt(Integer::parseInt).toArray();
+        }
+
+        System.out.printf("%d pairs, %,d trades per pair per cycle, %d cores%n", PAIRS.length, tradesPerPair,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("  %-12s %14s %20s%n", "parallelism", "backup ms", "backup+restore ms");
+        // Two rounds each, the first is a JIT warm-up
+        for (int round = 0; round < 2; round++) {
+            for (int parallelism : parallelisms) {
+                long[] millis = run(tradesPerPair, parallelism);
+                System.out.printf("  %-12d %,14d %,20d%n", parallelism, millis[0], millis[1]);
+            }
+        }
+    }
+
+    private static long[] run(int tradesPerPair, int parallelism) throws IOException {
+        Path directory = Files.createTempDirectory("resourceCycleParallelism");
+        SimulatedTradeClock clock = new SimulatedTradeClock(START);
+        VWAPCalculator vwapCalculator = new VWAPCalculator((byte) 1, new long[] { 60 }, WindowMode.TRADES,
+                ExecutionMode.SHARED_POOL, clock);
+        long[] millis = new long[2];
+        try (H2ConnectionPool pool = new H2ConnectionPool("jdbc:h2:" + directory.resolve("trades"), "sa", "",
+                2 * parallelism)) {
+            // Every pair is over its threshold each cycle
+            TradeResourceManager resourceManager = new TradeResourceManager(vwapCalculator, 1, Integer.MAX_VALUE,
+                    new PooledH2TradeDAO(pool), parallelism, clock);
+            resourceManager.setReportStream(null);
+            try {
+                Random random = new Random(42);
+                // The first cycle spreads its trades over the hour before, the second over the half hour after
+                addTrades(vwapCalculator, clock, random, tradesPerPair, 60);
+                millis[0] = timeCycle(resourceManager);
+                addTrades(vwapCalculator, clock, random, tradesPerPair, 30);
+                millis[1] = timeCycle(resourceManager);
+            } finally {
+                resourceManager.shutdown();
+            }
+        } finally {
+            vwapCalculator.shutdown();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return millis;
+    }
+
+    private static void addTrades(VWAPCalculator vwapCalculator, SimulatedTradeClock clock, Random random,
+            int tradesPerPair, long minutes) {
+        long stepNanos = TradeTime.minutesToNanos(minutes) / tradesPerPair;
+        for (int i = 0; i < tradesPerPair; i++) {
+            long timestampNanos = clock.advanceBy(stepNanos);
+            for (String pair : PAIRS) {
+                vwapCalculator.processDataWithoutExecutor(
+                        new Trade(1 + random.nextDouble(), 100 + random.nextInt(100_000), timestampNanos, pair));
+            }
+        }
+    }
+
+    private static long timeCycle(TradeResourceManager resourceManager) {
+        long start = System.nanoTime();
+        resourceManager.manageResources(60);
+        resourceManager.flush();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,187 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.dao.H2PartitionedTradeDAO;
+
+/**
+ * Insert rate, one-hour range scan latency and retention cost of the trade table layouts:
+ * the previous four single-column indexes, the (currency_pair, timestamp) composite index,
+ * and hourly / daily partition tables. Trades are spread evenly over a day across 10 pairs,
+ * each layout gets a fresh in-memory database.
+ * Run as a plain main, optional args: number of trades, number of range queries
+ */
+public class TradeSchemaBenchmark {
+
+    private static final String[] PAIRS = { "EUR/USD", "USD/JPY", "GBP/USD", "AUD/USD", "USD/CHF",
+            "USD/CAD", "NZD/USD", "EUR/GBP", "EUR/JPY", "GBP/JPY" };
+    private static final LocalDateTime DAY_START = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int CHUNK_SIZE = 10_000;
+
+    private static int runNumber = 0;
+
+    // One layout under test
+    private interface Layout {
+        void insert(List<Trade> trades) throws SQLException;
+        int scan(String currencyPair, LocalDateTime start, LocalDateTime end) throws SQLException;
+        void dropBefore(LocalDateTime cutoff) throws SQLException;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int nbrTrades = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int nbrQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(42);
+        long stepNanos = 24L * 3600 * 1_000_000_000L / nbrTrades;
+        List<Trade> trades = new ArrayList<>(nbrTrades);
+        for (int i = 0; i < nbrTrades; i++) {
+            trades.add(new Trade(1 + random.nextDouble(), 1 + random.nextInt(1_000_000),
+                    DAY_START.plusNanos(stepNanos * i), PAIRS[random.nextInt(PAIRS.length)]));
+        }
+
+        System.out.printf("%,d trades over one day, %d one-hour range queries%n", nbrTrades, nbrQueries);
+        System.out.printf("  %-24s %14s %14s %14s%n", "layout", "insert rows/s", "scan ms/query", "drop 6h ms");
+        run("single-column indexes", singleTable("price", "volume", "timestamp", "currency_pair"), trades, nbrQueries);
+        run("composite index", singleTable("currency_pair, timestamp"), trades, nbrQueries);
+        run("hourly partitions", partitioned(ChronoUnit.HOURS), trades, nbrQueries);
+        run("daily partitions", partitioned(ChronoUnit.DAYS), trades, nbrQueries);
+    }
+
+    private static void run(String name, Layout layout, List<Trade> trades, int nbrQueries) throws SQLException {
+        long start = System.nanoTime();
+        layout.insert(trades);
+        double rowsPerSecond = trades.size() / ((System.nanoTime() - start) / 1e9);
+
+        // Same query sequence for every layout
+        Random random = new Random(7);
+        long rows = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < nbrQueries; i++) {
+            LocalDateTime from = DAY_START.plusMinutes(random.nextInt(23 * 60));
+            rows += layout.scan(PAIRS[random.nextInt(PAIRS.length)], from, from.plusHours(1));
+        }
+        double scanMillis = (System.nanoTime() - start) / 1e6 / nbrQueries;
+
+        start = System.nanoTime();
+        layout.dropBefore(DAY_START.plusHours(6));
+        double dropMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("  %-24s %,14.0f %14.2f %14.1f   (%,d rows scanned)%n", name, rowsPerSecond, scanMillis, dropMillis, rows);
+    }
+
+    private static Connection newDatabase() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:tradeSchemaBenchmark" + runNumber++, "sa", "");
+    }
+
+    // One trades table keyed on the sequence id with the given indexes, written as H2TradePersistent does
+    private static Layout singleTable(String... indexes) throws SQLException {
+        Connection connection = newDatabase();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE trades (seq_id BIGINT PRIMARY KEY, price DOUBLE, volume BIGINT, " +
+                    "timestamp TIMESTAMP, currency_pair VARCHAR(10))");
+            for (int i = 0; i < indexes.length; i++) {
+                stmt.execute("CREATE INDEX idx_" + i + " ON trades(" + indexes[i] + ")");
+            }
+        }
+        return new Layout() {
+            @Override
+            public void insert(List<Trade> trades) throws SQLException {
+                connection.setAutoCommit(false);
+                try (PreparedStatement pstmt = connection.prepareStatement(
+                        "INSERT INTO trades (seq_id, price, volume, timestamp, currency_pair) VALUES (?, ?, ?, ?, ?)")) {
+                    int inChunk = 0;
+                    for (Trade trade : trades) {
+                        pstmt.setLong(1, trade.getSequenceId());
+                        pstmt.setDouble(2, trade.getPrice());
+                        pstmt.setLong(3, trade.getVolume());
+                        pstmt.setObject(4, trade.getTimestamp());
+                        pstmt.setString(5, trade.getCurrencyPair());
+                        pstmt.addBatch();
+                        if (++inChunk == CHUNK_SIZE) {
+                            pstmt.executeBatch();
+                            connection.commit();
+                            inChunk = 0;
+                        }
+                    }
+                    pstmt.executeBatch();
+                    connection.commit();
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            @Override
+            public int scan(String currencyPair, LocalDateTime start, LocalDateTime end) throws SQLException {
+                int rows = 0;
+                try (PreparedStatement pstmt = connection.prepareStatement("SELECT seq_id, price, volume, timestamp " +
+                        "FROM trades WHERE timestamp BETWEEN ? AND ? AND currency_pair = ? ORDER BY timestamp")) {
+                    pstmt.setObject(1, start);
+                    pstmt.setObject(2, end);
+                    pstmt.setString(3, currencyPair);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                        }
+                    }
+                }
+                return rows;
+            }
+
+            @Override
+            public void dropBefore(LocalDateTime cutoff) throws SQLException {
+                try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM trades WHERE timestamp < ?")) {
+                    pstmt.setObject(1, cutoff);
+                    pstmt.executeUpdate();
+                }
+                connection.close();
+            }
+        };
+    }
+
+    private static Layout partitioned(ChronoUnit partitionUnit) throws SQLException {
+        Connection connection = newDatabase();
+        H2PartitionedTradeDAO tradeDAO = new H2PartitionedTradeDAO(connection, partitionUnit, CHUNK_SIZE);
+        tradeDAO.createTable();
+        return new Layout() {
+            @Override
+            public void insert(List<Trade> trades) throws SQLException {
+                Queue<Trade> queue = new ConcurrentLinkedDeque<>(trades);
+                tradeDAO.insertTradesFrom(queue);
+            }
+
+            @Override
+            public int scan(String currencyPair, LocalDateTime start, LocalDateTime end) throws SQLException {
+                int[] rows = { 0 };
+                tradeDAO.streamTrades(start, end, currencyPair, (price, volume, timestampNanos, sequenceId) -> rows[0]++);
+                return rows[0];
+            }
+
+            @Override
+            public void dropBefore(LocalDateTime cutoff) throws SQLException {
+                if (partitionUnit == ChronoUnit.DAYS) {
+                    // A daily partition cannot be trimmed by hours, fall back to deleting rows
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("DELETE FROM " + tradeDAO.getPartitionNames().get(0) +
+                                " WHERE timestamp < '" + cutoff + "'");
+                    }
+                } else {
+                    tradeDAO.dropPartitionsBefore(cutoff);
+                }
+                connection.close();
+            }
+        };
+    }
+}
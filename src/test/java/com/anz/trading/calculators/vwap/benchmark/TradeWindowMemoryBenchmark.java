@@ -0,0 +1,57 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeRingBuffer;
+
+/**
+ * Compares the heap retained per trade by the original ConcurrentLinkedDeque<Trade> window
+ * against the primitive TradeRingBuffer window. Run as a plain main, e.g. with -Xmx2g
+ */
+public class TradeWindowMemoryBenchmark {
+
+    private static final int TRADES = 1_000_000;
+
+    public static void main(String[] args) {
+        int trades = args.length > 0 ? Integer.parseInt(args[0]) : TRADES;
+        LocalDateTime start = LocalDateTime.now();
+
+        long baseline = usedHeap();
+        Queue<Trade> deque = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < trades; i++) {
+            // Distinct timestamps, as each live trade carries its own LocalDateTime
+            deque.add(new Trade(1.15 + i * 1e-7, 100 + i, start.plusNanos(i * 1000L), "EUR/USD"));
+        }
+        double dequeBytes = (double) (usedHeap() - baseline) / trades;
+        System.out.println("Retained trades: " + deque.size());
+        deque = null;
+
+        baseline = usedHeap();
+        TradeRingBuffer buffer = new TradeRingBuffer();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < trades; i++) {
+            buffer.add(1.15 + i * 1e-7, 100 + i, startNanos + i * 1000L);
+        }
+        double bufferBytes = (double) (usedHeap() - baseline) / trades;
+        System.out.println("Retained trades: " + buffer.size() + " (capacity " + buffer.capacity() + ")");
+
+        System.out.printf("ConcurrentLinkedDeque<Trade>: %.1f bytes per retained trade%n", dequeBytes);
+        System.out.printf("TradeRingBuffer:              %.1f bytes per retained trade%n", bufferBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
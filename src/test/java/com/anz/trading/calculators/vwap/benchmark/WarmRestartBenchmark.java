@@ -0,0 +1,81 @@
+package com.anz.trading.calculators.vwap.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.VWAPCalculator;
+import com.anz.trading.calculators.vwap.VWAPCheckpointer;
+import com.anz.trading.calculators.vwap.dao.H2TradePersistent;
+import com.anz.trading.calculators.vwap.dao.TradeDAO;
+
+/**
+ * Time from restart to a correct VWAP when the whole window is rebuilt from the persistent DB (cold)
+ * against loading the latest checkpoint and replaying the 1% of trades written after it (warm).
+ * Run as a plain main, optional arg: number of trades in the window
+ */
+public class WarmRestartBenchmark {
+
+    private static final String CURRENCY_PAIR = "EUR/USD";
+    private static final long MINUTES_FOR_VWAP = 60;
+
+    public static void main(String[] args) throws Exception {
+        int nbrTrades = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int tailTrades = nbrTrades / 100;
+
+        // Spread over the last 59 minutes so every trade is inside the window
+        LocalDateTime start = LocalDateTime.now().minusMinutes(59);
+        long stepNanos = 59L * 60 * 1_000_000_000L / nbrTrades;
+        Queue<Trade> beforeCheckpoint = new ConcurrentLinkedDeque<>();
+        Queue<Trade> afterCheckpoint = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < nbrTrades; i++) {
+            Trade trade = new Trade(1.10 + (i % 97) * 0.0001, 1000 + i % 500, start.plusNanos(stepNanos * i), CURRENCY_PAIR);
+            (i < nbrTrades - tailTrades ? beforeCheckpoint : afterCheckpoint).add(trade);
+        }
+
+        Path checkpointFile = Files.createTempFile("vwap", ".ckpt");
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:warmRestartBenchmark", "sa", "")) {
+            TradeDAO persistentDAO = new H2TradePersistent(connection);
+            persistentDAO.createTable();
+
+            // The process that crashes: everything reaches the DB, the checkpoint misses the last 1%
+            VWAPCalculator crashed = new VWAPCalculator((byte) 1, MINUTES_FOR_VWAP);
+            beforeCheckpoint.forEach(crashed::processDataWithoutExecutor);
+            persistentDAO.insertTradesFrom(crashed.getVWAPData(CURRENCY_PAIR).getNewestQueueAndMarkPersisted());
+            new VWAPCheckpointer(crashed, checkpointFile).checkpoint();
+            afterCheckpoint.forEach(crashed::processDataWithoutExecutor);
+            persistentDAO.insertTradesFrom(crashed.getVWAPData(CURRENCY_PAIR).getNewestQueueAndMarkPersisted());
+            double expected = crashed.getVWAP(CURRENCY_PAIR);
+            crashed.shutdown();
+
+            // Warm first so it gets no help from a JIT already warmed up by the cold run
+            long warmStart = System.nanoTime();
+            VWAPCalculator warm = new VWAPCalculator((byte) 1, MINUTES_FOR_VWAP);
+            new VWAPCheckpointer(warm, checkpointFile).restore(persistentDAO);
+            double warmVWAP = warm.getVWAP(CURRENCY_PAIR);
+            long warmNanos = System.nanoTime() - warmStart;
+
+            long coldStart = System.nanoTime();
+            VWAPCalculator cold = new VWAPCalculator((byte) 1, MINUTES_FOR_VWAP);
+            LocalDateTime now = LocalDateTime.now();
+            cold.restoreData(persistentDAO.getAllTrades(now.minusMinutes(MINUTES_FOR_VWAP + 1), now, CURRENCY_PAIR));
+            double coldVWAP = cold.getVWAP(CURRENCY_PAIR);
+            long coldNanos = System.nanoTime() - coldStart;
+
+            System.out.printf("%,d trades in the window, %,d after the checkpoint, checkpoint %,d bytes%n",
+                    nbrTrades, tailTrades, Files.size(checkpointFile));
+            System.out.printf("  cold (full DB replay): %,8.0f ms, VWAP %.6f%n", coldNanos / 1e6, coldVWAP);
+            System.out.printf("  warm (checkpoint):     %,8.0f ms, VWAP %.6f%n", warmNanos / 1e6, warmVWAP);
+            System.out.printf("  expected VWAP          %.6f%n", expected);
+            cold.shutdown();
+            warm.shutdown();
+        } finally {
+            Files.deleteIfExists(checkpointFile);
+        }
+    }
+}
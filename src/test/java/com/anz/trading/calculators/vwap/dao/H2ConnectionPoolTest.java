@@ -0,0 +1,76 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import com.anz.trading.calculators.vwap.Trade;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class H2ConnectionPoolTest {
+
+    private static final String URL = "jdbc:h2:mem:connectionPoolTest;DB_CLOSE_DELAY=-1";
+
+    @Test
+    void testPoolNeverOpensMoreThanItsLimit() throws SQLException {
+        try (H2ConnectionPool pool = new H2ConnectionPool(URL, "sa", "", 2, 100)) {
+            Connection first = pool.borrow();
+            Connection second = pool.borrow();
+            assertNotSame(first, second);
+            assertEquals(2, pool.getOpenCount());
+
+            // Both are out, the next borrower gives up after the timeout
+            assertThrows(SQLException.class, pool::borrow);
+
+            // A released connection is handed out again rather than a new one opened
+            pool.release(first);
+            assertSame(first, pool.borrow());
+            assertEquals(2, pool.getOpenCount());
+
+            // A connection closed while borrowed frees its slot
+            second.close();
+            pool.release(second);
+            assertEquals(1, pool.getOpenCount());
+            Connection third = pool.borrow();
+            assertFalse(third.isClosed());
+            pool.release(third);
+            pool.release(first);
+        }
+    }
+
+    @Test
+    void testReleasedConnectionIsBackInAutoCommit() throws SQLException {
+        try (H2ConnectionPool pool = new H2ConnectionPool(URL, "sa", "", 1)) {
+            pool.withConnection(connection -> {
+                connection.setAutoCommit(false);
+                return null;
+            });
+            assertTrue(pool.withConnection(Connection::getAutoCommit));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new H2ConnectionPool(URL, "sa", "", 0));
+    }
+
+    @Test
+    void testPooledDAOReadsWhatItWrites() throws SQLException {
+        try (H2ConnectionPool pool = new H2ConnectionPool("jdbc:h2:mem:pooledDAOTest;DB_CLOSE_DELAY=-1", "sa", "", 2)) {
+            PooledH2TradeDAO tradeDAO = new PooledH2TradeDAO(pool);
+            tradeDAO.createTable();
+            LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            for (int i = 0; i < 10; i++) {
+                trades.add(new Trade(1.0 + i, 10, start.plusSeconds(i), "EUR/USD"));
+            }
+            tradeDAO.insertTradesFrom(trades);
+
+            assertEquals(10, tradeDAO.getAllTrades(start, start.plusMinutes(1), "EUR/USD").size());
+            assertEquals(1, tradeDAO.getMinuteBars(start, start.plusMinutes(1), "EUR/USD").size());
+            // Every call hands its connection back
+            assertEquals(pool.getOpenCount(), pool.getIdleCount());
+            tradeDAO.deleteDB();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import com.anz.trading.calculators.vwap.Trade;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class H2PartitionedTradeDAOTest {
+
+    private final LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    // One EUR/USD trade a minute for three hours, and one USD/JPY trade an hour
+    private Queue<Trade> trades() {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < 180; i++) {
+            trades.add(new Trade(1.0 + i, 10, start.plusMinutes(i), "EUR/USD"));
+        }
+        for (int h = 0; h < 3; h++) {
+            trades.add(new Trade(150.0, 5, start.plusHours(h), "USD/JPY"));
+        }
+        return trades;
+    }
+
+    @Test
+    void testTradesAreWrittenToTheirHourAndReadBackAcrossPartitions() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:partitionedReadTest", "sa", "")) {
+            H2PartitionedTradeDAO tradeDAO = new H2PartitionedTradeDAO(connection, ChronoUnit.HOURS, 50);
+            tradeDAO.createTable();
+            Queue<Trade> trades = trades();
+            tradeDAO.insertTradesFrom(trades);
+            // Re-sent trades are not duplicated
+            tradeDAO.insertTradesFrom(trades);
+
+            assertEquals(3, tradeDAO.getPartitionNames().size());
+            assertEquals("TRADES_P2024010109", tradeDAO.getPartitionNames().get(0));
+
+            // 09:30 to 10:30 spans two partitions, rows still come back in timestamp order
+            List<Long> timestamps = new ArrayList<>();
+            tradeDAO.streamTrades(start.plusMinutes(30), start.plusMinutes(90), "EUR/USD",
+                    (price, volume, timestampNanos, sequenceId) -> timestamps.add(timestampNanos));
+            assertEquals(61, timestamps.size());
+            for (int i = 1; i < timestamps.size(); i++) {
+                assertTrue(timestamps.get(i - 1) < timestamps.get(i));
+            }
+            assertEquals(1, tradeDAO.getAllTrades(start, start.plusMinutes(59), "USD/JPY").size());
+
+            // A new instance on the same DB finds the existing partitions
+            H2PartitionedTradeDAO reopened = new H2PartitionedTradeDAO(connection, ChronoUnit.HOURS);
+            reopened.createTable();
+            assertEquals(tradeDAO.getPartitionNames(), reopened.getPartitionNames());
+            assertEquals(180, reopened.getAllTrades(start, start.plusHours(3), "EUR/USD").size());
+        }
+    }
+
+    @Test
+    void testRetentionDropsWholePartitions() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:partitionedRetentionTest", "sa", "")) {
+            H2PartitionedTradeDAO tradeDAO = new H2PartitionedTradeDAO(connection, ChronoUnit.HOURS);
+            tradeDAO.createTable();
+            tradeDAO.insertTradesFrom(trades());
+
+            // 10:30 only covers the whole of the 09:00 partition, 10:00 still has trades after the cutoff
+            assertEquals(1, tradeDAO.dropPartitionsBefore(start.plusMinutes(90)));
+            assertEquals(2, tradeDAO.getPartitionNames().size());
+            assertEquals(0, tradeDAO.getAllTrades(start, start.plusMinutes(59), "EUR/USD").size());
+            assertEquals(120, tradeDAO.getAllTrades(start, start.plusHours(3), "EUR/USD").size());
+
+            tradeDAO.deleteDB();
+            assertTrue(tradeDAO.getPartitionNames().isEmpty());
+        }
+    }
+
+    @Test
+    void testExistingPartitionsAreWidenedToNanoseconds() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:partitionedNanosTest", "sa", "")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE TRADES_P2024010109 (seq_id BIGINT PRIMARY KEY, price DOUBLE, " +
+                        "volume BIGINT, timestamp TIMESTAMP, currency_pair VARCHAR(10))");
+            }
+            H2PartitionedTradeDAO tradeDAO = new H2PartitionedTradeDAO(connection, ChronoUnit.HOURS);
+            tradeDAO.createTable();
+
+            LocalDateTime timestamp = start.withNano(123_456_789);
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            trades.add(new Trade(1.1, 60, timestamp, "EUR/USD"));
+            tradeDAO.insertTradesFrom(trades);
+
+            assertEquals(1, tradeDAO.getPartitionNames().size());
+            assertEquals(timestamp, tradeDAO.getAllTrades(start, start.plusMinutes(1), "EUR/USD").peek().getTimestamp());
+        }
+    }
+
+    @Test
+    void testDailyPartitionsIgnoreHourlyTables() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:partitionedGranularityTest", "sa", "")) {
+            H2PartitionedTradeDAO hourly = new H2PartitionedTradeDAO(connection, ChronoUnit.HOURS);
+            hourly.createTable();
+            hourly.insertTradesFrom(trades());
+
+            H2PartitionedTradeDAO daily = new H2PartitionedTradeDAO(connection, ChronoUnit.DAYS);
+            daily.createTable();
+            assertTrue(daily.getPartitionNames().isEmpty());
+            daily.insertTradesFrom(trades());
+            assertEquals(1, daily.getPartitionNames().size());
+            assertEquals("TRADES_P20240101", daily.getPartitionNames().get(0));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new H2PartitionedTradeDAO(null, ChronoUnit.MINUTES));
+    }
+}
@@ -1,6 +1,8 @@
 package com.anz.trading.calculators.vwap.dao;
 
+import com.anz.trading.calculators.vwap.MinuteBar;
 import com.anz.trading.calculators.vwap.Trade;
+import com.anz.trading.calculators.vwap.TradeTime;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 //import org.mockito.Mockito;
@@ -12,7 +14,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
@@ -266,4 +270,203 @@ public class H2TradePersistentTest {
             assertEquals("EUR/USD", trade2.getCurrencyPair(), "Second trade currency pair should match.");
         }
     }
+    
+    @Test
+    void testInsertTradesFromIsIdempotentOnSequenceId() throws SQLException {
+        try (Connection realConnection = DriverManager.getConnection("jdbc:h2:mem:bulkAppendTest", "sa", "")) {
+            TradeDAO tradeDAO = new H2TradePersistent(realConnection, 10);
+            tradeDAO.createTable();
+
+            LocalDateTime now = LocalDateTime.now();
+            Queue<Trade> firstBackup = new ConcurrentLinkedDeque<>();
+            for (int i = 0; i < 25; i++) {
+                firstBackup.add(new Trade(1.0 + i, 100, now.minusSeconds(i), "EUR/USD"));
+            }
+            tradeDAO.insertTradesFrom(firstBackup);
+
+            // A later backup re-sends the same trades plus new ones, only the new ones should be added
+            Queue<Trade> secondBackup = new ConcurrentLinkedDeque<>(firstBackup);
+            for (int i = 25; i < 30; i++) {
+                secondBackup.add(new Trade(1.0 + i, 100, now.minusSeconds(i), "EUR/USD"));
+            }
+            tradeDAO.insertTradesFrom(secondBackup);
+
+            try (Statement stmt = realConnection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COUNT(DISTINCT seq_id) FROM trades")) {
+                assertTrue(rs.next());
+                assertEquals(30, rs.getInt(1), "Re-sent trades should not be duplicated");
+                assertEquals(30, rs.getInt(2));
+            }
+            assertTrue(realConnection.getAutoCommit(), "Auto-commit should be restored after the write");
+
+            // Trades read back keep the id they were written with
+            Queue<Trade> restored = tradeDAO.getAllTrades(now.minusMinutes(1), now.plusSeconds(1), "EUR/USD");
+            assertEquals(firstBackup.peek().getSequenceId(), restored.stream()
+                    .filter(trade -> trade.getPrice() == 1.0).findFirst().get().getSequenceId());
+        }
+    }
+    
+    @Test
+    void testCreateTableMigratesTableWithoutSequenceId() throws SQLException {
+        try (Connection realConnection = DriverManager.getConnection("jdbc:h2:mem:migrationTest", "sa", "")) {
+            try (Statement stmt = realConnection.createStatement()) {
+                stmt.execute("CREATE TABLE trades (id IDENTITY PRIMARY KEY, price DOUBLE, volume BIGINT, " +
+                        "timestamp TIMESTAMP, currency_pair VARCHAR(10))");
+                stmt.execute("INSERT INTO trades (price, volume, timestamp, currency_pair) " +
+                        "VALUES (1.0, 50, CURRENT_TIMESTAMP, 'EUR/USD')");
+            }
+
+            TradeDAO tradeDAO = new H2TradePersistent(realConnection);
+            tradeDAO.createTable();
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            trades.add(new Trade(1.1, 60, LocalDateTime.now(), "EUR/USD"));
+            tradeDAO.insertTradesFrom(trades);
+            tradeDAO.insertTradesFrom(trades);
+
+            try (Statement stmt = realConnection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM trades")) {
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+            }
+        }
+    }
+    
+    @Test
+    void testCreateTableWidensMicrosecondTimestampsToNanoseconds() throws SQLException {
+        try (Connection realConnection = DriverManager.getConnection("jdbc:h2:mem:nanosTest", "sa", "")) {
+            try (Statement stmt = realConnection.createStatement()) {
+                stmt.execute("CREATE TABLE trades (seq_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                        "price DOUBLE, volume BIGINT, timestamp TIMESTAMP, currency_pair VARCHAR(10))");
+            }
+
+            TradeDAO tradeDAO = new H2TradePersistent(realConnection);
+            tradeDAO.createTable();
+            // Below a microsecond, a plain TIMESTAMP would round this away
+            LocalDateTime timestamp = LocalDateTime.of(2024, 1, 2, 9, 0, 0, 123_456_789);
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            trades.add(new Trade(1.1, 60, timestamp, "EUR/USD"));
+            tradeDAO.insertTradesFrom(trades);
+
+            List<Long> timestamps = new ArrayList<>();
+            tradeDAO.streamTrades(timestamp.minusMinutes(1), timestamp.plusMinutes(1), "EUR/USD",
+                    (price, volume, timestampNanos, sequenceId) -> timestamps.add(timestampNanos));
+            assertEquals(1, timestamps.size());
+            assertEquals(TradeTime.toEpochNanos(timestamp), timestamps.get(0).longValue());
+        }
+    }
+    
+    @Test
+    void testStreamTradesPassesRowsInTimestampOrder() throws SQLException {
+        try (Connection realConnection = DriverManager.getConnection("jdbc:h2:mem:streamTest", "sa", "")) {
+            TradeDAO tradeDAO = new H2TradePersistent(realConnection);
+            tradeDAO.createTable();
+
+            LocalDateTime now = LocalDateTime.now().withNano(0);
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            trades.add(new Trade(1.2, 30, now.minusMinutes(1), "EUR/USD"));
+            trades.add(new Trade(1.1, 20, now.minusMinutes(2), "EUR/USD"));
+            trades.add(new Trade(150.0, 10, now.minusMinutes(2), "USD/JPY"));
+            tradeDAO.insertTradesFrom(trades);
+
+            List<Long> timestamps = new ArrayList<>();
+            List<Long> sequenceIds = new ArrayList<>();
+            tradeDAO.streamTrades(now.minusMinutes(5), now, "EUR/USD", (price, volume, timestampNanos, sequenceId) -> {
+                timestamps.add(timestampNanos);
+                sequenceIds.add(sequenceId);
+            });
+
+            Trade older = new ArrayList<>(trades).get(1);
+            assertEquals(2, timestamps.size());
+            assertEquals(older.getTimestampNanos(), timestamps.get(0).longValue());
+            assertEquals(older.getSequenceId(), sequenceIds.get(0).longValue());
+            assertTrue(timestamps.get(0) < timestamps.get(1));
+        }
+    }
+    
+    @Test
+    void testMinuteBarsAreKeptWithTheTradesAndSurviveResends() throws SQLException {
+        try (Connection realConnection = DriverManager.getConnection("jdbc:h2:mem:minuteBarTest", "sa", "")) {
+            H2TradePersistent tradeDAO = new H2TradePersistent(realConnection, 7);
+            tradeDAO.createTable();
+
+            // Three trades a minute for three minutes, plus one trade of another pair
+            LocalDateTime minute = LocalDateTime.now().withSecond(0).withNano(0).minusMinutes(10);
+            Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+            for (int i = 0; i < 9; i++) {
+                trades.add(new Trade(1.0 + i, 10 + i, minute.plusMinutes(i / 3).plusSeconds(10 * (i % 3)), "EUR/USD"));
+            }
+            trades.add(new Trade(150.0, 5, minute, "USD/JPY"));
+            tradeDAO.insertTradesFrom(trades);
+            // A re-sent backup must not be counted into the bars twice
+            tradeDAO.insertTradesFrom(trades);
+
+            List<MinuteBar> bars = tradeDAO.getMinuteBars(minute, minute.plusMinutes(5), "EUR/USD");
+            assertEquals(3, bars.size());
+            for (int m = 0; m < 3; m++) {
+                MinuteBar bar = bars.get(m);
+                double expectedPriceVolume = 0;
+                long expectedVolume = 0;
+                for (int i = 3 * m; i < 3 * m + 3; i++) {
+                    expectedPriceVolume += (1.0 + i) * (10 + i);
+                    expectedVolume += 10 + i;
+                }
+                assertEquals(minute.plusMinutes(m), bar.getMinuteStart());
+                assertEquals(expectedPriceVolume, bar.getSumPriceVolume(), 1e-9);
+                assertEquals(expectedVolume, bar.getSumVolume());
+                assertEquals(3, bar.getTradeCount());
+                assertEquals(TradeTime.toEpochNanos(minute.plusMinutes(m)), bar.getFirstTimestampNanos());
+                assertEquals(TradeTime.toEpochNanos(minute.plusMinutes(m).plusSeconds(20)), bar.getLastTimestampNanos());
+            }
+            assertEquals(1, tradeDAO.getMinuteBars(minute, minute.plusMinutes(5), "USD/JPY").size());
+
+            // The raw trades are still there for audit queries
+            assertEquals(9, tradeDAO.getAllTrades(minute, minute.plusMinutes(5), "EUR/USD").size());
+        }
+    }
+    
+    @Test
+    void testWritersSharingAConnectionDoNotEndEachOthersTransactions() throws Exception {
+        try (Connection sharedConnection = DriverManager.getConnection("jdbc:h2:mem:sharedConnectionTest", "sa", "")) {
+            // e.g. the write-behind thread and a restore both using H2DatabaseUtility's connection
+            H2TradePersistent tradeDAO = new H2TradePersistent(sharedConnection, 50);
+            tradeDAO.createTable();
+            LocalDateTime start = LocalDateTime.now().withSecond(0).withNano(0).minusHours(2);
+            Queue<Trade> resent = new ConcurrentLinkedDeque<>();
+            for (int i = 0; i < 500; i++) {
+                resent.add(new Trade(1.0, 100, start.plusSeconds(i), "USD/JPY"));
+            }
+            tradeDAO.insertTradesFrom(resent);
+
+            // One writer appends new trades while the other re-sends written ones, whose chunks roll back
+            // on the duplicate key and are merged instead
+            int nbrNewTrades = 5_000;
+            Thread appender = new Thread(() -> {
+                for (int i = 0; i < nbrNewTrades; i += 100) {
+                    Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+                    for (int j = i; j < i + 100; j++) {
+                        trades.add(new Trade(2.0, 100, start.plusSeconds(j), "EUR/USD"));
+                    }
+                    try {
+                        tradeDAO.insertTradesFrom(trades);
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            appender.start();
+            while (appender.isAlive()) {
+                tradeDAO.insertTradesFrom(resent);
+            }
+            appender.join();
+
+            // A rollback on one thread would have taken the other's uncommitted chunk with it
+            assertEquals(nbrNewTrades, tradeDAO.getAllTrades(start, start.plusHours(2), "EUR/USD").size());
+            long barTrades = 0;
+            for (MinuteBar bar : tradeDAO.getMinuteBars(start, start.plusHours(2), "EUR/USD")) {
+                barTrades += bar.getTradeCount();
+            }
+            assertEquals(nbrNewTrades, barTrades);
+            assertTrue(sharedConnection.getAutoCommit(), "Auto-commit should be restored after the writes");
+        }
+    }
 }
@@ -0,0 +1,130 @@
+package com.anz.trading.calculators.vwap.dao;
+
+import com.anz.trading.calculators.vwap.Trade;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedTradeJournalTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    private final LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    // One trade a second for EUR/USD, with every 100th trade arriving 30 minutes late
+    private Queue<Trade> trades(int count) {
+        Queue<Trade> trades = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < count; i++) {
+            LocalDateTime timestamp = start.plusSeconds(i);
+            if (i % 100 == 99) {
+                timestamp = timestamp.minusMinutes(30);
+            }
+            trades.add(new Trade(1.0 + i, i, timestamp, "EUR/USD"));
+        }
+        trades.add(new Trade(150.0, 10, start.plusSeconds(10), "USD/JPY"));
+        return trades;
+    }
+
+    private static long countBetween(Queue<Trade> trades, LocalDateTime from, LocalDateTime to, String currencyPair) {
+        return trades.stream()
+                .filter(trade -> trade.getCurrencyPair().equals(currencyPair))
+                .filter(trade -> !trade.getTimestamp().isBefore(from) && !trade.getTimestamp().isAfter(to))
+                .count();
+    }
+
+    @Test
+    void testFailedBatchIsRolledBackSoARetryDoesNotDuplicateTrades() throws Exception {
+        MappedTradeJournal journal = new MappedTradeJournal(journalDirectory, 2048);
+        journal.createTable();
+        Queue<Trade> committed = new ConcurrentLinkedDeque<>();
+        Queue<Trade> batch = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < 3000; i++) {
+            (i < 1500 ? committed : batch).add(new Trade(1.0 + i, i, start.plusSeconds(i), "EUR/USD"));
+        }
+        journal.insertTradesFrom(committed);
+
+        // The batch fills the rest of the first segment and starts another before GBP/USD cannot be written
+        batch.add(new Trade(1.3, 10, start, "GBP/USD"));
+        Path blocked = Files.createFile(journalDirectory.resolve("GBP_USD"));
+        assertThrows(SQLException.class, () -> journal.insertTradesFrom(batch));
+        LocalDateTime end = start.plusHours(2);
+        assertEquals(1500, journal.getAllTrades(start, end, "EUR/USD").size());
+
+        Files.delete(blocked);
+        journal.insertTradesFrom(batch);
+        assertEquals(3000, journal.getAllTrades(start, end, "EUR/USD").size());
+        assertEquals(1, journal.getAllTrades(start, end, "GBP/USD").size());
+        journal.close();
+
+        // The segment counts on disk were rolled back too
+        MappedTradeJournal reopened = new MappedTradeJournal(journalDirectory, 2048);
+        assertEquals(3000, reopened.getAllTrades(start, end, "EUR/USD").size());
+        assertEquals(500, reopened.getAllTrades(start.plusSeconds(1000), start.plusSeconds(1499), "EUR/USD").size());
+        reopened.close();
+    }
+
+    @Test
+    void testGetAllTradesMatchesAFullScanAcrossSegments() throws Exception {
+        MappedTradeJournal journal = new MappedTradeJournal(journalDirectory, 2048);
+        journal.createTable();
+        Queue<Trade> trades = trades(5000);
+        journal.insertTradesFrom(trades);
+
+        LocalDateTime from = start.plusMinutes(40);
+        LocalDateTime to = start.plusMinutes(70);
+        Queue<Trade> result = journal.getAllTrades(from, to, "EUR/USD");
+
+        assertEquals(countBetween(trades, from, to, "EUR/USD"), result.size());
+        assertTrue(result.stream().allMatch(trade -> "EUR/USD".equals(trade.getCurrencyPair())));
+        assertEquals(1, journal.getAllTrades(start, start.plusMinutes(1), "USD/JPY").size());
+        assertTrue(Files.list(journalDirectory.resolve("EUR_USD")).count() >= 3, "Trades should span several segments");
+        journal.close();
+    }
+
+    @Test
+    void testReopenedJournalRebuildsItsIndex() throws SQLException {
+        MappedTradeJournal journal = new MappedTradeJournal(journalDirectory, 1024);
+        journal.createTable();
+        Queue<Trade> trades = trades(3000);
+        journal.insertTradesFrom(trades);
+        Trade first = trades.peek();
+        journal.close();
+
+        MappedTradeJournal reopened = new MappedTradeJournal(journalDirectory, 1024);
+        Queue<Trade> result = reopened.getAllTrades(start, start.plusHours(2), "EUR/USD");
+        assertEquals(countBetween(trades, start, start.plusHours(2), "EUR/USD"), result.size());
+
+        Trade restored = result.peek();
+        assertEquals(first.getPrice(), restored.getPrice(), 0.0001);
+        assertEquals(first.getVolume(), restored.getVolume());
+        assertEquals(first.getTimestamp(), restored.getTimestamp());
+        assertEquals(first.getSequenceId(), restored.getSequenceId());
+
+        // Appends continue after the records already on disk
+        reopened.insertTrade(new Trade(2.0, 5, start.plusHours(5), "EUR/USD"));
+        assertEquals(1, reopened.getAllTrades(start.plusHours(5), start.plusHours(5), "EUR/USD").size());
+        reopened.close();
+    }
+
+    @Test
+    void testDeleteDB() throws SQLException {
+        MappedTradeJournal journal = new MappedTradeJournal(journalDirectory);
+        journal.createTable();
+        journal.insertTradesFrom(trades(10));
+
+        journal.deleteDB();
+
+        assertEquals(0, journal.getAllTrades(start, start.plusHours(1), "EUR/USD").size());
+        assertFalse(Files.exists(journalDirectory.resolve("EUR_USD")));
+        assertThrows(UnsupportedOperationException.class, journal::getAllTrades);
+    }
+}
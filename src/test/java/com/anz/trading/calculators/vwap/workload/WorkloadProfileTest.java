@@ -0,0 +1,117 @@
+package com.anz.trading.calculators.vwap.workload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.SplittableRandom;
+
+import com.anz.trading.calculators.vwap.CurrencyPairData;
+
+public class WorkloadProfileTest {
+
+    private static final int DRAWS = 200_000;
+
+    @Test
+    void testZipfPairsConcentrateOnTheFirstPair() {
+        PairSelector pairSelector = PairSelector.zipf(10, WorkloadProfile.PRODUCTION_PAIR_SKEW);
+        assertEquals(0.40, pairSelector.getProbability(0), 0.01);
+
+        SplittableRandom random = new SplittableRandom(1);
+        int[] counts = new int[10];
+        for (int i = 0; i < DRAWS; i++) {
+            counts[pairSelector.nextPair(random)]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(pairSelector.getProbability(i), (double) counts[i] / DRAWS, 0.005);
+        }
+
+        // Explicit weights, a pair with none is never picked
+        PairSelector weighted = PairSelector.weighted(3, 0, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertNotEquals(1, weighted.nextPair(random));
+        }
+        assertEquals(0.75, weighted.getProbability(0));
+        assertThrows(IllegalArgumentException.class, () -> PairSelector.weighted(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadProfile(CurrencyPairData.createDefault(),
+                PairSelector.uniform(3), null, null, null));
+    }
+
+    @Test
+    void testArrivalsAverageTheirRateAndBurstsReachTheMultiple() {
+        SplittableRandom random = new SplittableRandom(2);
+        PoissonArrivals poisson = new PoissonArrivals(1000);
+        double totalGap = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            totalGap += poisson.nextGapNanos(random);
+        }
+        assertEquals(1e6, totalGap / DRAWS, 1e4);
+
+        // Calm at 1000/s for 100 ms on average, bursts at 50x for 20 ms
+        BurstyArrivals bursty = new BurstyArrivals(1000, 50, 100, 20);
+        long elapsedNanos = 0;
+        long burstTrades = 0;
+        long burstNanos = 0;
+        for (int i = 0; i < DRAWS * 5; i++) {
+            long gap = bursty.nextGapNanos(random);
+            elapsedNanos += gap;
+            if (bursty.isBursting()) {
+                burstTrades++;
+                burstNanos += gap;
+            }
+        }
+        double meanRate = DRAWS * 5 / (elapsedNanos / 1e9);
+        assertEquals(bursty.getMeanRate(), meanRate, bursty.getMeanRate() * 0.05);
+        // Gaps ending inside a burst run at close to 50,000/s
+        assertEquals(50_000, burstTrades / (burstNanos / 1e9), 5_000);
+
+        // A copy replays the same arrivals from an equally seeded random
+        ArrivalProcess first = new BurstyArrivals(1000, 50, 100, 20);
+        ArrivalProcess second = first.copy();
+        SplittableRandom firstRandom = new SplittableRandom(3);
+        SplittableRandom secondRandom = new SplittableRandom(3);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.nextGapNanos(firstRandom), second.nextGapNanos(secondRandom));
+        }
+    }
+
+    @Test
+    void testRandomWalkStaysAroundTheMeanAndVolumesAreHeavyTailed() {
+        CurrencyPairData currencyPairData = CurrencyPairData.createDefault();
+        SplittableRandom random = new SplittableRandom(4);
+        RandomWalkPrices prices = new RandomWalkPrices(currencyPairData, 0.01);
+        double mean = currencyPairData.getCurrencyPairStats()[2][0];
+        double standardDeviation = currencyPairData.getCurrencyPairStats()[2][1];
+        double sum = 0;
+        double sumOfSquares = 0;
+        double largestStep = 0;
+        double previous = mean;
+        for (int i = 0; i < DRAWS; i++) {
+            double price = prices.nextPrice(2, random);
+            sum += price;
+            sumOfSquares += price * price;
+            largestStep = Math.max(largestStep, Math.abs(price - previous));
+            previous = price;
+        }
+        double sampleMean = sum / DRAWS;
+        assertEquals(mean, sampleMean, standardDeviation / 5);
+        assertEquals(standardDeviation, Math.sqrt(sumOfSquares / DRAWS - sampleMean * sampleMean), standardDeviation / 5);
+        // Consecutive prices are close, unlike independent draws
+        assertTrue(largestStep < standardDeviation, "Largest step " + largestStep);
+        // A copy starts again from the mean
+        assertEquals(mean, prices.copy().nextPrice(2, new SplittableRandom(5)), standardDeviation);
+
+        ParetoVolumes volumes = new ParetoVolumes(100, 1.5, 10_000_000);
+        int atLeast1000 = 0;
+        int atLeast10000 = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            long volume = volumes.nextVolume(random);
+            assertTrue(volume >= 100 && volume <= 10_000_000);
+            atLeast1000 += volume >= 1000 ? 1 : 0;
+            atLeast10000 += volume >= 10_000 ? 1 : 0;
+        }
+        // P(V >= v) = (100 / v)^1.5
+        assertEquals(Math.pow(0.1, 1.5), (double) atLeast1000 / DRAWS, 0.002);
+        assertEquals(Math.pow(0.01, 1.5), (double) atLeast10000 / DRAWS, 0.0005);
+    }
+}